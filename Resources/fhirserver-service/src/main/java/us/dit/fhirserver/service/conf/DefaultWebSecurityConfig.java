@@ -26,6 +26,7 @@ import org.springframework.http.HttpMethod;
 import static org.springframework.security.config.Customizer.withDefaults;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
+import org.springframework.security.config.annotation.web.configuration.WebSecurityCustomizer;
 import org.springframework.security.core.userdetails.User;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -64,6 +65,15 @@ public class DefaultWebSecurityConfig {
         return http.build();
     }
 
+    /**
+     * El servidor KIE simulado de las pruebas de carga queda fuera de la cadena de
+     * seguridad para aceptar las credenciales que tenga configuradas el broker.
+     */
+    @Bean
+    WebSecurityCustomizer webSecurityCustomizer() {
+        return (web) -> web.ignoring().antMatchers("/kie-stub/**");
+    }
+
     /**
      * Configuración de la autenticación con autenticación en memoria y encriptada
      * Muy débil no sirve para producción
@@ -0,0 +1,52 @@
+package us.dit.fhirserver.service.conf;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+import us.dit.fhirserver.service.entities.domain.LoadTestReport;
+import us.dit.fhirserver.service.services.loadtest.LoadTestService;
+
+/**
+ * Componente que ejecuta la prueba de carga al iniciar la aplicación, sin
+ * intervención del usuario. Solo se crea si la propiedad loadtest.enabled está
+ * activada. Si además está activada la propiedad loadtest.exit, la aplicación
+ * termina al finalizar la prueba con código 1 si se han perdido o duplicado
+ * eventos.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+@ConditionalOnProperty(name = "loadtest.enabled", havingValue = "true")
+public class LoadTestRunner implements ApplicationRunner {
+
+    @Value("${loadtest.exit:false}")
+    private Boolean exit;
+
+    private final LoadTestService loadTestService;
+    private final ConfigurableApplicationContext context;
+
+    @Autowired
+    public LoadTestRunner(LoadTestService loadTestService, ConfigurableApplicationContext context) {
+        this.loadTestService = loadTestService;
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) throws Exception {
+        LoadTestReport report = loadTestService.run();
+
+        if (exit) {
+            int code = report.getLost() > 0 || report.getDuplicates() > 0 ? 1 : 0;
+            System.exit(SpringApplication.exit(context, () -> code));
+        }
+    }
+
+}
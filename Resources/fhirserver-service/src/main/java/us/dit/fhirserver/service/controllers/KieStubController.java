@@ -0,0 +1,206 @@
+package us.dit.fhirserver.service.controllers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.dit.fhirserver.service.services.loadtest.SignalRecorder;
+
+/**
+ * Controlador que simula la API REST de un servidor KIE para las pruebas de
+ * carga. Responde a las consultas de información del servidor y de contenedores
+ * que realiza el cliente KIE del broker y registra en {@link SignalRecorder}
+ * las referencias de las señales recibidas.
+ * 
+ * En el broker se debe configurar como servidor KIE la URL
+ * http://localhost:8081/kie-stub/services/rest/server.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@RestController
+@RequestMapping(value = "/kie-stub/services/rest/server", produces = MediaType.APPLICATION_JSON_VALUE)
+public class KieStubController {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    @Value("${loadtest.kie.container:loadtest}")
+    private String container;
+
+    @Value("${loadtest.kie.latency:0}")
+    private Long latency;
+
+    private final SignalRecorder signalRecorder;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * Constructor que inyecta el componente {@link SignalRecorder}.
+     * 
+     * @param signalRecorder componente que registra los eventos enviados y las
+     *                       señales recibidas.
+     */
+    @Autowired
+    public KieStubController(SignalRecorder signalRecorder) {
+        this.signalRecorder = signalRecorder;
+    }
+
+    /**
+     * Devuelve la información del servidor KIE simulado.
+     * 
+     * @return la respuesta con la información del servidor.
+     */
+    @GetMapping
+    public Map<String, Object> getServerInfo() {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("id", "kie-stub");
+        info.put("version", "7.74.1.Final");
+        info.put("name", "kie-stub");
+        info.put("location", "http://localhost:8081/kie-stub/services/rest/server");
+        info.put("capabilities", Arrays.asList("KieServer", "BRM", "BPM"));
+        info.put("messages", Collections.emptyList());
+
+        return response("Kie Server info", Collections.singletonMap("kie-server-info", info));
+    }
+
+    /**
+     * Devuelve el listado de contenedores del servidor KIE simulado, que contiene
+     * un único contenedor arrancado.
+     * 
+     * @return la respuesta con el listado de contenedores.
+     */
+    @GetMapping("/containers")
+    public Map<String, Object> getContainers() {
+        Map<String, Object> releaseId = new LinkedHashMap<>();
+        releaseId.put("group-id", "us.dit");
+        releaseId.put("artifact-id", container);
+        releaseId.put("version", "1.0.0");
+
+        Map<String, Object> kieContainer = new LinkedHashMap<>();
+        kieContainer.put("container-id", container);
+        kieContainer.put("release-id", releaseId);
+        kieContainer.put("resolved-release-id", releaseId);
+        kieContainer.put("status", "STARTED");
+        kieContainer.put("config-items", Collections.emptyList());
+        kieContainer.put("messages", Collections.emptyList());
+        kieContainer.put("container-alias", container);
+
+        Map<String, Object> containers = Collections.singletonMap("kie-container",
+                Collections.singletonList(kieContainer));
+
+        return response("List of created containers", Collections.singletonMap("kie-containers", containers));
+    }
+
+    /**
+     * Recibe una señal y registra las referencias de los recursos que contiene. La
+     * señal puede contener una referencia o un listado de referencias si el envío
+     * es por lotes.
+     * 
+     * @param containerId identificador del contenedor.
+     * @param signal      nombre de la señal.
+     * @param message     contenido de la señal.
+     * @return una respuesta HTTP vacía.
+     */
+    @PostMapping("/containers/{containerId}/processes/instances/signal/{signal}")
+    public ResponseEntity<Void> signal(@PathVariable String containerId, @PathVariable String signal,
+            @RequestBody(required = false) String message) {
+        signalRecorder.signal();
+
+        for (String reference : getReferences(message)) {
+            Long idResource = getIdResource(reference);
+            if (idResource != null) {
+                signalRecorder.received(idResource);
+            } else {
+                logger.debug("Se recibe la señal {} con una referencia desconocida: {}", signal, reference);
+            }
+        }
+
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        return ResponseEntity.ok().build();
+    }
+
+    /**
+     * Crea una respuesta satisfactoria con el formato de la API REST del servidor
+     * KIE.
+     * 
+     * @param msg    mensaje de la respuesta.
+     * @param result resultado de la respuesta.
+     * @return la respuesta.
+     */
+    private Map<String, Object> response(String msg, Object result) {
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("type", "SUCCESS");
+        response.put("msg", msg);
+        response.put("result", result);
+        return response;
+    }
+
+    /**
+     * Obtiene las referencias que contiene el cuerpo de una señal, que puede ser
+     * una cadena JSON, un array JSON de cadenas o el texto sin formato.
+     * 
+     * @param message contenido de la señal.
+     * @return el listado de referencias.
+     */
+    private List<String> getReferences(String message) {
+        List<String> references = new ArrayList<>();
+        if (message == null || message.isEmpty()) {
+            return references;
+        }
+
+        try {
+            JsonNode node = objectMapper.readTree(message);
+            if (node.isArray()) {
+                node.forEach(element -> references.add(element.asText()));
+            } else {
+                references.add(node.asText());
+            }
+        } catch (Exception e) {
+            references.add(message);
+        }
+
+        return references;
+    }
+
+    /**
+     * Obtiene el identificador del recurso de una referencia, que es la última
+     * parte de la URL del recurso.
+     * 
+     * @param reference referencia del recurso.
+     * @return el identificador del recurso o null si no es numérico.
+     */
+    private Long getIdResource(String reference) {
+        String[] parts = reference.split("/");
+        try {
+            return Long.valueOf(parts[parts.length - 1]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
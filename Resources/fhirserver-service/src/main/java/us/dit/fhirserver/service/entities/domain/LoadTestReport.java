@@ -0,0 +1,168 @@
+package us.dit.fhirserver.service.entities.domain;
+
+/**
+ * Objeto del dominio que representa el resultado de una prueba de carga.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class LoadTestReport {
+
+    private int subscriptions;
+    private long notifications;
+    private long failedNotifications;
+    private long eventsSent;
+    private long eventsReceived;
+    private long signals;
+    private long lost;
+    private long duplicates;
+    private long unexpected;
+    private double durationSeconds;
+    private double sentThroughput;
+    private double receivedThroughput;
+    private double latencyP50;
+    private double latencyP99;
+    private double latencyMax;
+
+    public int getSubscriptions() {
+        return subscriptions;
+    }
+
+    public void setSubscriptions(int subscriptions) {
+        this.subscriptions = subscriptions;
+    }
+
+    public long getNotifications() {
+        return notifications;
+    }
+
+    public void setNotifications(long notifications) {
+        this.notifications = notifications;
+    }
+
+    public long getFailedNotifications() {
+        return failedNotifications;
+    }
+
+    public void setFailedNotifications(long failedNotifications) {
+        this.failedNotifications = failedNotifications;
+    }
+
+    public long getEventsSent() {
+        return eventsSent;
+    }
+
+    public void setEventsSent(long eventsSent) {
+        this.eventsSent = eventsSent;
+    }
+
+    public long getEventsReceived() {
+        return eventsReceived;
+    }
+
+    public void setEventsReceived(long eventsReceived) {
+        this.eventsReceived = eventsReceived;
+    }
+
+    public long getSignals() {
+        return signals;
+    }
+
+    public void setSignals(long signals) {
+        this.signals = signals;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public void setLost(long lost) {
+        this.lost = lost;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    public void setDuplicates(long duplicates) {
+        this.duplicates = duplicates;
+    }
+
+    public long getUnexpected() {
+        return unexpected;
+    }
+
+    public void setUnexpected(long unexpected) {
+        this.unexpected = unexpected;
+    }
+
+    public double getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public void setDurationSeconds(double durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    public double getSentThroughput() {
+        return sentThroughput;
+    }
+
+    public void setSentThroughput(double sentThroughput) {
+        this.sentThroughput = sentThroughput;
+    }
+
+    public double getReceivedThroughput() {
+        return receivedThroughput;
+    }
+
+    public void setReceivedThroughput(double receivedThroughput) {
+        this.receivedThroughput = receivedThroughput;
+    }
+
+    public double getLatencyP50() {
+        return latencyP50;
+    }
+
+    public void setLatencyP50(double latencyP50) {
+        this.latencyP50 = latencyP50;
+    }
+
+    public double getLatencyP99() {
+        return latencyP99;
+    }
+
+    public void setLatencyP99(double latencyP99) {
+        this.latencyP99 = latencyP99;
+    }
+
+    public double getLatencyMax() {
+        return latencyMax;
+    }
+
+    public void setLatencyMax(double latencyMax) {
+        this.latencyMax = latencyMax;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder report = new StringBuilder();
+        report.append("Resultado de la prueba de carga\n");
+        report.append(String.format("  Subscripciones:            %d%n", subscriptions));
+        report.append(String.format("  Notificaciones enviadas:   %d (fallidas: %d)%n", notifications,
+                failedNotifications));
+        report.append(String.format("  Eventos enviados:          %d%n", eventsSent));
+        report.append(String.format("  Eventos recibidos:         %d (señales: %d)%n", eventsReceived, signals));
+        report.append(String.format("  Eventos perdidos:          %d%n", lost));
+        report.append(String.format("  Eventos duplicados:        %d%n", duplicates));
+        report.append(String.format("  Eventos inesperados:       %d%n", unexpected));
+        report.append(String.format("  Duración (s):              %.1f%n", durationSeconds));
+        report.append(String.format("  Throughput enviado (ev/s): %.1f%n", sentThroughput));
+        report.append(String.format("  Throughput KIE (ev/s):     %.1f%n", receivedThroughput));
+        report.append(String.format("  Latencia p50 (ms):         %.2f%n", latencyP50));
+        report.append(String.format("  Latencia p99 (ms):         %.2f%n", latencyP99));
+        report.append(String.format("  Latencia máxima (ms):      %.2f%n", latencyMax));
+        return report.toString();
+    }
+}
@@ -10,6 +10,7 @@ import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 
 import ca.uhn.fhir.context.FhirContext;
 import us.dit.fhirserver.service.entities.db.Event;
@@ -37,11 +38,13 @@ public class EventService {
     private final SubscriptionRepository subscriptionRepository;
     private final EventMapper eventMapper;
     private final RestClient restClient;
+    private final TransactionTemplate transactionTemplate;
 
     /**
      * Constructor que inyecta los repositorios {@link EventRepository} y
      * {@link SubscriptionRepository}, los componentes {@link EventMapper} y
-     * {@link FhirContext} y el servicio {@link RestClient}.
+     * {@link FhirContext}, el servicio {@link RestClient} y la plantilla de
+     * transacciones.
      * 
      * @param fhirContext            componente que contiene el contexto FHIR.
      * @param eventRepository        repositorio JPA de la entidad {@link Event}.
@@ -50,15 +53,20 @@ public class EventService {
      *                               del dominio y recursos FHIR relacionados con
      *                               los eventos.
      * @param restClient             servicio que gestiona las operaciones REST.
+     * @param transactionTemplate    plantilla con la que se delimitan las
+     *                               transacciones, para que no incluyan el envío
+     *                               de las notificaciones.
      */
     @Autowired
     public EventService(FhirContext fhirContext, EventRepository eventRepository,
-            SubscriptionRepository subscriptionRepository, EventMapper eventMapper, RestClient restClient) {
+            SubscriptionRepository subscriptionRepository, EventMapper eventMapper, RestClient restClient,
+            TransactionTemplate transactionTemplate) {
         this.fhirContext = fhirContext;
         this.eventRepository = eventRepository;
         this.subscriptionRepository = subscriptionRepository;
         this.eventMapper = eventMapper;
         this.restClient = restClient;
+        this.transactionTemplate = transactionTemplate;
     }
 
     /**
@@ -77,34 +85,47 @@ public class EventService {
 
     /**
      * Crea y envía una notificación con los datos de todos los eventos facilitados
-     * al endpoint configurado en una subscripción.
+     * al endpoint configurado en una subscripción. Los eventos se guardan y el
+     * mensaje se genera en una transacción, y el estado de la subscripción se
+     * actualiza en otra tras el envío, de modo que no se mantiene abierta una
+     * conexión con la base de datos mientras se espera la respuesta del endpoint.
      * 
      * @param idSubscription identificador de la subscripción.
      * @param eventDTOs      listado de eventos a enviar.
+     * @return true, en el caso de que el endpoint acepte la notificación, o false,
+     *         en el caso contrario.
      */
-    public void sendEvents(Long idSubscription, List<EventDTO> eventDTOs) {
-        // Obtiene la información
-        Subs subs = subscriptionRepository.getById(idSubscription);
-        subs.setLastEvent(subs.getLastEvent() + eventDTOs.size());
-        List<Event> events = eventDTOs.stream().map(dto -> eventMapper.toEntity(idSubscription, dto))
-                .collect(Collectors.toList());
-
-        // Genera el mensaje de notificación
-        Bundle bundle = eventMapper.toBundleNotification(subs, events);
-        String message = fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle);
-
-        // Notifica al cliente
-        Boolean send = restClient.sendMessage(subs.getEndpoint(), message);
-
-        if (send) {
-            subs.setStatus(SubscriptionStatusCodes.ACTIVE.toCode());
-        } else {
-            subs.setStatus(SubscriptionStatusCodes.ERROR.toCode());
-        }
-
-        // Guarda la información en BBDD
-        subscriptionRepository.save(subs);
-        eventRepository.saveAll(events);
+    public Boolean sendEvents(Long idSubscription, List<EventDTO> eventDTOs) {
+        // Guarda los eventos y genera el mensaje de notificación
+        Notification notification = transactionTemplate.execute(status -> {
+            Subs subs = subscriptionRepository.getById(idSubscription);
+            subs.setLastEvent(subs.getLastEvent() + eventDTOs.size());
+            List<Event> events = eventDTOs.stream().map(dto -> eventMapper.toEntity(idSubscription, dto))
+                    .collect(Collectors.toList());
+
+            Bundle bundle = eventMapper.toBundleNotification(subs, events);
+            String message = fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(bundle);
+
+            subscriptionRepository.save(subs);
+            eventRepository.saveAll(events);
+            return new Notification(subs.getEndpoint(), message);
+        });
+
+        // Notifica al cliente fuera de la transacción
+        Boolean send = restClient.sendMessage(notification.endpoint, notification.message);
+
+        // Guarda el estado de la subscripción según la respuesta
+        transactionTemplate.executeWithoutResult(status -> {
+            Subs subs = subscriptionRepository.getById(idSubscription);
+            if (send) {
+                subs.setStatus(SubscriptionStatusCodes.ACTIVE.toCode());
+            } else {
+                subs.setStatus(SubscriptionStatusCodes.ERROR.toCode());
+            }
+            subscriptionRepository.save(subs);
+        });
+
+        return send;
     }
 
     /**
@@ -164,4 +185,18 @@ public class EventService {
         subscriptionRepository.save(subs);
     }
 
+    /**
+     * Mensaje de notificación pendiente de enviar al endpoint de una subscripción.
+     */
+    private static final class Notification {
+
+        private final String endpoint;
+        private final String message;
+
+        private Notification(String endpoint, String message) {
+            this.endpoint = endpoint;
+            this.message = message;
+        }
+    }
+
 }
@@ -0,0 +1,401 @@
+package us.dit.fhirserver.service.services.loadtest;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.client.RestTemplate;
+
+import us.dit.fhirserver.service.entities.db.Subs;
+import us.dit.fhirserver.service.entities.db.Topic;
+import us.dit.fhirserver.service.entities.domain.EventDTO;
+import us.dit.fhirserver.service.entities.domain.LoadTestReport;
+import us.dit.fhirserver.service.repositories.SubscriptionRepository;
+import us.dit.fhirserver.service.repositories.SubscriptionTopicRepository;
+import us.dit.fhirserver.service.services.fhir.EventService;
+
+/**
+ * Servicio que genera carga sobre el broker. Crea las subscripciones a través
+ * de la API de administración del broker, envía eventos a su endpoint de
+ * notificaciones con la tasa y el tamaño de notificación configurados y, a
+ * partir de las señales registradas por el servidor KIE simulado, genera el
+ * informe de la prueba.
+ *
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Service
+public class LoadTestService {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    @Value("${fhir.server.url}")
+    private String fhirServerUrl;
+
+    @Value("${loadtest.broker.url:http://localhost:8090}")
+    private String brokerUrl;
+
+    @Value("${loadtest.broker.fhir-server-id:1}")
+    private Long brokerFhirServerId;
+
+    @Value("${loadtest.subscriptions:10}")
+    private Integer subscriptions;
+
+    @Value("${loadtest.payload:id-only}")
+    private String payload;
+
+    @Value("${loadtest.rate:100}")
+    private Integer rate;
+
+    @Value("${loadtest.bundle-size:1}")
+    private Integer bundleSize;
+
+    @Value("${loadtest.senders:8}")
+    private Integer senders;
+
+    @Value("${loadtest.warmup:60}")
+    private Long warmup;
+
+    @Value("${loadtest.duration:60}")
+    private Long duration;
+
+    @Value("${loadtest.drain:30}")
+    private Long drain;
+
+    @Value("${loadtest.report:loadtest-report.txt}")
+    private String reportFile;
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final SubscriptionTopicRepository subscriptionTopicRepository;
+    private final EventService eventService;
+    private final SignalRecorder signalRecorder;
+    private final RestTemplate brokerClient;
+
+    /**
+     * Constructor que inyecta los repositorios {@link SubscriptionRepository} y
+     * {@link SubscriptionTopicRepository}, el servicio {@link EventService} y el
+     * componente {@link SignalRecorder}, y crea el cliente REST de la API de
+     * administración del broker.
+     *
+     * @param subscriptionRepository      repositorio JPA de la entidad
+     *                                    {@link Subs}.
+     * @param subscriptionTopicRepository repositorio JPA de la entidad
+     *                                    {@link Topic}.
+     * @param eventService                servicio que envía las notificaciones
+     *                                    de eventos.
+     * @param signalRecorder              componente que registra los eventos
+     *                                    enviados y las señales recibidas.
+     * @param builder                     constructor de clientes REST.
+     * @param user                        usuario de la API de administración del
+     *                                    broker.
+     * @param password                    contraseña de la API de administración
+     *                                    del broker.
+     */
+    @Autowired
+    public LoadTestService(SubscriptionRepository subscriptionRepository,
+            SubscriptionTopicRepository subscriptionTopicRepository, EventService eventService,
+            SignalRecorder signalRecorder, RestTemplateBuilder builder,
+            @Value("${loadtest.broker.user:wbadmin}") String user,
+            @Value("${loadtest.broker.password:wbadmin}") String password) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.subscriptionTopicRepository = subscriptionTopicRepository;
+        this.eventService = eventService;
+        this.signalRecorder = signalRecorder;
+        this.brokerClient = builder.basicAuthentication(user, password).setConnectTimeout(Duration.ofSeconds(10))
+                .setReadTimeout(Duration.ofSeconds(30)).build();
+    }
+
+    /**
+     * Ejecuta una prueba de carga completa: crea las subscripciones, espera a que
+     * se completen los handshakes, envía los eventos durante el tiempo
+     * configurado, espera a que lleguen las señales pendientes y genera el
+     * informe.
+     *
+     * @return el informe de la prueba.
+     */
+    public LoadTestReport run() {
+        signalRecorder.reset();
+
+        List<Long> idSubscriptions = createSubscriptions();
+        waitForHandshakes(idSubscriptions);
+
+        logger.info("Inicio de la prueba de carga: {} subscripciones, {} eventos/s, {} eventos por notificación",
+                idSubscriptions.size(), rate, bundleSize);
+        AtomicLong notifications = new AtomicLong();
+        AtomicLong failedNotifications = new AtomicLong();
+        long start = System.nanoTime();
+        sendEvents(idSubscriptions, notifications, failedNotifications);
+        long end = System.nanoTime();
+
+        waitForSignals();
+
+        LoadTestReport report = buildReport(idSubscriptions.size(), notifications.get(), failedNotifications.get(),
+                start, end);
+        logger.info("\n{}", report);
+        writeReport(report);
+
+        return report;
+    }
+
+    /**
+     * Crea las subscripciones de la prueba en el broker. El broker crea a su vez
+     * las subscripciones en este servidor, por lo que las nuevas subscripciones se
+     * identifican comparando las existentes antes y después de crearlas.
+     *
+     * @return el listado de identificadores de las subscripciones creadas.
+     */
+    private List<Long> createSubscriptions() {
+        Topic topic = getTopic();
+        String subscriptionsUrl = brokerUrl + "/fhir/servers/" + brokerFhirServerId + "/subscriptions";
+
+        Set<Long> previous = subscriptionRepository.findAll().stream().map(Subs::getId).collect(Collectors.toSet());
+
+        // Sincroniza los temas de subscripción del broker con los de este servidor
+        brokerClient.getForEntity(subscriptionsUrl, String.class);
+
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_FORM_URLENCODED);
+        MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+        form.add("idTopic", topic.getId().toString());
+        form.add("urlTopic", fhirServerUrl + "/SubscriptionTopic/" + topic.getId());
+        form.add("payload", payload);
+
+        for (int i = 0; i < subscriptions; i++) {
+            brokerClient.postForEntity(subscriptionsUrl + "/create", new HttpEntity<>(form, headers), String.class);
+        }
+
+        List<Long> created = subscriptionRepository.findAll().stream().map(Subs::getId)
+                .filter(id -> !previous.contains(id)).sorted().collect(Collectors.toList());
+        logger.info("Se crean {} subscripciones a través del broker", created.size());
+        if (created.isEmpty()) {
+            throw new RuntimeException("El broker no ha creado ninguna subscripción");
+        }
+
+        return created;
+    }
+
+    /**
+     * Obtiene el tema de subscripción de la prueba, creándolo si no existe. Se
+     * utiliza la creación de recursos ServiceRequest.
+     *
+     * @return el tema de subscripción.
+     */
+    private Topic getTopic() {
+        return subscriptionTopicRepository.findAll().stream()
+                .filter(topic -> "ServiceRequest".equals(topic.getResource()) && "create".equals(topic.getOperation()))
+                .findFirst().orElseGet(() -> {
+                    Topic topic = new Topic();
+                    topic.setName("LoadTest");
+                    topic.setResource("ServiceRequest");
+                    topic.setOperation("create");
+                    return subscriptionTopicRepository.save(topic);
+                });
+    }
+
+    /**
+     * Espera a que todas las subscripciones estén activas, lo que indica que se ha
+     * completado el handshake con el broker, o a que se supere el tiempo máximo de
+     * espera.
+     *
+     * @param idSubscriptions identificadores de las subscripciones.
+     */
+    private void waitForHandshakes(List<Long> idSubscriptions) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmup);
+        while (System.nanoTime() < deadline) {
+            long active = subscriptionRepository.findAllById(idSubscriptions).stream()
+                    .filter(subs -> SubscriptionStatusCodes.ACTIVE.toCode().equals(subs.getStatus())).count();
+            if (active == idSubscriptions.size()) {
+                return;
+            }
+            sleep(1000);
+        }
+        logger.warn("No se han activado todas las subscripciones antes de iniciar la prueba");
+    }
+
+    /**
+     * Envía eventos a las subscripciones durante el tiempo configurado. Las
+     * notificaciones se programan a intervalos fijos para mantener la tasa
+     * configurada y se envían desde un conjunto de hilos, repartiéndose entre las
+     * subscripciones por turnos. Los envíos de una misma subscripción se
+     * serializan para que los números de evento sean consecutivos.
+     *
+     * @param idSubscriptions     identificadores de las subscripciones.
+     * @param notifications       contador de notificaciones enviadas.
+     * @param failedNotifications contador de notificaciones rechazadas.
+     */
+    private void sendEvents(List<Long> idSubscriptions, AtomicLong notifications, AtomicLong failedNotifications) {
+        List<SubscriptionLoad> loads = new ArrayList<>();
+        for (Subs subs : subscriptionRepository.findAllById(idSubscriptions)) {
+            loads.add(new SubscriptionLoad(subs.getId(), subs.getLastEvent()));
+        }
+
+        // Identificadores de recurso únicos entre pruebas
+        AtomicLong resourceIds = new AtomicLong(System.currentTimeMillis() * 1000);
+        AtomicInteger turn = new AtomicInteger();
+
+        ExecutorService senderPool = Executors.newFixedThreadPool(senders);
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        long period = TimeUnit.SECONDS.toNanos(1) * bundleSize / rate;
+
+        scheduler.scheduleAtFixedRate(() -> senderPool.execute(() -> {
+            SubscriptionLoad load = loads.get(Math.floorMod(turn.getAndIncrement(), loads.size()));
+            synchronized (load) {
+                List<EventDTO> events = new ArrayList<>();
+                for (int i = 0; i < bundleSize; i++) {
+                    EventDTO event = new EventDTO();
+                    event.setNumber(++load.lastEvent);
+                    event.setIdResource(resourceIds.incrementAndGet());
+                    signalRecorder.sent(event.getIdResource());
+                    events.add(event);
+                }
+                notifications.incrementAndGet();
+                try {
+                    if (!eventService.sendEvents(load.idSubscription, events)) {
+                        failedNotifications.incrementAndGet();
+                    }
+                } catch (Exception e) {
+                    logger.warn("Error enviando eventos a la subscripción {}: {}", load.idSubscription,
+                            e.getMessage());
+                    failedNotifications.incrementAndGet();
+                }
+            }
+        }), 0, Math.max(period, 1), TimeUnit.NANOSECONDS);
+
+        sleep(TimeUnit.SECONDS.toMillis(duration));
+        scheduler.shutdownNow();
+        senderPool.shutdown();
+        try {
+            senderPool.awaitTermination(drain, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Espera a que el servidor KIE simulado reciba todos los eventos enviados o a
+     * que se supere el tiempo máximo de espera.
+     */
+    private void waitForSignals() {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(drain);
+        while (System.nanoTime() < deadline && signalRecorder.getReceivedCount() < signalRecorder.getSentCount()) {
+            sleep(100);
+        }
+    }
+
+    /**
+     * Genera el informe de la prueba a partir de los datos registrados.
+     *
+     * @param subscriptions       número de subscripciones.
+     * @param notifications       número de notificaciones enviadas.
+     * @param failedNotifications número de notificaciones rechazadas.
+     * @param start               instante de inicio del envío (ns).
+     * @param end                 instante de fin del envío (ns).
+     * @return el informe de la prueba.
+     */
+    private LoadTestReport buildReport(int subscriptions, long notifications, long failedNotifications, long start,
+            long end) {
+        LoadTestReport report = new LoadTestReport();
+        long sent = signalRecorder.getSentCount();
+        long received = signalRecorder.getReceivedCount();
+        double seconds = (end - start) / 1e9;
+        long lastReceived = signalRecorder.getLastReceived();
+        double receivedSeconds = lastReceived > start ? (lastReceived - start) / 1e9 : seconds;
+
+        report.setSubscriptions(subscriptions);
+        report.setNotifications(notifications);
+        report.setFailedNotifications(failedNotifications);
+        report.setEventsSent(sent);
+        report.setEventsReceived(received);
+        report.setSignals(signalRecorder.getSignals());
+        report.setLost(sent - received);
+        report.setDuplicates(signalRecorder.getDuplicates());
+        report.setUnexpected(signalRecorder.getUnexpected());
+        report.setDurationSeconds(seconds);
+        report.setSentThroughput(sent / seconds);
+        report.setReceivedThroughput(received / receivedSeconds);
+
+        List<Long> latencies = signalRecorder.getSortedLatencies();
+        report.setLatencyP50(percentile(latencies, 0.50));
+        report.setLatencyP99(percentile(latencies, 0.99));
+        report.setLatencyMax(percentile(latencies, 1.0));
+
+        return report;
+    }
+
+    /**
+     * Calcula un percentil de un listado ordenado de latencias por el método del
+     * rango más cercano.
+     *
+     * @param latencies listado ordenado de latencias (ns).
+     * @param p         percentil a calcular, entre 0 y 1.
+     * @return el percentil en milisegundos o 0 si no hay latencias.
+     */
+    private double percentile(List<Long> latencies, double p) {
+        if (latencies.isEmpty()) {
+            return 0;
+        }
+        int index = (int) Math.ceil(p * latencies.size()) - 1;
+        return latencies.get(Math.max(index, 0)) / 1e6;
+    }
+
+    /**
+     * Escribe el informe de la prueba en el fichero configurado.
+     *
+     * @param report informe de la prueba.
+     */
+    private void writeReport(LoadTestReport report) {
+        try {
+            Files.write(Paths.get(reportFile), report.toString().getBytes(StandardCharsets.UTF_8));
+            logger.info("Informe de la prueba de carga guardado en {}", reportFile);
+        } catch (IOException e) {
+            logger.error("Error guardando el informe de la prueba de carga: {}", e.getMessage());
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Estado del envío de eventos de una subscripción.
+     */
+    private static class SubscriptionLoad {
+
+        private final Long idSubscription;
+        private long lastEvent;
+
+        private SubscriptionLoad(Long idSubscription, Integer lastEvent) {
+            this.idSubscription = idSubscription;
+            this.lastEvent = lastEvent != null ? lastEvent : 0;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package us.dit.fhirserver.service.services.loadtest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Componente que registra los eventos enviados por el generador de carga y las
+ * señales recibidas por el servidor KIE simulado, permitiendo calcular la
+ * latencia extremo a extremo y los eventos perdidos o duplicados.
+ * 
+ * Los eventos se identifican por el identificador del recurso notificado, que
+ * es único durante toda la prueba. Los instantes se toman con
+ * {@link System#nanoTime()}, por lo que el generador y el servidor KIE simulado
+ * deben ejecutarse en la misma JVM.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class SignalRecorder {
+
+    private final Map<Long, Long> sent = new ConcurrentHashMap<>();
+    private final Map<Long, AtomicInteger> received = new ConcurrentHashMap<>();
+    private final List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicLong signals = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong unexpected = new AtomicLong();
+    private volatile long lastReceived;
+
+    /**
+     * Registra el instante de envío de un evento.
+     * 
+     * @param idResource identificador del recurso notificado en el evento.
+     */
+    public void sent(Long idResource) {
+        sent.put(idResource, System.nanoTime());
+    }
+
+    /**
+     * Registra la recepción de una señal con el recurso de un evento. Si el evento
+     * ya se había recibido se contabiliza como duplicado, y si no se había enviado
+     * durante la prueba se contabiliza como inesperado.
+     * 
+     * @param idResource identificador del recurso recibido en la señal.
+     */
+    public void received(Long idResource) {
+        long now = System.nanoTime();
+        lastReceived = now;
+
+        Long sentAt = sent.get(idResource);
+        if (sentAt == null) {
+            unexpected.incrementAndGet();
+            return;
+        }
+
+        int count = received.computeIfAbsent(idResource, id -> new AtomicInteger()).incrementAndGet();
+        if (count == 1) {
+            latencies.add(now - sentAt);
+        } else {
+            duplicates.incrementAndGet();
+        }
+    }
+
+    /**
+     * Contabiliza una señal recibida por el servidor KIE simulado.
+     */
+    public void signal() {
+        signals.incrementAndGet();
+    }
+
+    /**
+     * Borra todos los datos registrados para iniciar una nueva prueba.
+     */
+    public void reset() {
+        sent.clear();
+        received.clear();
+        latencies.clear();
+        signals.set(0);
+        duplicates.set(0);
+        unexpected.set(0);
+        lastReceived = 0;
+    }
+
+    public int getSentCount() {
+        return sent.size();
+    }
+
+    public int getReceivedCount() {
+        return received.size();
+    }
+
+    public long getSignals() {
+        return signals.get();
+    }
+
+    public long getDuplicates() {
+        return duplicates.get();
+    }
+
+    public long getUnexpected() {
+        return unexpected.get();
+    }
+
+    public long getLastReceived() {
+        return lastReceived;
+    }
+
+    /**
+     * Obtiene una copia ordenada de las latencias (en ns) de los eventos
+     * recibidos.
+     * 
+     * @return el listado ordenado de latencias.
+     */
+    public List<Long> getSortedLatencies() {
+        List<Long> copy;
+        synchronized (latencies) {
+            copy = new ArrayList<>(latencies);
+        }
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,126 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.entities.domain.SignalRoute;
+import us.dit.fkbroker.service.services.kie.KieService;
+import us.dit.fkbroker.service.services.kie.KieSignalDispatcher;
+
+/**
+ * Benchmark de {@link KieService#sendSignal(Long, List)} con envío directo (sin
+ * bandeja de salida), midiendo el tiempo hasta que se completan todos los
+ * envíos. Los servidores KIE se sustituyen por un {@code KieServerService} que
+ * simula la latencia indicada en microsegundos. El modo virtual sólo se
+ * diferencia del de plataforma al ejecutarse en JDK 21 o superior.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KieServiceBenchmark {
+
+    private static final Long ID_TRIGGER = 1L;
+
+    @Param({ "1", "10", "100" })
+    public int references;
+
+    @Param({ "1", "3" })
+    public int servers;
+
+    @Param({ "false", "true" })
+    public boolean batch;
+
+    @Param({ "0", "1000" })
+    public long latencyMicros;
+
+    @Param({ "platform", "virtual" })
+    public String threadsMode;
+
+    private KieSignalDispatcher kieSignalDispatcher;
+    private KieService kieService;
+    private List<String> referenceList;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        List<KieServer> kieServers = new ArrayList<>();
+        for (int i = 0; i < servers; i++) {
+            kieServers.add(new KieServer("http://kie" + i + ":8080/kie-server/services/rest/server", "user", "pwd"));
+        }
+
+        kieSignalDispatcher = new KieSignalDispatcher(new Stubs.StubKieServerService(latencyMicros),
+                new Stubs.StubKieContainerCache(Collections.singletonList("fkbroker-kjar_1.0.0")),
+                new SimpleMeterRegistry());
+        Stubs.setField(kieSignalDispatcher, "defaultConcurrency", 4);
+        Stubs.setField(kieSignalDispatcher, "queueCapacity", 1000);
+        Stubs.setField(kieSignalDispatcher, "defaultTimeout", 10000L);
+        Stubs.setField(kieSignalDispatcher, "threadsMode", threadsMode);
+
+        SignalRoute signalRoute = new SignalRoute("create-ServiceRequest", batch, kieServers, null);
+        kieService = new KieService(
+                new Stubs.StubRoutingTable(Collections.singletonMap(ID_TRIGGER, Collections.singletonList(signalRoute))),
+                kieSignalDispatcher, null, Stubs.metrics());
+        Stubs.setField(kieService, "outboxEnabled", false);
+
+        referenceList = new ArrayList<>();
+        for (int i = 1; i <= references; i++) {
+            referenceList.add("http://localhost:8888/fhir/ServiceRequest/" + i);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        kieSignalDispatcher.shutdown();
+    }
+
+    @Benchmark
+    public List<SignalResult> sendSignal() {
+        return kieService.sendSignal(ID_TRIGGER, referenceList).join();
+    }
+
+}
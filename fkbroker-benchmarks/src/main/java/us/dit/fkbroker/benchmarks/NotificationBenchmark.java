@@ -0,0 +1,147 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.SubscriptionStatus;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import us.dit.fkbroker.service.entities.db.FhirServer;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.db.Topic;
+import us.dit.fkbroker.service.entities.db.Trigger;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+import us.dit.fkbroker.service.services.fhir.NotificationJournalService;
+import us.dit.fkbroker.service.services.fhir.NotificationParser;
+import us.dit.fkbroker.service.services.fhir.NotificationService;
+import us.dit.fkbroker.service.services.fhir.RecoveryCoordinator;
+import us.dit.fkbroker.service.services.fhir.SignalDeduplicator;
+
+/**
+ * Benchmarks del procesamiento de una notificación FHIR: el método
+ * {@link NotificationService#processNotification(String, SubscriptionData)}
+ * completo, la lectura en streaming frente al parser de HAPI FHIR y la
+ * obtención de las referencias de un SubscriptionStatus (antes
+ * {@code NotificationService.getReferenceNotifications}).
+ * 
+ * Las notificaciones se generan con contenido empty, id-only y full-resource y
+ * con 1, 10 y 100 eventos. El envío de señales se sustituye por un servicio que
+ * no hace nada, de modo que sólo se mide el código del bróker.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class NotificationBenchmark {
+
+    @Param({ Notifications.EMPTY, Notifications.ID_ONLY, Notifications.FULL_RESOURCE })
+    public String content;
+
+    @Param({ "1", "10", "100" })
+    public int events;
+
+    private String message;
+    private SubscriptionStatus subscriptionStatus;
+    private NotificationParser notificationParser;
+    private NotificationService notificationService;
+    private SubscriptionData subscriptionData;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        FhirContext fhirContext = FhirContext.forR5();
+        message = Notifications.eventNotification(fhirContext, content, events);
+        subscriptionStatus = (SubscriptionStatus) fhirContext.newJsonParser().parseResource(Bundle.class, message)
+                .getEntryFirstRep().getResource();
+
+        notificationParser = new NotificationParser(fhirContext);
+        Stubs.setField(notificationParser, "streaming", true);
+        Stubs.NoOpKieService kieService = new Stubs.NoOpKieService();
+        // Sin ventana de duplicados, ya que se procesa siempre la misma notificación
+        SignalDeduplicator signalDeduplicator = new SignalDeduplicator(null, null, Stubs.metrics());
+        Stubs.setField(signalDeduplicator, "windowSize", 0);
+        // Sin diario de notificaciones, para medir sólo el procesamiento
+        NotificationJournalService notificationJournalService = new NotificationJournalService(null, null,
+                kieService, null, null);
+        Stubs.setField(notificationJournalService, "enabled", false);
+        notificationService = new NotificationService(null, kieService, notificationParser, Stubs.metrics(),
+                new RecoveryCoordinator(null, kieService, Stubs.metrics(), Runnable::run, null, null, null, null,
+                        signalDeduplicator, notificationJournalService),
+                signalDeduplicator, notificationJournalService, Runnable::run);
+
+        // Subscripción de un servidor con $status y $events, para incluir la
+        // comprobación de eventos perdidos
+        FhirServer server = new FhirServer(1L, "benchmark", "http://localhost:8888/fhir", false, true);
+        Trigger trigger = new Trigger();
+        trigger.setId(1L);
+        trigger.setResource("ServiceRequest");
+        trigger.setInteraction("create");
+        Topic topic = new Topic();
+        topic.setIdTopic("create-ServiceRequest");
+        topic.setServer(server);
+        topic.setTrigger(trigger);
+        subscriptionData = new SubscriptionData(server, topic);
+        subscriptionData.setIdSubscription("1");
+    }
+
+    @Benchmark
+    public SubscriptionData processNotification() {
+        // Parte siempre del mismo contador para que no se detecten eventos perdidos
+        subscriptionData.setEvents(0L);
+        return notificationService.processNotification(message, subscriptionData);
+    }
+
+    @Benchmark
+    public NotificationDetails parseStreaming() {
+        return notificationParser.parseStreaming(message);
+    }
+
+    @Benchmark
+    public NotificationDetails parseHapi() {
+        return notificationParser.parseHapi(message);
+    }
+
+    @Benchmark
+    public List<String> getReferences() {
+        return notificationParser.getReferences(subscriptionStatus);
+    }
+
+}
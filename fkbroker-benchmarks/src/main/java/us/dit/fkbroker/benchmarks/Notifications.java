@@ -0,0 +1,125 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.benchmarks;
+
+import java.util.Date;
+import java.util.UUID;
+
+import org.hl7.fhir.r5.model.Annotation;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.CodeableConcept;
+import org.hl7.fhir.r5.model.CodeableReference;
+import org.hl7.fhir.r5.model.Coding;
+import org.hl7.fhir.r5.model.Enumerations.RequestIntent;
+import org.hl7.fhir.r5.model.Enumerations.RequestStatus;
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.hl7.fhir.r5.model.Reference;
+import org.hl7.fhir.r5.model.ServiceRequest;
+import org.hl7.fhir.r5.model.SubscriptionStatus;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionStatusNotificationEventComponent;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Genera notificaciones FHIR (Bundle de tipo subscription-notification) con el
+ * contenido y el número de eventos indicados, tal y como las envía un servidor
+ * FHIR a una subscripción rest-hook.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public final class Notifications {
+
+    /** Notificación sin referencias a los recursos. */
+    public static final String EMPTY = "empty";
+    /** Notificación con las referencias a los recursos. */
+    public static final String ID_ONLY = "id-only";
+    /** Notificación con las referencias y los recursos completos. */
+    public static final String FULL_RESOURCE = "full-resource";
+
+    private static final String BASE_URL = "http://localhost:8888/fhir/";
+
+    private Notifications() {
+    }
+
+    /**
+     * Genera el JSON de una notificación de eventos.
+     * 
+     * @param fhirContext contexto FHIR utilizado para serializar el Bundle.
+     * @param content     contenido de la notificación: empty, id-only o
+     *                    full-resource.
+     * @param events      número de eventos de la notificación.
+     * @return el JSON de la notificación.
+     */
+    public static String eventNotification(FhirContext fhirContext, String content, int events) {
+        Bundle bundle = new Bundle();
+        bundle.setType(BundleType.SUBSCRIPTIONNOTIFICATION);
+        bundle.setTimestamp(new Date());
+
+        SubscriptionStatus subscriptionStatus = new SubscriptionStatus();
+        subscriptionStatus.setStatus(SubscriptionStatusCodes.ACTIVE);
+        subscriptionStatus.setType(SubscriptionNotificationType.EVENTNOTIFICATION);
+        subscriptionStatus.setEventsSinceSubscriptionStart(events);
+        subscriptionStatus.setSubscription(new Reference(BASE_URL + "Subscription/1"));
+        subscriptionStatus.setTopic(BASE_URL + "SubscriptionTopic/create-ServiceRequest");
+        bundle.addEntry().setFullUrl("urn:uuid:" + UUID.randomUUID()).setResource(subscriptionStatus);
+
+        for (int i = 1; i <= events; i++) {
+            SubscriptionStatusNotificationEventComponent event = subscriptionStatus.addNotificationEvent();
+            event.setEventNumber(i);
+            event.setTimestamp(new Date());
+
+            if (!EMPTY.equals(content)) {
+                String reference = "ServiceRequest/" + i;
+                event.setFocus(new Reference(BASE_URL + reference));
+
+                if (FULL_RESOURCE.equals(content)) {
+                    bundle.addEntry().setFullUrl(BASE_URL + reference).setResource(serviceRequest(i));
+                }
+            }
+        }
+
+        return fhirContext.newJsonParser().encodeResourceToString(bundle);
+    }
+
+    /**
+     * Genera un ServiceRequest con un contenido similar al de una solicitud real.
+     */
+    private static ServiceRequest serviceRequest(int id) {
+        ServiceRequest serviceRequest = new ServiceRequest();
+        serviceRequest.setId("ServiceRequest/" + id);
+        serviceRequest.setStatus(RequestStatus.ACTIVE);
+        serviceRequest.setIntent(RequestIntent.ORDER);
+        serviceRequest.setAuthoredOn(new Date());
+        serviceRequest.setSubject(new Reference("Patient/" + id));
+        serviceRequest.setRequester(new Reference("Practitioner/" + id));
+        serviceRequest.setCode(new CodeableReference(new CodeableConcept(
+                new Coding("http://snomed.info/sct", "363680008", "Radiographic imaging procedure"))));
+        serviceRequest.addNote(new Annotation().setText(
+                "Solicitud generada para las pruebas de rendimiento del bróker. Incluye una nota de texto libre "
+                        + "para que el tamaño del recurso sea similar al de una solicitud real."));
+        return serviceRequest;
+    }
+
+}
@@ -0,0 +1,164 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.benchmarks;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.entities.domain.SignalRoute;
+import us.dit.fkbroker.service.services.kie.KieContainerCache;
+import us.dit.fkbroker.service.services.kie.KieServerService;
+import us.dit.fkbroker.service.services.kie.KieService;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Sustitutos de los servicios del bróker que acceden a la base de datos o a los
+ * servidores KIE, de modo que los benchmarks midan únicamente el código del
+ * bróker. Los servicios se crean sin contexto de Spring, por lo que los campos
+ * {@code @Value} se asignan con {@link #setField(Object, String, Object)}.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public final class Stubs {
+
+    private Stubs() {
+    }
+
+    /**
+     * Crea el componente de métricas sobre un registro en memoria, sin
+     * exportarlas.
+     * 
+     * @return el componente de métricas.
+     */
+    public static PipelineMetrics metrics() {
+        return new PipelineMetrics(new SimpleMeterRegistry());
+    }
+
+    /**
+     * Asigna el valor de un campo privado, buscándolo también en las clases
+     * padre.
+     * 
+     * @param target objeto cuyo campo se asigna.
+     * @param name   nombre del campo.
+     * @param value  valor a asignar.
+     */
+    public static void setField(Object target, String name, Object value) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        throw new RuntimeException("Campo no encontrado: " + name);
+    }
+
+    /**
+     * {@link KieService} que no envía las señales.
+     */
+    public static class NoOpKieService extends KieService {
+
+        public NoOpKieService() {
+            super(null, null, null, null);
+        }
+
+        @Override
+        public CompletableFuture<List<SignalResult>> sendSignal(Long idTrigger, List<String> references) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+    }
+
+    /**
+     * {@link KieServerService} que simula el envío de una señal con la latencia
+     * indicada, sin realizar la llamada al servidor KIE.
+     */
+    public static class StubKieServerService extends KieServerService {
+
+        private final long latencyNanos;
+
+        public StubKieServerService(long latencyMicros) {
+            this.latencyNanos = TimeUnit.MICROSECONDS.toNanos(latencyMicros);
+        }
+
+        @Override
+        public SignalResult sendSignalToContainer(KieServer kieServer, String containerId, String signal,
+                Object message) {
+            if (latencyNanos > 0) {
+                LockSupport.parkNanos(latencyNanos);
+            }
+            return SignalResult.success(kieServer.getUrl(), containerId, signal, latencyNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * {@link KieContainerCache} con una topología fija.
+     */
+    public static class StubKieContainerCache extends KieContainerCache {
+
+        private final List<String> containers;
+
+        public StubKieContainerCache(List<String> containers) {
+            super(null, null);
+            this.containers = containers;
+        }
+
+        @Override
+        public List<String> getContainers(KieServer kieServer) {
+            return containers;
+        }
+    }
+
+    /**
+     * {@link RoutingTable} con reglas de envío fijas.
+     */
+    public static class StubRoutingTable extends RoutingTable {
+
+        private final Map<Long, List<SignalRoute>> signalRoutes;
+
+        public StubRoutingTable(Map<Long, List<SignalRoute>> signalRoutes) {
+            super(null, null, null);
+            this.signalRoutes = signalRoutes;
+        }
+
+        @Override
+        public List<SignalRoute> getSignalRoutes(Long idTrigger) {
+            return signalRoutes.getOrDefault(idTrigger, Collections.emptyList());
+        }
+    }
+
+}
@@ -0,0 +1,95 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.r5.model.Subscription;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ca.uhn.fhir.context.FhirContext;
+import us.dit.fkbroker.service.entities.domain.SubscriptionForm;
+import us.dit.fkbroker.service.entities.domain.SubscriptionForm.FilterDetail;
+import us.dit.fkbroker.service.services.mapper.SubscriptionMapper;
+
+/**
+ * Benchmark de {@link SubscriptionMapper#toSubscription(SubscriptionForm, String)}
+ * con formularios sin filtros y con varios filtros activos.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubscriptionMapperBenchmark {
+
+    @Param({ "0", "5" })
+    public int filters;
+
+    private SubscriptionMapper subscriptionMapper;
+    private SubscriptionForm subscriptionForm;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        subscriptionMapper = new SubscriptionMapper(FhirContext.forR5().newJsonParser());
+        Stubs.setField(subscriptionMapper, "heartbeatPeriod", 60);
+
+        subscriptionForm = new SubscriptionForm();
+        subscriptionForm.setIdTopic("create-ServiceRequest");
+        subscriptionForm.setUrlTopic("http://localhost:8888/fhir/SubscriptionTopic/create-ServiceRequest");
+        subscriptionForm.setPayload("id-only");
+
+        List<FilterDetail> filterDetails = new ArrayList<>();
+        for (int i = 0; i < filters; i++) {
+            FilterDetail filter = new FilterDetail();
+            filter.setActive(true);
+            filter.setParameter("code");
+            filter.setComparator("eq");
+            filter.setValue("http://snomed.info/sct|36368000" + i);
+            filterDetails.add(filter);
+        }
+        subscriptionForm.setFilters(filterDetails);
+    }
+
+    @Benchmark
+    public Subscription toSubscription() {
+        return subscriptionMapper.toSubscription(subscriptionForm, "http://localhost:8090/notification/1");
+    }
+
+}
@@ -0,0 +1,269 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.conf;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+
+/**
+ * Ejecutor acotado con nombre que puede funcionar con hilos de plataforma o con
+ * hilos virtuales.
+ * 
+ * Con hilos de plataforma es un {@link ThreadPoolExecutor} con un número fijo de
+ * hilos y una cola acotada. Con hilos virtuales cada tarea se ejecuta en su
+ * propio hilo virtual y el número de tareas en curso se limita a la suma de
+ * hilos y capacidad de la cola, de modo que se admiten las mismas tareas que con
+ * hilos de plataforma pero sin esperar en cola. En ambos casos las tareas que
+ * superan el límite se rechazan con {@link RejectedExecutionException}, se
+ * publican las métricas executor.* con el nombre del ejecutor y, al detenerse,
+ * se esperan las tareas pendientes.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class BoundedExecutor extends AbstractExecutorService implements DisposableBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(BoundedExecutor.class);
+
+    private final String name;
+    private final int capacity;
+    private final ExecutorService delegate;
+    private final ResizableSemaphore inFlight;
+    private final Counter rejected;
+    private final long awaitTerminationSeconds;
+    private volatile int workers;
+
+    private BoundedExecutor(String name, int workers, int capacity, ExecutorService delegate,
+            ResizableSemaphore inFlight, Counter rejected, long awaitTerminationSeconds) {
+        this.name = name;
+        this.workers = workers;
+        this.capacity = capacity;
+        this.delegate = delegate;
+        this.inFlight = inFlight;
+        this.rejected = rejected;
+        this.awaitTerminationSeconds = awaitTerminationSeconds;
+    }
+
+    /**
+     * Crea un ejecutor acotado y registra sus métricas.
+     * 
+     * @param name                    nombre del ejecutor, utilizado en las
+     *                                métricas y como prefijo de los hilos.
+     * @param workers                 número de hilos (o de tareas simultáneas con
+     *                                hilos virtuales).
+     * @param capacity                capacidad de la cola (o tareas adicionales
+     *                                simultáneas con hilos virtuales).
+     * @param virtual                 indica si se deben utilizar hilos virtuales.
+     * @param awaitTerminationSeconds tiempo máximo de espera de las tareas
+     *                                pendientes al detenerse.
+     * @param registry                registro de métricas.
+     * @param tags                    etiquetas adicionales de las métricas.
+     * @return el ejecutor creado.
+     */
+    public static BoundedExecutor create(String name, int workers, int capacity, boolean virtual,
+            long awaitTerminationSeconds, MeterRegistry registry, Tags tags) {
+        String prefix = name.replace('.', '-') + "-";
+        Tags executorTags = tags.and("name", name);
+        Counter rejected = Counter.builder("executor.rejected").description("Tareas rechazadas por cola llena")
+                .tags(executorTags).register(registry);
+
+        if (virtual && ExecutorSupport.isVirtualThreadsSupported()) {
+            ExecutorService delegate = ExecutorSupport
+                    .newThreadPerTaskExecutor(ExecutorSupport.threadFactory(prefix, true));
+            if (delegate != null) {
+                ResizableSemaphore inFlight = new ResizableSemaphore(workers + capacity);
+                BoundedExecutor executor = new BoundedExecutor(name, workers, capacity, delegate, inFlight, rejected,
+                        awaitTerminationSeconds);
+                Gauge.builder("executor.active", executor, BoundedExecutor::getActiveCount)
+                        .description("Tareas en curso en hilos virtuales").tags(executorTags).register(registry);
+                Gauge.builder("executor.pool.max", executor, BoundedExecutor::getMaxInFlight)
+                        .description("Máximo de tareas simultáneas en hilos virtuales").tags(executorTags)
+                        .register(registry);
+                return executor;
+            }
+        }
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(Math.max(capacity, 1)), ExecutorSupport.threadFactory(prefix, false),
+                (task, rejecter) -> {
+                    rejected.increment();
+                    throw new RejectedExecutionException("Cola llena en el ejecutor " + name);
+                });
+        pool.allowCoreThreadTimeOut(true);
+        new ExecutorServiceMetrics(pool, name, tags).bindTo(registry);
+        return new BoundedExecutor(name, workers, capacity, pool, null, rejected, awaitTerminationSeconds);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (inFlight == null) {
+            delegate.execute(task);
+            return;
+        }
+
+        if (!inFlight.tryAcquire()) {
+            rejected.increment();
+            throw new RejectedExecutionException("Límite de tareas alcanzado en el ejecutor " + name);
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    inFlight.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            inFlight.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Indica si el ejecutor utiliza hilos virtuales.
+     * 
+     * @return true si las tareas se ejecutan en hilos virtuales.
+     */
+    public boolean isVirtual() {
+        return inFlight != null;
+    }
+
+    /**
+     * Obtiene el número de hilos (o de tareas simultáneas con hilos virtuales sin
+     * contar la capacidad de la cola).
+     * 
+     * @return el número de hilos configurado.
+     */
+    public int getConcurrency() {
+        return workers;
+    }
+
+    /**
+     * Cambia el número de hilos del ejecutor. Con hilos virtuales se ajusta el
+     * límite de tareas simultáneas.
+     * 
+     * @param concurrency nuevo número de hilos.
+     */
+    public synchronized void setConcurrency(int concurrency) {
+        if (concurrency == workers) {
+            return;
+        }
+        if (inFlight != null) {
+            int delta = concurrency - workers;
+            if (delta > 0) {
+                inFlight.release(delta);
+            } else {
+                inFlight.reduce(-delta);
+            }
+        } else {
+            ThreadPoolExecutor pool = (ThreadPoolExecutor) delegate;
+            if (concurrency > pool.getMaximumPoolSize()) {
+                pool.setMaximumPoolSize(concurrency);
+                pool.setCorePoolSize(concurrency);
+            } else {
+                pool.setCorePoolSize(concurrency);
+                pool.setMaximumPoolSize(concurrency);
+            }
+        }
+        workers = concurrency;
+    }
+
+    private double getActiveCount() {
+        return getMaxInFlight() - inFlight.availablePermits();
+    }
+
+    private double getMaxInFlight() {
+        return workers + capacity;
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+        return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+        return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+        return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return delegate.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * Detiene el ejecutor esperando a que terminen las tareas pendientes.
+     */
+    @Override
+    public void destroy() {
+        shutdown();
+        try {
+            if (!awaitTermination(awaitTerminationSeconds, TimeUnit.SECONDS)) {
+                logger.warn("El ejecutor {} se detiene con tareas pendientes", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Semáforo cuyo número de permisos se puede reducir.
+     */
+    private static final class ResizableSemaphore extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        private ResizableSemaphore(int permits) {
+            super(permits);
+        }
+
+        private void reduce(int reduction) {
+            reducePermits(reduction);
+        }
+    }
+}
@@ -20,11 +20,23 @@
 **/
 package us.dit.fkbroker.service.conf;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.ApplicationArguments;
 import org.springframework.boot.ApplicationRunner;
 import org.springframework.stereotype.Component;
@@ -38,6 +50,13 @@ import us.dit.fkbroker.service.services.fhir.SubscriptionService;
 /**
  * Componente ejecutado al iniciar la aplicación.
  * 
+ * Comprueba el estado de las subscripciones de los servidores FHIR
+ * configurados. Las subscripciones de cada servidor se reparten entre un
+ * número limitado de tareas del ejecutor de comprobación inicial, de modo que
+ * los servidores se comprueban en paralelo sin superar la concurrencia máxima
+ * por servidor. Periódicamente se registra el progreso y, al terminar, el
+ * tiempo empleado. Opcionalmente la comprobación se realiza en segundo plano
+ * para no retrasar el arranque.
  *
  * @author josperbel
  * @version 1.0
@@ -48,50 +67,205 @@ public class BrokerRunner implements ApplicationRunner {
 
     private static final Logger logger = LogManager.getLogger();
 
+    @Value("${broker.reconciliation.per.server.concurrency:4}")
+    private Integer perServerConcurrency;
+    @Value("${broker.reconciliation.background:false}")
+    private Boolean background;
+    @Value("${broker.reconciliation.progress.interval:10000}")
+    private Long progressInterval;
+
     private final FhirServerService fhirServerService;
     private final SubscriptionService subscriptionService;
     private final NotificationService notificationService;
+    private final Executor reconciliationExecutor;
 
     /**
-     * Constructor que inyecta los servicios {@link FhirServerService} y
-     * {@link SubscriptionService}.
+     * Constructor que inyecta los servicios {@link FhirServerService},
+     * {@link SubscriptionService} y {@link NotificationService} y el ejecutor de
+     * comprobación inicial.
      * 
-     * @param fhirServerService   servicio utilizado para gestionar los servidores
-     *                            FHIR.
-     * @param subscriptionService servicio utilizado para gestionar las
-     *                            subscripciones.
-     * @param notificationService servicio para gestionar las notificaciones de
-     *                            subscripciones.
+     * @param fhirServerService      servicio utilizado para gestionar los
+     *                               servidores FHIR.
+     * @param subscriptionService    servicio utilizado para gestionar las
+     *                               subscripciones.
+     * @param notificationService    servicio para gestionar las notificaciones de
+     *                               subscripciones.
+     * @param reconciliationExecutor ejecutor acotado en el que se comprueban las
+     *                               subscripciones.
      */
     @Autowired
     public BrokerRunner(FhirServerService fhirServerService, SubscriptionService subscriptionService,
-            NotificationService notificationService) {
+            NotificationService notificationService,
+            @Qualifier("reconciliationExecutor") Executor reconciliationExecutor) {
         this.fhirServerService = fhirServerService;
         this.subscriptionService = subscriptionService;
         this.notificationService = notificationService;
+        this.reconciliationExecutor = reconciliationExecutor;
     }
 
     @Override
     public void run(ApplicationArguments args) throws Exception {
+        if (background) {
+            Thread thread = ExecutorSupport.threadFactory("reconciliation-startup-", false)
+                    .newThread(this::reconcileAll);
+            thread.setDaemon(true);
+            thread.start();
+        } else {
+            reconcileAll();
+        }
+    }
+
+    /**
+     * Comprueba el estado de todas las subscripciones de los servidores FHIR
+     * configurados y espera a que finalice la comprobación.
+     */
+    private void reconcileAll() {
         logger.debug("Se comprueba el estado de las subscripciones de los servidores FHIR configurados.");
 
         // Obtiene todos los servidores guardados en la base de datos
         List<FhirServer> fhirServers = fhirServerService.getAllFhirServers();
 
+        Progress progress = new Progress();
+        List<CompletableFuture<Void>> servers = new ArrayList<>();
         for (FhirServer fhirServer : fhirServers) {
             // Obtiene todas las subscripciones del servidor FHIR
             List<SubscriptionData> subscriptionDatas = subscriptionService.getSubscriptions(fhirServer.getId());
+            progress.total.addAndGet(subscriptionDatas.size());
+            servers.add(reconcileServer(fhirServer, subscriptionDatas, progress));
+        }
+
+        logger.info("Comprobando {} subscripciones de {} servidores FHIR", progress.total.get(), fhirServers.size());
+
+        // Espera a que se comprueben todas las subscripciones
+        CompletableFuture.allOf(servers.toArray(new CompletableFuture[0])).join();
+
+        logger.info("Comprobación inicial finalizada: {} subscripciones, {} errores, {} ms", progress.done.get(),
+                progress.failed.get(), progress.elapsedMillis());
+    }
+
+    /**
+     * Reparte las subscripciones de un servidor FHIR entre tantas tareas como
+     * indique la concurrencia máxima por servidor, sin superar el número de
+     * lotes. Cada tarea comprueba lotes de subscripciones hasta que no quedan
+     * pendientes.
+     * 
+     * @param fhirServer        servidor FHIR.
+     * @param subscriptionDatas subscripciones del servidor.
+     * @param progress          progreso de la comprobación.
+     * @return un futuro que se completa al comprobar todas las subscripciones del
+     *         servidor.
+     */
+    private CompletableFuture<Void> reconcileServer(FhirServer fhirServer, List<SubscriptionData> subscriptionDatas,
+            Progress progress) {
+        long start = System.nanoTime();
+        Queue<SubscriptionData> pending = new ConcurrentLinkedQueue<>(subscriptionDatas);
+        int batchSize = Math.max(notificationService.getStatusBatchSize(), 1);
+        int batches = (subscriptionDatas.size() + batchSize - 1) / batchSize;
+        int lanes = Math.min(Math.max(perServerConcurrency, 1), batches);
+
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < lanes; i++) {
+            try {
+                tasks.add(CompletableFuture.runAsync(() -> drain(fhirServer, pending, progress),
+                        reconciliationExecutor));
+            } catch (RejectedExecutionException e) {
+                // Si la cola está llena se comprueba en el hilo actual
+                drain(fhirServer, pending, progress);
+            }
+        }
+
+        return CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]))
+                .thenRun(() -> logger.info("Comprobadas {} subscripciones del servidor {} en {} ms",
+                        subscriptionDatas.size(), fhirServer.getId(),
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+    }
+
+    /**
+     * Comprueba subscripciones pendientes de un servidor hasta que no quedan más.
+     * Las subscripciones se toman en lotes para consultar su estado con una
+     * única petición al servidor FHIR.
+     * 
+     * @param fhirServer servidor FHIR.
+     * @param pending    subscripciones pendientes del servidor.
+     * @param progress   progreso de la comprobación.
+     */
+    private void drain(FhirServer fhirServer, Queue<SubscriptionData> pending, Progress progress) {
+        int batchSize = Math.max(notificationService.getStatusBatchSize(), 1);
+        List<SubscriptionData> batch = new ArrayList<>(batchSize);
+        SubscriptionData subscriptionData;
+        while ((subscriptionData = pending.poll()) != null) {
+            batch.add(subscriptionData);
+            if (batch.size() == batchSize) {
+                reconcile(fhirServer, batch, progress);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            reconcile(fhirServer, batch, progress);
+        }
+    }
+
+    /**
+     * Actualiza la información de un lote de subscripciones con su estado en el
+     * servidor FHIR.
+     * 
+     * @param fhirServer        servidor FHIR de las subscripciones.
+     * @param subscriptionDatas datos de las subscripciones.
+     * @param progress          progreso de la comprobación.
+     */
+    private void reconcile(FhirServer fhirServer, List<SubscriptionData> subscriptionDatas, Progress progress) {
+        List<SubscriptionData> updated;
+        try {
+            updated = notificationService.updateSubscriptionStatus(fhirServer, subscriptionDatas);
+        } catch (Exception e) {
+            logger.warn("No se ha podido comprobar el estado de {} subscripciones del servidor {}.",
+                    subscriptionDatas.size(), fhirServer.getId());
+            updated = Collections.emptyList();
+        }
 
-            for (SubscriptionData subscriptionData : subscriptionDatas) {
-                // Actualiza la información de la subscripción
-                try {
-                    subscriptionData = notificationService.updateSubscriptionStatus(fhirServer, subscriptionData);
-                    subscriptionService.updateSubscription(subscriptionData);
-                } catch (Exception e) {
-                    logger.warn("No se ha podido actualizar la subscripción {} del servidor {}.",
-                            subscriptionData.getIdSubscription(), fhirServer.getId());
-                }
+        for (SubscriptionData subscriptionData : updated) {
+            try {
+                subscriptionService.updateSubscriptionState(subscriptionData);
+                progress.completed(true);
+            } catch (Exception e) {
+                logger.warn("No se ha podido actualizar la subscripción {} del servidor {}.",
+                        subscriptionData.getIdSubscription(), fhirServer.getId());
+                progress.completed(false);
             }
         }
+        for (int i = updated.size(); i < subscriptionDatas.size(); i++) {
+            progress.completed(false);
+        }
+    }
+
+    /**
+     * Progreso de la comprobación inicial, registrado como mucho una vez por
+     * intervalo.
+     */
+    private class Progress {
+
+        private final long start = System.nanoTime();
+        private final AtomicInteger total = new AtomicInteger();
+        private final AtomicInteger done = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final AtomicLong lastLog = new AtomicLong(start);
+
+        private void completed(boolean success) {
+            int count = done.incrementAndGet();
+            if (!success) {
+                failed.incrementAndGet();
+            }
+
+            long now = System.nanoTime();
+            long last = lastLog.get();
+            if (now - last >= TimeUnit.MILLISECONDS.toNanos(progressInterval) && lastLog.compareAndSet(last, now)) {
+                logger.info("Comprobación inicial: {}/{} subscripciones, {} errores, {} ms", count, total.get(),
+                        failed.get(), elapsedMillis());
+            }
+        }
+
+        private long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        }
     }
 }
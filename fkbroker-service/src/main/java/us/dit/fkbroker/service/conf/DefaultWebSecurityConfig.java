@@ -65,7 +65,12 @@ public class DefaultWebSecurityConfig {
                 .antMatchers("/fhir/servers/*/subscriptions/*/delete").authenticated().antMatchers("/kie")
                 .authenticated().antMatchers("/kie/servers/add").authenticated().antMatchers("/kie/servers/delete")
                 .authenticated().antMatchers("/kie/signals/add").authenticated().antMatchers("/kie/signals/delete")
-                .authenticated().antMatchers("/img/*").permitAll())
+                .authenticated().antMatchers("/kie/containers/refresh").authenticated()
+                .antMatchers("/kie/outbox/retry").authenticated().antMatchers("/kie/outbox/delete").authenticated()
+                .antMatchers("/journal/**").authenticated().antMatchers("/actuator/health").permitAll()
+                .antMatchers("/actuator/**").authenticated().antMatchers("/img/*").permitAll()
+                .antMatchers("/form-styles.css", "/favicon.ico", "/access-denied.html", "/error").permitAll()
+                .anyRequest().authenticated())
                 .exceptionHandling((exceptionHandling) -> exceptionHandling.accessDeniedPage("/access-denied.html"))
                 .csrf((csrf) -> csrf.disable()).httpBasic(withDefaults()).cors(withDefaults())
                 .formLogin(withDefaults());
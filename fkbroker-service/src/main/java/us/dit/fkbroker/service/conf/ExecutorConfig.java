@@ -0,0 +1,130 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.conf;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+
+/**
+ * Define los ejecutores utilizados para procesar tareas en segundo plano.
+ * 
+ * Todos los ejecutores tienen nombre y están acotados. Con el modo de ejecución
+ * platform (broker.threads.mode) tienen un número fijo de hilos y una cola
+ * acotada; con el modo virtual cada tarea se ejecuta en un hilo virtual y se
+ * limita el número de tareas en curso, lo que permite mantener muchas
+ * peticiones bloqueantes simultáneas sin ajustar el tamaño de los hilos. El
+ * modo virtual requiere JDK 21 o superior; en otras JVM se utilizan hilos de
+ * plataforma. Cada ejecutor publica sus métricas executor.* y las tareas
+ * rechazadas en executor.rejected. Al detener la aplicación se terminan las
+ * tareas pendientes antes de cerrar los ejecutores.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Configuration
+public class ExecutorConfig {
+
+    private static final long AWAIT_TERMINATION_SECONDS = 30;
+
+    @Value("${broker.threads.mode:platform}")
+    private String threadsMode;
+
+    /**
+     * Ejecutor que procesa las notificaciones recibidas cuando la ingesta se
+     * realiza de forma asíncrona. La cola es acotada, de modo que si se llena se
+     * rechazan las nuevas tareas en lugar de acumularlas en memoria.
+     * 
+     * @param workers  número de hilos que procesan las notificaciones.
+     * @param capacity capacidad máxima de la cola de notificaciones pendientes.
+     * @param registry registro de métricas.
+     * @return el ejecutor de notificaciones.
+     */
+    @Bean
+    public BoundedExecutor notificationExecutor(@Value("${fhir.notification.ingest.workers:4}") int workers,
+            @Value("${fhir.notification.ingest.queue.capacity:1000}") int capacity, MeterRegistry registry) {
+        return boundedExecutor("notification", workers, capacity, registry);
+    }
+
+    /**
+     * Ejecutor que recupera los eventos perdidos de las subscripciones mediante
+     * la operación $events y envía sus señales.
+     * 
+     * @param workers  número de hilos de recuperación.
+     * @param capacity capacidad máxima de la cola de recuperaciones pendientes.
+     * @param registry registro de métricas.
+     * @return el ejecutor de recuperación.
+     */
+    @Bean
+    public BoundedExecutor recoveryExecutor(@Value("${executor.recovery.workers:2}") int workers,
+            @Value("${executor.recovery.queue.capacity:100}") int capacity, MeterRegistry registry) {
+        return boundedExecutor("recovery", workers, capacity, registry);
+    }
+
+    /**
+     * Ejecutor que vuelve a activar en el servidor FHIR las subscripciones en
+     * estado de error.
+     * 
+     * @param workers  número de hilos de reparación.
+     * @param capacity capacidad máxima de la cola de reparaciones pendientes.
+     * @param registry registro de métricas.
+     * @return el ejecutor de reparación de estado.
+     */
+    @Bean
+    public BoundedExecutor statusExecutor(@Value("${executor.status.workers:2}") int workers,
+            @Value("${executor.status.queue.capacity:100}") int capacity, MeterRegistry registry) {
+        return boundedExecutor("status", workers, capacity, registry);
+    }
+
+    /**
+     * Ejecutor que comprueba el estado de las subscripciones al iniciar la
+     * aplicación.
+     * 
+     * @param workers  número de hilos de comprobación.
+     * @param capacity capacidad máxima de la cola de comprobaciones pendientes.
+     * @param registry registro de métricas.
+     * @return el ejecutor de comprobación inicial.
+     */
+    @Bean
+    public BoundedExecutor reconciliationExecutor(@Value("${executor.reconciliation.workers:4}") int workers,
+            @Value("${executor.reconciliation.queue.capacity:1000}") int capacity, MeterRegistry registry) {
+        return boundedExecutor("reconciliation", workers, capacity, registry);
+    }
+
+    /**
+     * Crea un ejecutor acotado con nombre según el modo de ejecución configurado.
+     * 
+     * @param name     nombre del ejecutor, utilizado como prefijo de los hilos.
+     * @param workers  número de hilos.
+     * @param capacity capacidad máxima de la cola.
+     * @param registry registro de métricas.
+     * @return el ejecutor.
+     */
+    private BoundedExecutor boundedExecutor(String name, int workers, int capacity, MeterRegistry registry) {
+        return BoundedExecutor.create(name, workers, capacity, ExecutorSupport.useVirtualThreads(threadsMode),
+                AWAIT_TERMINATION_SECONDS, registry, Tags.empty());
+    }
+
+}
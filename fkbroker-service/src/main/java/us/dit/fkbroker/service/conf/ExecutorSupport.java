@@ -0,0 +1,136 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.conf;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Utilidades comunes para crear los ejecutores acotados del broker: factorías
+ * de hilos con nombre, con soporte de hilos virtuales en las JVM que los
+ * incluyen (JDK 21 o superior), y ejecutores de un hilo virtual por tarea.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public final class ExecutorSupport {
+
+    /**
+     * Modo de ejecución con hilos virtuales.
+     */
+    public static final String MODE_VIRTUAL = "virtual";
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutorSupport.class);
+
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private ExecutorSupport() {
+    }
+
+    /**
+     * Indica si la JVM permite crear hilos virtuales.
+     * 
+     * @return true si los hilos virtuales están disponibles.
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Indica si el modo de ejecución configurado en broker.threads.mode requiere
+     * hilos virtuales y la JVM los soporta. Si se solicitan y no están
+     * disponibles, se avisa y se utilizan hilos de plataforma.
+     * 
+     * @param mode modo de ejecución: platform o virtual.
+     * @return true si se deben utilizar hilos virtuales.
+     */
+    public static boolean useVirtualThreads(String mode) {
+        if (!MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            return false;
+        }
+        if (!isVirtualThreadsSupported()) {
+            logger.warn("La JVM no soporta hilos virtuales. Se utilizan hilos de plataforma");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Crea un ejecutor que inicia un hilo nuevo para cada tarea, invocando por
+     * reflexión Executors.newThreadPerTaskExecutor (JDK 21 o superior).
+     * 
+     * @param threadFactory factoría de los hilos de las tareas.
+     * @return el ejecutor o null si la JVM no dispone de él.
+     */
+    public static ExecutorService newThreadPerTaskExecutor(ThreadFactory threadFactory) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                    .invoke(null, threadFactory);
+        } catch (ReflectiveOperationException e) {
+            logger.warn("No se puede crear un ejecutor de hilos virtuales: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Crea una factoría de hilos cuyos nombres comienzan por el prefijo indicado.
+     * Si se solicitan hilos virtuales y la JVM no los soporta, se utilizan hilos
+     * de plataforma.
+     * 
+     * @param prefix  prefijo del nombre de los hilos.
+     * @param virtual indica si se deben crear hilos virtuales.
+     * @return la factoría de hilos.
+     */
+    public static ThreadFactory threadFactory(String prefix, boolean virtual) {
+        if (virtual) {
+            if (isVirtualThreadsSupported()) {
+                try {
+                    // Thread.ofVirtual().name(prefix, 1).factory(), invocado por reflexión para
+                    // compilar con versiones de Java sin hilos virtuales
+                    Object builder = OF_VIRTUAL.invoke(null);
+                    Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                    builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+                    return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+                } catch (ReflectiveOperationException e) {
+                    logger.warn("No se pueden crear hilos virtuales para {}: {}", prefix, e.getMessage());
+                }
+            } else {
+                logger.warn("La JVM no soporta hilos virtuales. Se utilizan hilos de plataforma para {}", prefix);
+            }
+        }
+        return new CustomizableThreadFactory(prefix);
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            return Thread.class.getMethod("ofVirtual");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.conf;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Utilidades para ejecutar acciones al finalizar la transacción en curso, de
+ * modo que el estado en memoria sólo refleje cambios confirmados en base de
+ * datos. Si no hay ninguna transacción en curso, las acciones se ejecutan
+ * inmediatamente como si se hubiera confirmado.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public final class TransactionSupport {
+
+    private TransactionSupport() {
+    }
+
+    /**
+     * Ejecuta una acción cuando se confirma la transacción en curso, o
+     * inmediatamente si no hay ninguna. Si la transacción se deshace, la acción no
+     * se ejecuta.
+     * 
+     * @param onCommit acción a ejecutar tras confirmar la transacción.
+     */
+    public static void afterCommit(Runnable onCommit) {
+        afterCompletion(onCommit, () -> {
+        });
+    }
+
+    /**
+     * Ejecuta una acción u otra según finalice la transacción en curso. Si no hay
+     * ninguna transacción en curso se ejecuta inmediatamente la acción de
+     * confirmación.
+     * 
+     * @param onCommit   acción a ejecutar si se confirma la transacción.
+     * @param onRollback acción a ejecutar si se deshace la transacción.
+     */
+    public static void afterCompletion(Runnable onCommit, Runnable onRollback) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            onCommit.run();
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_COMMITTED) {
+                    onCommit.run();
+                } else {
+                    onRollback.run();
+                }
+            }
+        });
+    }
+}
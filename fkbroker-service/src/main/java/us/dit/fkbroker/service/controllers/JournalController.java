@@ -0,0 +1,103 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.controllers;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import us.dit.fkbroker.service.entities.db.NotificationJournal;
+import us.dit.fkbroker.service.services.fhir.NotificationIngestService;
+import us.dit.fkbroker.service.services.fhir.NotificationJournalService;
+
+/**
+ * Controlador para consultar el diario de notificaciones y reenviar sus eventos
+ * a los servidores KIE.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@RestController
+@RequestMapping("/journal")
+public class JournalController {
+
+    private final NotificationJournalService notificationJournalService;
+    private final NotificationIngestService notificationIngestService;
+
+    /**
+     * Constructor que inyecta los servicios {@link NotificationJournalService} y
+     * {@link NotificationIngestService}.
+     * 
+     * @param notificationJournalService servicio que mantiene el diario de
+     *                                   notificaciones.
+     * @param notificationIngestService  servicio que resuelve las rutas de los
+     *                                   endpoints de notificación.
+     */
+    @Autowired
+    public JournalController(NotificationJournalService notificationJournalService,
+            NotificationIngestService notificationIngestService) {
+        this.notificationJournalService = notificationJournalService;
+        this.notificationIngestService = notificationIngestService;
+    }
+
+    /**
+     * Maneja las solicitudes GET para consultar las entradas del diario de un
+     * rango de eventos de una subscripción.
+     * 
+     * @param id   identificador del endpoint de la subscripción.
+     * @param from número del primer evento.
+     * @param to   número del último evento, por defecto el último registrado.
+     * @return las entradas del diario, o un 404 si el endpoint no existe.
+     */
+    @GetMapping("/{id}")
+    public ResponseEntity<List<NotificationJournal>> getEntries(@PathVariable Long id,
+            @RequestParam(defaultValue = "0") Long from, @RequestParam(required = false) Long to) {
+        if (notificationIngestService.getRoute(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(notificationJournalService.find(id, from, to != null ? to : Long.MAX_VALUE));
+    }
+
+    /**
+     * Maneja las solicitudes POST para reenviar a los servidores KIE los eventos
+     * del diario de un rango de una subscripción.
+     * 
+     * @param id   identificador del endpoint de la subscripción.
+     * @param from número del primer evento.
+     * @param to   número del último evento.
+     * @return el número de eventos reenviados, o un 404 si el endpoint no existe.
+     */
+    @PostMapping("/{id}/replay")
+    public ResponseEntity<Integer> replay(@PathVariable Long id, @RequestParam Long from, @RequestParam Long to) {
+        if (notificationIngestService.getRoute(id) == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(notificationJournalService.replay(id, from, to));
+    }
+}
@@ -21,6 +21,7 @@
 package us.dit.fkbroker.service.controllers;
 
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Controller;
@@ -32,10 +33,13 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestParam;
 
 import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.db.SignalOutbox;
 import us.dit.fkbroker.service.entities.db.Trigger;
 import us.dit.fkbroker.service.entities.domain.SignalDetails;
 import us.dit.fkbroker.service.services.fhir.TriggerService;
+import us.dit.fkbroker.service.services.kie.KieContainerCache;
 import us.dit.fkbroker.service.services.kie.KieServerService;
+import us.dit.fkbroker.service.services.kie.SignalOutboxService;
 import us.dit.fkbroker.service.services.kie.SignalService;
 
 /**
@@ -53,21 +57,31 @@ public class KieController {
     private final KieServerService kieServerService;
     private final SignalService signalService;
     private final TriggerService triggerService;
+    private final KieContainerCache kieContainerCache;
+    private final SignalOutboxService signalOutboxService;
 
     /**
      * Constructor que inyecta los servicios {@link KieServerService},
-     * {@link SignalService} y {@link TriggerService}.
+     * {@link SignalService}, {@link TriggerService} y {@link SignalOutboxService} y
+     * la caché {@link KieContainerCache}.
      * 
-     * @param kieServerService servicio utilizado para gestionar los servidores KIE.
-     * @param signalService    servicio utilizado para gestionar las señales.
-     * @param triggerService   servicio utilizado para gestionar los triggers.
+     * @param kieServerService    servicio utilizado para gestionar los servidores
+     *                            KIE.
+     * @param signalService       servicio utilizado para gestionar las señales.
+     * @param triggerService      servicio utilizado para gestionar los triggers.
+     * @param kieContainerCache   caché de los contenedores de los servidores KIE.
+     * @param signalOutboxService servicio que gestiona la bandeja de salida de
+     *                            señales.
      */
     @Autowired
     public KieController(KieServerService kieServerService, SignalService signalService,
-            TriggerService triggerService) {
+            TriggerService triggerService, KieContainerCache kieContainerCache,
+            SignalOutboxService signalOutboxService) {
         this.kieServerService = kieServerService;
         this.signalService = signalService;
         this.triggerService = triggerService;
+        this.kieContainerCache = kieContainerCache;
+        this.signalOutboxService = signalOutboxService;
     }
 
     /**
@@ -84,6 +98,10 @@ public class KieController {
         List<KieServer> kieServers = kieServerService.getAllKieServers();
         model.addAttribute("kieServers", kieServers);
 
+        // Obtiene los contenedores en caché de cada servidor y los añade al modelo
+        Map<String, List<String>> containers = kieContainerCache.getAllContainers();
+        model.addAttribute("containers", containers);
+
         // Obtiene los datos de las señales y los añade al modelo
         List<SignalDetails> signals = signalService.getAllSignals();
         model.addAttribute("signals", signals);
@@ -92,6 +110,10 @@ public class KieController {
         List<Trigger> triggers = triggerService.getAllTriggers();
         model.addAttribute("triggers", triggers);
 
+        // Obtiene las señales que no se han podido entregar y las añade al modelo
+        List<SignalOutbox> deadLetters = signalOutboxService.getDeadLetters();
+        model.addAttribute("deadLetters", deadLetters);
+
         return "kie/kie-manager";
     }
 
@@ -107,17 +129,60 @@ public class KieController {
         return "redirect:/kie";
     }
 
+    /**
+     * Maneja las solicitudes POST para refrescar la caché de contenedores de todos
+     * los servidores KIE.
+     * 
+     * @return una redirección a la página principal de gestión KIE.
+     */
+    @PostMapping("/containers/refresh")
+    public String refreshContainers() {
+        kieContainerCache.refreshAll();
+        return "redirect:/kie";
+    }
+
+    /**
+     * Maneja las solicitudes POST para reintentar la entrega de una señal
+     * descartada.
+     * 
+     * @param id identificador de la entrada de la bandeja de salida.
+     * @return una redirección a la página principal de gestión KIE.
+     */
+    @PostMapping("/outbox/retry")
+    public String retryDeadLetter(@RequestParam Long id) {
+        signalOutboxService.retry(id);
+        return "redirect:/kie";
+    }
+
+    /**
+     * Maneja las solicitudes POST para eliminar una señal descartada.
+     * 
+     * @param id identificador de la entrada de la bandeja de salida.
+     * @return una redirección a la página principal de gestión KIE.
+     */
+    @PostMapping("/outbox/delete")
+    public String deleteDeadLetter(@RequestParam Long id) {
+        signalOutboxService.delete(id);
+        return "redirect:/kie";
+    }
+
     /**
      * Maneja las solicitudes POST para añadir una nueva señal.
      * 
-     * @param idTrigger identificador del trigger que se quiere asociar a la nueva
-     *                  señal.
-     * @param name      nombre de la nueva señal.
+     * @param idTrigger   identificador del trigger que se quiere asociar a la
+     *                    nueva señal.
+     * @param name        nombre de la nueva señal.
+     * @param batch       indica si las referencias de una notificación se envían
+     *                    en una única señal.
+     * @param kieServer   URL del servidor KIE destino, opcional.
+     * @param containerId contenedor destino, opcional.
      * @return una redirección a la página principal de gestión KIE.
      */
     @PostMapping("/signals/add")
-    public String addSignal(@RequestParam Long idTrigger, @RequestParam String name) {
-        signalService.saveSignal(idTrigger, name);
+    public String addSignal(@RequestParam Long idTrigger, @RequestParam String name,
+            @RequestParam(required = false) Boolean batch, @RequestParam(required = false) String kieServer,
+            @RequestParam(required = false) String containerId) {
+        signalService.saveSignal(idTrigger, name, batch, kieServer, containerId);
         return "redirect:/kie";
     }
 
@@ -148,13 +213,19 @@ public class KieController {
     /**
      * Maneja las solicitudes POST para editar una señal.
      * 
-     * @param id   identificador de la señal a editar.
-     * @param name nuevo nombre de la señal.
+     * @param id          identificador de la señal a editar.
+     * @param name        nuevo nombre de la señal.
+     * @param batch       indica si las referencias de una notificación se envían
+     *                    en una única señal.
+     * @param kieServer   URL del servidor KIE destino, opcional.
+     * @param containerId contenedor destino, opcional.
      * @return una redirección a la página principal de gestión KIE.
      */
     @PostMapping("/signals/edit")
-    public String editSignal(@RequestParam Long id, @RequestParam String name) {
-        signalService.updateSignal(id, name);
+    public String editSignal(@RequestParam Long id, @RequestParam String name,
+            @RequestParam(required = false) Boolean batch, @RequestParam(required = false) String kieServer,
+            @RequestParam(required = false) String containerId) {
+        signalService.updateSignal(id, name, batch, kieServer, containerId);
         return "redirect:/kie";
     }
 }
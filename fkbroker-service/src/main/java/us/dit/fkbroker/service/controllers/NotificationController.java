@@ -20,9 +20,14 @@
 **/
 package us.dit.fkbroker.service.controllers;
 
+import java.util.concurrent.RejectedExecutionException;
+
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -30,12 +35,12 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
-import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.entities.domain.Route;
 import us.dit.fkbroker.service.services.fhir.FhirService;
-import us.dit.fkbroker.service.services.fhir.NotificationService;
-import us.dit.fkbroker.service.services.fhir.SubscriptionService;
-import us.dit.fkbroker.service.services.kie.KieServerService;
-import us.dit.fkbroker.service.services.kie.SignalService;
+import us.dit.fkbroker.service.services.fhir.HeartbeatMonitor;
+import us.dit.fkbroker.service.services.fhir.NotificationIngestService;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
 
 /**
  * Controlador para manejar las notificaciones.
@@ -52,28 +57,43 @@ public class NotificationController {
 
     private static final Logger logger = LogManager.getLogger();
 
-    private final SubscriptionService subscriptionService;
-    private final NotificationService notificationService;
+    @Value("${fhir.notification.ingest.retry.after:5}")
+    private Long retryAfter;
+
+    private final NotificationIngestService notificationIngestService;
+    private final PipelineMetrics pipelineMetrics;
+    private final HeartbeatMonitor heartbeatMonitor;
 
     /**
-     * Constructor que inyecta los servicios {@link FhirService},
-     * {@link KieServerService} y {@link SignalService}.
+     * Constructor que inyecta el servicio {@link NotificationIngestService} y los
+     * componentes {@link PipelineMetrics} y {@link HeartbeatMonitor}.
      * 
-     * @param subscriptionService servicio para gestionar las operaciones sobre las
-     *                            entidades {@link SubscriptionData}.
-     * @param notificationService servicio para gestionar las notificaciones de
-     *                            subscripciones.
+     * @param notificationIngestService servicio que gestiona la recepción de las
+     *                                  notificaciones, procesándolas en el momento
+     *                                  o encolándolas según la configuración.
+     * @param pipelineMetrics           componente que registra las métricas de
+     *                                  las etapas del procesamiento.
+     * @param heartbeatMonitor          componente que mantiene el plazo de
+     *                                  heartbeat de cada subscripción.
      */
     @Autowired
-    public NotificationController(SubscriptionService subscriptionService, NotificationService notificationService) {
-        this.subscriptionService = subscriptionService;
-        this.notificationService = notificationService;
+    public NotificationController(NotificationIngestService notificationIngestService,
+            PipelineMetrics pipelineMetrics, HeartbeatMonitor heartbeatMonitor) {
+        this.notificationIngestService = notificationIngestService;
+        this.pipelineMetrics = pipelineMetrics;
+        this.heartbeatMonitor = heartbeatMonitor;
     }
 
     /**
      * Método que maneja las notificaciones. Llama al método para enviar las señales
      * a los servidores kie y responde al servidor FHIR indicando que se ha recibido
-     * la notificación.
+     * la notificación. En modo asíncrono la notificación se encola y se responde
+     * inmediatamente; si la cola está llena se responde con un 503 y la cabecera
+     * Retry-After para que el servidor FHIR reintente más tarde. Las
+     * notificaciones de endpoints desconocidos se rechazan con un 404. Cada
+     * notificación encolada o procesada reinicia el plazo de heartbeat de su
+     * subscripción. El tiempo de respuesta se registra como la etapa de
+     * recepción.
      * 
      * @param id      identificador del endpoint de la notificación.
      * @param message mensaje que contiene los detalles de la notificación.
@@ -81,17 +101,36 @@ public class NotificationController {
      */
     @PostMapping("/{id}")
     public ResponseEntity<String> sendNotification(@PathVariable Long id, @RequestBody String message) {
-        logger.info("Se recibe un mensaje de notificación: {}", message);
-
-        // Obtiene los datos de la subscripción
-        SubscriptionData subscription = subscriptionService.getSubscriptionData(id);
+        if (logger.isDebugEnabled()) {
+            logger.debug("Se recibe un mensaje de notificación: {}", message);
+        }
 
-        // Procesa el mensaje de notificación, obtiene los detalles de la subscripción
-        subscription = notificationService.processNotification(message, subscription);
+        Route route = notificationIngestService.getRoute(id);
+        if (route == null) {
+            logger.warn("Se recibe una notificación de un endpoint desconocido: {}", id);
+            return ResponseEntity.notFound().build();
+        }
 
-        // Actualiza la subscripción con los detalles de la notificación
-        subscriptionService.updateSubscription(subscription);
+        Timer.Sample receive = pipelineMetrics.start();
+        try {
+            if (notificationIngestService.isAsync()) {
+                try {
+                    notificationIngestService.enqueue(id, message);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Cola de notificaciones llena. Se rechaza la notificación del endpoint {}", id);
+                    return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                            .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfter)).build();
+                }
+            } else {
+                notificationIngestService.process(id, message);
+            }
 
-        return ResponseEntity.ok(message);
+            // Sólo las notificaciones aceptadas reinician el plazo, de modo que un
+            // bróker saturado no oculta la falta de heartbeats
+            heartbeatMonitor.touch(route);
+            return ResponseEntity.ok(message);
+        } finally {
+            pipelineMetrics.stop(receive, PipelineMetrics.STAGE_RECEIVE, pipelineMetrics.tags(route));
+        }
     }
 }
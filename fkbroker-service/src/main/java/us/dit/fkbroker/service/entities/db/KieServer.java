@@ -43,6 +43,10 @@ public class KieServer {
     private String usu;
     @Column(name = "PASSWORD")
     private String pwd;
+    @Column(name = "MAX_CONCURRENCY")
+    private Integer maxConcurrency;
+    @Column(name = "TIMEOUT")
+    private Long timeout;
 
     public KieServer() {
         super();
@@ -79,4 +83,20 @@ public class KieServer {
         this.pwd = pwd;
     }
 
+    public Integer getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public void setMaxConcurrency(Integer maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    public Long getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(Long timeout) {
+        this.timeout = timeout;
+    }
+
 }
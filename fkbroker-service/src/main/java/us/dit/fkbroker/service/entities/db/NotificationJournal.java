@@ -0,0 +1,150 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.db;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Entidad que representa una entrada del diario de notificaciones: un evento
+ * recibido de una subscripción, con su número, la referencia del recurso
+ * notificado, la fecha de recepción, el origen (notificación, recuperación o
+ * reenvío) y el resultado de su envío a los servidores KIE.
+ * 
+ * El índice sobre el endpoint y el número de evento permite consultar y
+ * reenviar un rango de eventos de una subscripción, y el índice sobre la fecha
+ * de recepción permite eliminar las entradas antiguas. El identificador lo
+ * genera la base de datos, ya que las entradas se insertan por lotes mediante
+ * JDBC.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Entity(name = "NOTIFICATION_JOURNAL")
+@Table(indexes = {
+        @Index(name = "IDX_NOTIFICATION_JOURNAL_EVENT", columnList = "ID_ENDPOINT, EVENT_NUMBER"),
+        @Index(name = "IDX_NOTIFICATION_JOURNAL_RECEIVED", columnList = "RECEIVED") })
+public class NotificationJournal {
+
+    public static final String SOURCE_NOTIFICATION = "NOTIFICATION";
+    public static final String SOURCE_RECOVERY = "RECOVERY";
+    public static final String SOURCE_REPLAY = "REPLAY";
+
+    public static final String DELIVERED = "DELIVERED";
+    public static final String FAILED = "FAILED";
+    public static final String QUEUED = "QUEUED";
+    public static final String DUPLICATE = "DUPLICATE";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "ID")
+    private Long id;
+    @Column(name = "ID_ENDPOINT")
+    private Long endpoint;
+    @Column(name = "EVENT_NUMBER")
+    private Long eventNumber;
+    @Column(name = "REFERENCE", length = 1000)
+    private String reference;
+    @Column(name = "RECEIVED")
+    private Date received;
+    @Column(name = "SOURCE", length = 16)
+    private String source;
+    @Column(name = "OUTCOME", length = 16)
+    private String outcome;
+
+    public NotificationJournal() {
+
+    }
+
+    public NotificationJournal(Long endpoint, Long eventNumber, String reference, Date received, String source,
+            String outcome) {
+        this.endpoint = endpoint;
+        this.eventNumber = eventNumber;
+        this.reference = reference;
+        this.received = received;
+        this.source = source;
+        this.outcome = outcome;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(Long endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Long getEventNumber() {
+        return eventNumber;
+    }
+
+    public void setEventNumber(Long eventNumber) {
+        this.eventNumber = eventNumber;
+    }
+
+    public String getReference() {
+        return reference;
+    }
+
+    public void setReference(String reference) {
+        this.reference = reference;
+    }
+
+    public Date getReceived() {
+        return received;
+    }
+
+    public void setReceived(Date received) {
+        this.received = received;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+    }
+
+    public String getOutcome() {
+        return outcome;
+    }
+
+    public void setOutcome(String outcome) {
+        this.outcome = outcome;
+    }
+}
@@ -0,0 +1,98 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.db;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Entidad que representa un rango de eventos perdidos de una subscripción
+ * pendiente de recuperar. Los rangos se guardan junto a la actualización de la
+ * subscripción que detecta la pérdida y se actualizan tras recuperar cada
+ * página de eventos, de modo que una recuperación interrumpida continúa al
+ * arrancar la aplicación desde el último evento recuperado.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Entity(name = "RECOVERY_RANGES")
+@Table(indexes = @Index(name = "IDX_RECOVERY_RANGES_ENDPOINT", columnList = "ID_ENDPOINT"))
+public class RecoveryRange {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "ID")
+    private Long id;
+    @Column(name = "ID_ENDPOINT")
+    private Long endpoint;
+    @Column(name = "EVENTS_SINCE")
+    private Long eventsSince;
+    @Column(name = "EVENTS_UNTIL")
+    private Long eventsUntil;
+
+    public RecoveryRange() {
+
+    }
+
+    public RecoveryRange(Long endpoint, Long eventsSince, Long eventsUntil) {
+        this.endpoint = endpoint;
+        this.eventsSince = eventsSince;
+        this.eventsUntil = eventsUntil;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public Long getEndpoint() {
+        return endpoint;
+    }
+
+    public void setEndpoint(Long endpoint) {
+        this.endpoint = endpoint;
+    }
+
+    public Long getEventsSince() {
+        return eventsSince;
+    }
+
+    public void setEventsSince(Long eventsSince) {
+        this.eventsSince = eventsSince;
+    }
+
+    public Long getEventsUntil() {
+        return eventsUntil;
+    }
+
+    public void setEventsUntil(Long eventsUntil) {
+        this.eventsUntil = eventsUntil;
+    }
+}
@@ -47,6 +47,12 @@ public class Signal {
     private String name;
     @Column(name = "ID_TRIGGER")
     private Long idTrigger;
+    @Column(name = "BATCH")
+    private Boolean batch;
+    @Column(name = "KIE_SERVER")
+    private String kieServer;
+    @Column(name = "CONTAINER_ID")
+    private String containerId;
 
     public long getId() {
         return id;
@@ -72,4 +78,48 @@ public class Signal {
         this.idTrigger = idTrigger;
     }
 
+    /**
+     * Indica si las referencias de una notificación se envían en una única señal
+     * por contenedor, con el listado de referencias como contenido.
+     * 
+     * @return true si la señal se envía en lote, false en caso contrario.
+     */
+    public Boolean getBatch() {
+        // Las señales creadas antes de existir este campo no se envían en lote
+        return (batch != null) ? batch : false;
+    }
+
+    public void setBatch(Boolean batch) {
+        // Comprueba si es null, en ese caso guarda false
+        this.batch = (batch != null) ? batch : false;
+    }
+
+    /**
+     * Obtiene la URL del servidor KIE destino de la señal. Si es null, la señal se
+     * envía a todos los servidores KIE.
+     * 
+     * @return la URL del servidor KIE destino o null.
+     */
+    public String getKieServer() {
+        return kieServer;
+    }
+
+    public void setKieServer(String kieServer) {
+        this.kieServer = kieServer;
+    }
+
+    /**
+     * Obtiene el contenedor destino de la señal. Si es null, la señal se envía a
+     * todos los contenedores arrancados de los servidores destino.
+     * 
+     * @return el identificador del contenedor destino o null.
+     */
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
 }
@@ -0,0 +1,198 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.db;
+
+import java.util.Date;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+/**
+ * Entidad que representa una señal pendiente de entregar a un servidor KIE.
+ * Las señales se guardan junto a la actualización de la subscripción y se
+ * entregan en segundo plano, reintentándose hasta que se entregan o se supera
+ * el número máximo de intentos. Se guardan los contenedores a los que ya se ha
+ * entregado la señal, para no repetir la entrega en los reintentos. El
+ * contenido de la señal se guarda como texto sin límite de longitud, ya que las
+ * señales en lote incluyen todas las referencias de una notificación o de una
+ * página de eventos recuperados.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Entity(name = "SIGNAL_OUTBOX")
+@Table(indexes = @Index(name = "IDX_SIGNAL_OUTBOX_STATUS", columnList = "STATUS, NEXT_ATTEMPT"))
+public class SignalOutbox {
+
+    public static final String PENDING = "PENDING";
+    public static final String DEAD = "DEAD";
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.AUTO)
+    @Column(name = "ID")
+    private Long id;
+    @Column(name = "SIGNAL_NAME")
+    private String signal;
+    @Column(name = "PAYLOAD", columnDefinition = "text")
+    private String payload;
+    @Column(name = "BATCH")
+    private Boolean batch;
+    @Column(name = "KIE_SERVER")
+    private String kieServer;
+    @Column(name = "CONTAINER_ID")
+    private String containerId;
+    @Column(name = "DELIVERED_CONTAINERS", length = 1000)
+    private String deliveredContainers;
+    @Column(name = "STATUS")
+    private String status;
+    @Column(name = "ATTEMPTS")
+    private Integer attempts;
+    @Column(name = "NEXT_ATTEMPT")
+    private Date nextAttempt;
+    @Column(name = "LAST_ERROR", length = 1000)
+    private String lastError;
+    @Column(name = "CREATED")
+    private Date created;
+
+    public SignalOutbox() {
+
+    }
+
+    public SignalOutbox(String signal, String payload, Boolean batch, String kieServer, String containerId) {
+        this.signal = signal;
+        this.payload = payload;
+        this.batch = batch;
+        this.kieServer = kieServer;
+        this.containerId = containerId;
+        this.status = PENDING;
+        this.attempts = 0;
+        this.created = new Date();
+        this.nextAttempt = this.created;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public void setId(Long id) {
+        this.id = id;
+    }
+
+    public String getSignal() {
+        return signal;
+    }
+
+    public void setSignal(String signal) {
+        this.signal = signal;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public void setPayload(String payload) {
+        this.payload = payload;
+    }
+
+    public Boolean getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Boolean batch) {
+        this.batch = batch;
+    }
+
+    public String getKieServer() {
+        return kieServer;
+    }
+
+    public void setKieServer(String kieServer) {
+        this.kieServer = kieServer;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
+    /**
+     * Obtiene los contenedores a los que ya se ha entregado la señal, separados
+     * por comas.
+     * 
+     * @return los contenedores entregados o null si no hay ninguno.
+     */
+    public String getDeliveredContainers() {
+        return deliveredContainers;
+    }
+
+    public void setDeliveredContainers(String deliveredContainers) {
+        this.deliveredContainers = deliveredContainers;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public Integer getAttempts() {
+        return attempts;
+    }
+
+    public void setAttempts(Integer attempts) {
+        this.attempts = attempts;
+    }
+
+    public Date getNextAttempt() {
+        return nextAttempt;
+    }
+
+    public void setNextAttempt(Date nextAttempt) {
+        this.nextAttempt = nextAttempt;
+    }
+
+    public String getLastError() {
+        return lastError;
+    }
+
+    public void setLastError(String lastError) {
+        this.lastError = lastError;
+    }
+
+    public Date getCreated() {
+        return created;
+    }
+
+    public void setCreated(Date created) {
+        this.created = created;
+    }
+}
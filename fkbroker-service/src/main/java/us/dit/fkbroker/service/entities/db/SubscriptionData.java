@@ -27,17 +27,32 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.Table;
+import javax.persistence.Version;
 
 /**
  * Entidad que representa los datos de las subscripciones
  * 
+ * El índice sobre el servidor y la fecha de actualización permite obtener las
+ * subscripciones sin actividad reciente sin recorrer toda la tabla.
+ * 
+ * La versión permite detectar modificaciones concurrentes al guardar la entidad
+ * completa. El contador de eventos y el estado se actualizan mediante una
+ * consulta que sólo avanza el contador, que también incrementa la versión.
+ * 
+ * La ventana de eventos ya señalizados la guarda el componente
+ * SignalDeduplicator mediante JDBC, por lo que sus columnas no se escriben al
+ * guardar la entidad.
+ * 
  * @author josperbel
  * @version 1.0
  * @date Abr 2025
  */
 @Entity(name = "SUBSCRIPTIONS")
+@Table(indexes = @Index(name = "IDX_SUBSCRIPTIONS_SERVER_UPDATED", columnList = "ID_SERVER, UPDATED"))
 public class SubscriptionData {
 
     @Id
@@ -52,6 +67,15 @@ public class SubscriptionData {
     private String status;
     @Column(name = "UPDATED")
     private Date updated;
+    @Column(name = "HEARTBEAT_PERIOD")
+    private Integer heartbeatPeriod;
+    @Version
+    @Column(name = "VERSION", columnDefinition = "bigint default 0")
+    private Long version;
+    @Column(name = "DEDUP_HIGH_WORD", insertable = false, updatable = false)
+    private Long dedupHighWord;
+    @Column(name = "DEDUP_BITS", length = 8192, insertable = false, updatable = false)
+    private byte[] dedupBits;
 
     @ManyToOne
     @JoinColumn(name = "ID_SERVER")
@@ -120,6 +144,38 @@ public class SubscriptionData {
         this.updated = updated;
     }
 
+    public Integer getHeartbeatPeriod() {
+        return heartbeatPeriod;
+    }
+
+    public void setHeartbeatPeriod(Integer heartbeatPeriod) {
+        this.heartbeatPeriod = heartbeatPeriod;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Long getDedupHighWord() {
+        return dedupHighWord;
+    }
+
+    public void setDedupHighWord(Long dedupHighWord) {
+        this.dedupHighWord = dedupHighWord;
+    }
+
+    public byte[] getDedupBits() {
+        return dedupBits;
+    }
+
+    public void setDedupBits(byte[] dedupBits) {
+        this.dedupBits = dedupBits;
+    }
+
     public Topic getTopic() {
         return topic;
     }
@@ -0,0 +1,83 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.domain;
+
+import java.util.List;
+
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+
+/**
+ * Datos de una notificación FHIR que necesita el broker: tipo de notificación,
+ * estado de la subscripción, número de eventos enviados desde el inicio de la
+ * subscripción, número del primer evento notificado y referencias de los
+ * recursos notificados, junto con el número del evento de cada referencia (null
+ * si el evento no tiene número).
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class NotificationDetails {
+
+    private final SubscriptionNotificationType type;
+    private final SubscriptionStatusCodes status;
+    private final Long eventsSinceSubscriptionStart;
+    private final Long firstEventNumber;
+    private final List<String> references;
+    private final List<Long> eventNumbers;
+
+    public NotificationDetails(SubscriptionNotificationType type, SubscriptionStatusCodes status,
+            Long eventsSinceSubscriptionStart, Long firstEventNumber, List<String> references,
+            List<Long> eventNumbers) {
+        this.type = type;
+        this.status = status;
+        this.eventsSinceSubscriptionStart = eventsSinceSubscriptionStart;
+        this.firstEventNumber = firstEventNumber;
+        this.references = references;
+        this.eventNumbers = eventNumbers;
+    }
+
+    public SubscriptionNotificationType getType() {
+        return type;
+    }
+
+    public SubscriptionStatusCodes getStatus() {
+        return status;
+    }
+
+    public Long getEventsSinceSubscriptionStart() {
+        return eventsSinceSubscriptionStart;
+    }
+
+    public Long getFirstEventNumber() {
+        return firstEventNumber;
+    }
+
+    public List<String> getReferences() {
+        return references;
+    }
+
+    public List<Long> getEventNumbers() {
+        return eventNumbers;
+    }
+
+}
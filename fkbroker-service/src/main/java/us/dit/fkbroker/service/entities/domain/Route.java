@@ -0,0 +1,91 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.domain;
+
+import java.util.List;
+
+import us.dit.fkbroker.service.entities.db.FhirServer;
+
+/**
+ * Ruta de un endpoint de notificación: servidor FHIR, subscripción y tema de origen,
+ * trigger asociado, periodo de heartbeat esperado y reglas de envío de las
+ * señales configuradas para el trigger. Es inmutable y se construye en memoria
+ * por la tabla de rutas.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class Route {
+
+    private final Long id;
+    private final FhirServer server;
+    private final String idSubscription;
+    private final String idTopic;
+    private final Long idTrigger;
+    private final Integer heartbeatPeriod;
+    private final List<SignalRoute> signalRoutes;
+
+    public Route(Long id, FhirServer server, String idSubscription, String idTopic, Long idTrigger,
+            Integer heartbeatPeriod, List<SignalRoute> signalRoutes) {
+        this.id = id;
+        this.server = server;
+        this.idSubscription = idSubscription;
+        this.idTopic = idTopic;
+        this.idTrigger = idTrigger;
+        this.heartbeatPeriod = heartbeatPeriod;
+        this.signalRoutes = signalRoutes;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public FhirServer getServer() {
+        return server;
+    }
+
+    public String getIdSubscription() {
+        return idSubscription;
+    }
+
+    public String getIdTopic() {
+        return idTopic;
+    }
+
+    public Long getIdTrigger() {
+        return idTrigger;
+    }
+
+    /**
+     * Obtiene el periodo de heartbeat de la subscripción en segundos.
+     * 
+     * @return el periodo de heartbeat o null si no se esperan heartbeats.
+     */
+    public Integer getHeartbeatPeriod() {
+        return heartbeatPeriod;
+    }
+
+    public List<SignalRoute> getSignalRoutes() {
+        return signalRoutes;
+    }
+
+}
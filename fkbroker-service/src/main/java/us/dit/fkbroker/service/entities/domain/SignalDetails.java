@@ -33,6 +33,9 @@ public class SignalDetails {
     private String resource;
     private String interaction;
     private String name;
+    private Boolean batch;
+    private String kieServer;
+    private String containerId;
 
     public Long getId() {
         return id;
@@ -66,4 +69,28 @@ public class SignalDetails {
         this.name = name;
     }
 
+    public Boolean getBatch() {
+        return batch;
+    }
+
+    public void setBatch(Boolean batch) {
+        this.batch = batch;
+    }
+
+    public String getKieServer() {
+        return kieServer;
+    }
+
+    public void setKieServer(String kieServer) {
+        this.kieServer = kieServer;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public void setContainerId(String containerId) {
+        this.containerId = containerId;
+    }
+
 }
@@ -0,0 +1,107 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.domain;
+
+import java.util.List;
+
+/**
+ * Resultado del envío de una señal a un contenedor de un servidor KIE.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class SignalResult {
+
+    private final String serverUrl;
+    private final String containerId;
+    private final String signal;
+    private final boolean success;
+    private final String error;
+    private final long elapsed;
+
+    public SignalResult(String serverUrl, String containerId, String signal, boolean success, String error,
+            long elapsed) {
+        this.serverUrl = serverUrl;
+        this.containerId = containerId;
+        this.signal = signal;
+        this.success = success;
+        this.error = error;
+        this.elapsed = elapsed;
+    }
+
+    public static SignalResult success(String serverUrl, String containerId, String signal, long elapsed) {
+        return new SignalResult(serverUrl, containerId, signal, true, null, elapsed);
+    }
+
+    public static SignalResult failure(String serverUrl, String containerId, String signal, String error,
+            long elapsed) {
+        return new SignalResult(serverUrl, containerId, signal, false, error, elapsed);
+    }
+
+    /**
+     * Indica si una señal se ha entregado: hay al menos un envío y todos han
+     * tenido éxito.
+     * 
+     * @param results resultados de los envíos de la señal.
+     * @return true si se ha entregado, false si no había ningún destino o ha
+     *         fallado algún envío.
+     */
+    public static boolean isDelivered(List<SignalResult> results) {
+        return results != null && !results.isEmpty() && results.stream().allMatch(SignalResult::isSuccess);
+    }
+
+    public String getServerUrl() {
+        return serverUrl;
+    }
+
+    public String getContainerId() {
+        return containerId;
+    }
+
+    public String getSignal() {
+        return signal;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Obtiene el tiempo empleado en el envío.
+     * 
+     * @return el tiempo empleado en milisegundos.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "SignalResult [serverUrl=" + serverUrl + ", containerId=" + containerId + ", signal=" + signal
+                + ", success=" + success + ", error=" + error + ", elapsed=" + elapsed + "]";
+    }
+
+}
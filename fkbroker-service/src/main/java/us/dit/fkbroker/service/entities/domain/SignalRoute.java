@@ -0,0 +1,76 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.entities.domain;
+
+import java.util.List;
+
+import us.dit.fkbroker.service.entities.db.KieServer;
+
+/**
+ * Regla de envío de una señal precompilada por la tabla de rutas: nombre de la
+ * señal, modo de envío y destinos ya resueltos. Es inmutable.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public class SignalRoute {
+
+    private final String signal;
+    private final boolean batch;
+    private final List<KieServer> kieServers;
+    private final String containerId;
+
+    public SignalRoute(String signal, boolean batch, List<KieServer> kieServers, String containerId) {
+        this.signal = signal;
+        this.batch = batch;
+        this.kieServers = kieServers;
+        this.containerId = containerId;
+    }
+
+    public String getSignal() {
+        return signal;
+    }
+
+    public boolean isBatch() {
+        return batch;
+    }
+
+    /**
+     * Obtiene los servidores KIE destino de la señal.
+     * 
+     * @return el listado de servidores KIE destino.
+     */
+    public List<KieServer> getKieServers() {
+        return kieServers;
+    }
+
+    /**
+     * Obtiene el contenedor destino de la señal.
+     * 
+     * @return el identificador del contenedor o null si la señal se envía a todos
+     *         los contenedores arrancados.
+     */
+    public String getContainerId() {
+        return containerId;
+    }
+
+}
@@ -0,0 +1,75 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.repositories;
+
+import java.util.Date;
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
+
+import us.dit.fkbroker.service.entities.db.NotificationJournal;
+
+/**
+ * Repositorio JPA de la entidad {@link NotificationJournal}
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+public interface NotificationJournalRepository extends JpaRepository<NotificationJournal, Long> {
+    List<NotificationJournal> findByEndpointAndEventNumberBetweenOrderByEventNumberAscIdAsc(Long endpoint,
+            Long eventsSince, Long eventsUntil, Pageable pageable);
+
+    /**
+     * Obtiene el identificador de la entrada más reciente del diario.
+     * 
+     * @return el identificador más alto o null si el diario está vacío.
+     */
+    @Query("SELECT MAX(j.id) FROM NOTIFICATION_JOURNAL j")
+    Long findMaxId();
+
+    /**
+     * Elimina las entradas recibidas antes de la fecha indicada.
+     * 
+     * @param threshold fecha límite de recepción.
+     * @return el número de entradas eliminadas.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM NOTIFICATION_JOURNAL j WHERE j.received < :threshold")
+    int deleteReceivedBefore(@Param("threshold") Date threshold);
+
+    /**
+     * Elimina las entradas con identificador menor o igual que el indicado.
+     * 
+     * @param id identificador de la entrada más reciente a eliminar.
+     * @return el número de entradas eliminadas.
+     */
+    @Transactional
+    @Modifying
+    @Query("DELETE FROM NOTIFICATION_JOURNAL j WHERE j.id <= :id")
+    int deleteUpTo(@Param("id") Long id);
+}
@@ -20,7 +20,7 @@
 **/
 package us.dit.fkbroker.service.repositories;
 
-import java.util.Optional;
+import java.util.List;
 
 import org.springframework.data.jpa.repository.JpaRepository;
 
@@ -35,5 +35,5 @@ import us.dit.fkbroker.service.entities.db.Signal;
  * @date Mar 2025
  */
 public interface SignalRepository extends JpaRepository<Signal, Long> {
-    Optional<Signal> findByIdTrigger(Long idTrigger);
+    List<Signal> findAllByIdTrigger(Long idTrigger);
 }
@@ -20,9 +20,18 @@
 **/
 package us.dit.fkbroker.service.repositories;
 
+import java.util.Date;
 import java.util.List;
+import java.util.Optional;
+
+import javax.persistence.QueryHint;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 import us.dit.fkbroker.service.entities.db.FhirServer;
 import us.dit.fkbroker.service.entities.db.SubscriptionData;
@@ -38,4 +47,48 @@ public interface SubscriptionRepository extends JpaRepository<SubscriptionData,
     void deleteByServerAndIdSubscription(FhirServer server, String idSubscription);
 
     List<SubscriptionData> findByServerId(Long serverId);
+
+    /**
+     * Obtiene las subscripciones de servidores con heartbeat activado cuya última
+     * actualización es anterior a la fecha indicada, junto con su servidor y su
+     * topic.
+     * 
+     * @param threshold fecha límite de la última actualización.
+     * @return las subscripciones sin actividad desde la fecha indicada.
+     */
+    @Query("SELECT s FROM SUBSCRIPTIONS s JOIN FETCH s.server f JOIN FETCH s.topic "
+            + "WHERE f.heartbeat = true AND s.updated < :threshold ORDER BY f.id")
+    List<SubscriptionData> findStaleHeartbeatSubscriptions(@Param("threshold") Date threshold);
+
+    /**
+     * Obtiene una subscripción junto con su servidor, su topic y su trigger en
+     * una única consulta. La entidad es de sólo lectura, por lo que sus cambios
+     * no se guardan al confirmar la transacción.
+     * 
+     * @param id identificador de la subscripción.
+     * @return la subscripción, si existe.
+     */
+    @QueryHints(@QueryHint(name = "org.hibernate.readOnly", value = "true"))
+    @Query("SELECT s FROM SUBSCRIPTIONS s JOIN FETCH s.server JOIN FETCH s.topic t JOIN FETCH t.trigger "
+            + "WHERE s.id = :id")
+    Optional<SubscriptionData> findReadOnlyById(@Param("id") Long id);
+
+    /**
+     * Actualiza el estado y la fecha de actualización de una subscripción y
+     * avanza su contador de eventos, que nunca retrocede. Incrementa la versión
+     * de la entidad sin necesidad de obtenerla.
+     * 
+     * @param id      identificador de la subscripción.
+     * @param events  último evento recibido.
+     * @param status  estado de la subscripción.
+     * @param updated fecha de actualización.
+     * @return el número de subscripciones actualizadas.
+     */
+    @Transactional
+    @Modifying
+    @Query("UPDATE SUBSCRIPTIONS s SET s.events = CASE WHEN COALESCE(s.events, 0) < :events THEN :events "
+            + "ELSE s.events END, s.status = :status, s.updated = :updated, "
+            + "s.version = COALESCE(s.version, 0) + 1 WHERE s.id = :id")
+    int advanceEvents(@Param("id") Long id, @Param("events") Long events, @Param("status") String status,
+            @Param("updated") Date updated);
 }
\ No newline at end of file
@@ -20,9 +20,11 @@
 **/
 package us.dit.fkbroker.service.services.fhir;
 
-import java.time.Duration;
-import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -38,6 +40,13 @@ import us.dit.fkbroker.service.entities.db.SubscriptionData;
  * Servicio para comprobar que no se haya perdido la conexión en las
  * suscripciones que se encuentran en servidores con Heartbeat configurado.
  * 
+ * En el modo timer (por defecto) cada subscripción tiene su propio plazo en
+ * {@link HeartbeatMonitor}, calculado a partir de su periodo de heartbeat y
+ * reiniciado con cada notificación, y sólo se comprueban las subscripciones
+ * cuyo plazo ha vencido. En el modo scan se consultan periódicamente en base de
+ * datos las subscripciones sin actualizar durante el periodo global
+ * configurado.
+ * 
  * @author josperbel
  * @version 1.0
  * @date Mar 2025
@@ -51,56 +60,110 @@ public class CheckService {
     private Long heartbeatPeriod;
     @Value("${fhir.subscription.heartbeat.errors}")
     private Long heartbeatErrors;
+    @Value("${fhir.subscription.heartbeat.mode:timer}")
+    private String heartbeatMode;
 
-    private final FhirServerService fhirServerService;
     private final SubscriptionService subscriptionService;
     private final NotificationService notificationService;
+    private final HeartbeatMonitor heartbeatMonitor;
 
     /**
-     * Constructor que inyecta los servicios {@link FhirServerService} y
-     * {@link SubscriptionService}.
+     * Constructor que inyecta los servicios {@link SubscriptionService} y
+     * {@link NotificationService} y el componente {@link HeartbeatMonitor}.
      * 
-     * @param fhirServerService   servicio utilizado para gestionar los servidores
-     *                            FHIR.
      * @param subscriptionService servicio utilizado para gestionar las
      *                            subscripciones.
      * @param notificationService servicio para gestionar las notificaciones de
      *                            subscripciones.
+     * @param heartbeatMonitor    componente que mantiene el plazo de heartbeat de
+     *                            cada subscripción.
      */
     @Autowired
-    public CheckService(FhirServerService fhirServerService, SubscriptionService subscriptionService,
-            NotificationService notificationService) {
-        this.fhirServerService = fhirServerService;
+    public CheckService(SubscriptionService subscriptionService, NotificationService notificationService,
+            HeartbeatMonitor heartbeatMonitor) {
         this.subscriptionService = subscriptionService;
         this.notificationService = notificationService;
+        this.heartbeatMonitor = heartbeatMonitor;
+    }
+
+    /**
+     * Comprueba las subscripciones cuyo plazo de heartbeat ha vencido y vuelve a
+     * iniciar su plazo, de modo que si siguen sin actividad se comprueban de nuevo
+     * al cabo de otro plazo.
+     */
+    @Scheduled(fixedRateString = "${fhir.subscription.heartbeat.wheel.tick:1000}", initialDelayString = "${fhir.subscription.heartbeat.check.initial.delay}")
+    public void checkDeadlines() {
+        if (isScanMode()) {
+            return;
+        }
+
+        List<Long> expired = heartbeatMonitor.pollExpired();
+        if (expired.isEmpty()) {
+            return;
+        }
+
+        try {
+            List<SubscriptionData> subscriptionDatas = new ArrayList<>();
+            for (SubscriptionData subscriptionData : subscriptionService.getSubscriptionDatas(expired)) {
+                // El servidor puede haber desactivado el heartbeat tras iniciarse el plazo
+                if (Boolean.TRUE.equals(subscriptionData.getServer().getHeartbeat())) {
+                    subscriptionDatas.add(subscriptionData);
+                }
+            }
+            checkSubscriptions(subscriptionDatas);
+        } finally {
+            expired.forEach(heartbeatMonitor::touch);
+        }
     }
 
     @Scheduled(fixedRateString = "${fhir.subscription.heartbeat.check.fixed.rate}", initialDelayString = "${fhir.subscription.heartbeat.check.initial.delay}")
     public void checkSystem() {
+        if (!isScanMode()) {
+            return;
+        }
+
         logger.debug("Se inicia proceso de comprobación de heartbeats");
 
-        // Obtiene todos los servidores con heartbeats activados
-        List<FhirServer> fhirServers = fhirServerService.getFhirServersWithHeartbeat();
+        // Obtiene de la base de datos sólo las subscripciones de servidores con
+        // heartbeats activados que llevan más tiempo del configurado sin actualizarse
+        Date threshold = new Date(System.currentTimeMillis() - heartbeatPeriod * heartbeatErrors * 1000);
+        checkSubscriptions(subscriptionService.getStaleHeartbeatSubscriptions(threshold));
+    }
 
-        for (FhirServer fhirServer : fhirServers) {
-            // Obtiene todas las subscripciones de ese servidor
-            List<SubscriptionData> subscriptionDatas = subscriptionService.getSubscriptions(fhirServer.getId());
+    /**
+     * Actualiza el estado de las subscripciones sin actividad, agrupándolas por
+     * servidor para consultar su estado en lote.
+     * 
+     * @param staleSubscriptions subscripciones sin actividad.
+     */
+    private void checkSubscriptions(List<SubscriptionData> staleSubscriptions) {
+        // Agrupa las subscripciones por servidor
+        Map<Long, List<SubscriptionData>> subscriptionsByServer = new LinkedHashMap<>();
+        for (SubscriptionData subscriptionData : staleSubscriptions) {
+            logger.warn("Se detecta periodo de inactividad mayor al permitido para la subscripción {} del servidor {}.",
+                    subscriptionData.getIdSubscription(), subscriptionData.getServer().getId());
+            subscriptionsByServer.computeIfAbsent(subscriptionData.getServer().getId(), id -> new ArrayList<>())
+                    .add(subscriptionData);
+        }
 
-            for (SubscriptionData subscriptionData : subscriptionDatas) {
-                // Comprueda cuanto tiempo hace desde que recibió la última actualización
-                Instant lastUpdate = subscriptionData.getUpdated().toInstant();
-                Long secondsElapsed = Duration.between(lastUpdate, Instant.now()).getSeconds();
+        for (List<SubscriptionData> subscriptionDatas : subscriptionsByServer.values()) {
+            FhirServer fhirServer = subscriptionDatas.get(0).getServer();
 
-                // En caso de que haya pasado pasado más tiempo del configurado
-                if (secondsElapsed > heartbeatPeriod * heartbeatErrors) {
-                    logger.warn(
-                            "Se detecta periodo de inactividad mayor al permitido para la subscripción {} del servidor {}.",
+            // Se actualiza la información de las subscripciones, consultando su estado en
+            // lote
+            for (SubscriptionData subscriptionData : notificationService.updateSubscriptionStatus(fhirServer,
+                    subscriptionDatas)) {
+                try {
+                    subscriptionService.updateSubscriptionState(subscriptionData);
+                } catch (Exception e) {
+                    logger.warn("No se ha podido actualizar la subscripción {} del servidor {}.",
                             subscriptionData.getIdSubscription(), fhirServer.getId());
-                    // Se actualiza la información de la subscripción
-                    notificationService.updateSubscriptionStatus(fhirServer, subscriptionData);
-                    subscriptionService.updateSubscription(subscriptionData);
                 }
             }
         }
     }
+
+    private boolean isScanMode() {
+        return "scan".equalsIgnoreCase(heartbeatMode);
+    }
 }
@@ -30,6 +30,7 @@ import org.springframework.transaction.annotation.Transactional;
 import us.dit.fkbroker.service.entities.db.FhirServer;
 import us.dit.fkbroker.service.entities.db.SubscriptionData;
 import us.dit.fkbroker.service.repositories.FhirServerRepository;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
 
 /**
  * Servicio para gestionar las operaciones sobre los servidores FHIR.
@@ -44,6 +45,7 @@ public class FhirServerService {
     private final SubscriptionService subscriptionService;
     private final SubscriptionTopicService subscriptionTopicService;
     private final FhirServerRepository fhirServerRepository;
+    private final RoutingTable routingTable;
 
     /**
      * Constructor que inyecta el repositorio {@link FhirServerRepository} y el
@@ -53,13 +55,16 @@ public class FhirServerService {
      * @param fhirServerMapper     componente que transforma objetos
      *                             {@link FhirServerDetails} en {@link FhirServer} y
      *                             viceversa.
+     * @param routingTable         tabla de rutas que se descarta al modificar los
+     *                             servidores FHIR.
      */
     @Autowired
     public FhirServerService(SubscriptionService subscriptionService, SubscriptionTopicService subscriptionTopicService,
-            FhirServerRepository fhirServerRepository) {
+            FhirServerRepository fhirServerRepository, RoutingTable routingTable) {
         this.subscriptionService = subscriptionService;
         this.subscriptionTopicService = subscriptionTopicService;
         this.fhirServerRepository = fhirServerRepository;
+        this.routingTable = routingTable;
     }
 
     /**
@@ -106,6 +111,7 @@ public class FhirServerService {
      */
     public void saveFhirServer(FhirServer server) {
         fhirServerRepository.save(server);
+        routingTable.invalidate();
     }
 
     /**
@@ -133,5 +139,6 @@ public class FhirServerService {
 
         // Elimina los datos del servidor de la base de datos
         fhirServerRepository.deleteById(id);
+        routingTable.invalidate();
     }
 }
@@ -20,8 +20,11 @@
 **/
 package us.dit.fkbroker.service.services.fhir;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
@@ -29,9 +32,11 @@ import java.util.stream.Collectors;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.r5.model.IdType;
 import org.hl7.fhir.r5.model.Integer64Type;
 import org.hl7.fhir.r5.model.Parameters;
+import org.hl7.fhir.r5.model.StringType;
 import org.hl7.fhir.r5.model.Subscription;
 import org.hl7.fhir.r5.model.SubscriptionStatus;
 import org.hl7.fhir.r5.model.SubscriptionTopic;
@@ -40,9 +45,9 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import ca.uhn.fhir.context.FhirContext;
-import ca.uhn.fhir.parser.IParser;
 import ca.uhn.fhir.rest.api.MethodOutcome;
 import ca.uhn.fhir.rest.client.api.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.BaseServerResponseException;
 
 /**
  * Esta clase desarrolla las distintas operaciones que se realizan sobre
@@ -65,20 +70,20 @@ public class FhirService {
     private static final Logger logger = LogManager.getLogger(FhirService.class);
 
     private final FhirContext fhirContext;
-    private final IParser jsonParser;
 
     private final ConcurrentMap<String, IGenericClient> client = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Boolean> bulkStatusSupported = new ConcurrentHashMap<>();
 
     /**
-     * Constructor que inyecta {@link FhirContext} y {@link IParser}.
+     * Constructor que inyecta {@link FhirContext}. Los mensajes se serializan con
+     * un parser nuevo en cada llamada, ya que los parsers de HAPI FHIR no se
+     * pueden utilizar desde varios hilos a la vez.
      * 
      * @param fhirContext
-     * @param jsonParser
      */
     @Autowired
-    public FhirService(FhirContext fhirContext, IParser jsonParser) {
+    public FhirService(FhirContext fhirContext) {
         this.fhirContext = fhirContext;
-        this.jsonParser = jsonParser;
     }
 
     /**
@@ -174,7 +179,7 @@ public class FhirService {
                 .getResource();
 
         logger.info("Suscripción creada: {}",
-                jsonParser.setPrettyPrint(true).encodeResourceToString(createdSubscription));
+                fhirContext.newJsonParser().setPrettyPrint(true).encodeResourceToString(createdSubscription));
 
         return createdSubscription;
     }
@@ -211,7 +216,11 @@ public class FhirService {
         Bundle bundle = (Bundle) client.operation().onInstance(new IdType("Subscription", subscriptionId))
                 .named("$events").withParameters(inputParams).useHttpGet().returnResourceType(Bundle.class).execute();
 
-        logger.info("Respuesta del servidor: {}", jsonParser.encodeResourceToString(bundle));
+        if (logger.isDebugEnabled()) {
+            logger.debug("Respuesta del servidor: {}", fhirContext.newJsonParser().encodeResourceToString(bundle));
+        }
+        logger.info("Se recuperan los eventos {}-{} de la subscripción {}", eventsSinceNumber, eventsUntilNumber,
+                subscriptionId);
 
         // Comprueba que tenga SubscriptionStatus y lo extrae
         if (bundle.getEntry().isEmpty() || !bundle.getEntryFirstRep().hasResource()
@@ -247,6 +256,91 @@ public class FhirService {
         }
     }
 
+    /**
+     * Obtiene el estado de varias subscripciones de un servidor FHIR mediante la
+     * operación $status de tipo (Subscription/$status?id=a,b,c), realizando una
+     * petición por cada lote de identificadores. Si el servidor no soporta la
+     * operación de tipo se recuerda y se devuelve un mapa vacío, de modo que el
+     * llamante consulte cada subscripción por separado. Las subscripciones que
+     * no aparecen en la respuesta tampoco se incluyen en el mapa.
+     * 
+     * @param fhirUrl         la URL del servidor FHIR.
+     * @param subscriptionIds los identificadores de las subscripciones.
+     * @param batchSize       número máximo de identificadores por petición.
+     * @return el estado de cada subscripción, por identificador.
+     */
+    public Map<String, SubscriptionStatus> getStatuses(String fhirUrl, List<String> subscriptionIds,
+            int batchSize) {
+        Map<String, SubscriptionStatus> statuses = new HashMap<>();
+        if (!bulkStatusSupported.getOrDefault(fhirUrl, Boolean.TRUE)) {
+            return statuses;
+        }
+
+        IGenericClient client = getClient(fhirUrl);
+        for (List<String> batch : partition(subscriptionIds, batchSize)) {
+            Bundle bundle;
+            try {
+                bundle = client.operation().onType(Subscription.class).named("$status")
+                        .withParameter(Parameters.class, "id", new StringType(String.join(",", batch)))
+                        .useHttpGet().returnResourceType(Bundle.class).execute();
+            } catch (BaseServerResponseException e) {
+                if (isUnsupportedOperation(e)) {
+                    logger.warn("El servidor {} no soporta Subscription/$status. Se consulta cada subscripción",
+                            fhirUrl);
+                    bulkStatusSupported.put(fhirUrl, Boolean.FALSE);
+                    return statuses;
+                }
+                throw e;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("Respuesta del servidor: {}",
+                        fhirContext.newJsonParser().encodeResourceToString(bundle));
+            }
+
+            // Extrae cada SubscriptionStatus con el identificador de su subscripción
+            for (BundleEntryComponent entry : bundle.getEntry()) {
+                if (entry.getResource() instanceof SubscriptionStatus) {
+                    SubscriptionStatus status = (SubscriptionStatus) entry.getResource();
+                    String id = status.getSubscription().getReferenceElement().getIdPart();
+                    if (id != null) {
+                        statuses.put(id, status);
+                    }
+                }
+            }
+        }
+        return statuses;
+    }
+
+    /**
+     * Obtiene varias subscripciones de un servidor FHIR mediante la búsqueda
+     * Subscription?_id=a,b,c, realizando una petición por cada lote de
+     * identificadores. Las subscripciones que no aparecen en la respuesta no se
+     * incluyen en el mapa.
+     * 
+     * @param fhirUrl         la URL del servidor FHIR.
+     * @param subscriptionIds los identificadores de las subscripciones.
+     * @param batchSize       número máximo de identificadores por petición.
+     * @return las subscripciones, por identificador.
+     */
+    public Map<String, Subscription> getSubscriptions(String fhirUrl, List<String> subscriptionIds, int batchSize) {
+        Map<String, Subscription> subscriptions = new HashMap<>();
+        IGenericClient client = getClient(fhirUrl);
+        for (List<String> batch : partition(subscriptionIds, batchSize)) {
+            Bundle bundle = client.search().forResource(Subscription.class)
+                    .where(Subscription.RES_ID.exactly().codes(batch)).count(batch.size())
+                    .returnBundle(Bundle.class).execute();
+
+            for (BundleEntryComponent entry : bundle.getEntry()) {
+                if (entry.getResource() instanceof Subscription) {
+                    Subscription subscription = (Subscription) entry.getResource();
+                    subscriptions.put(subscription.getIdElement().getIdPart(), subscription);
+                }
+            }
+        }
+        return subscriptions;
+    }
+
     public Subscription updateSubscriptionStatus(String fhirUrl, String subscriptionId) {
         IGenericClient client = getClient(fhirUrl);
 
@@ -264,4 +358,27 @@ public class FhirService {
         return subscription;
     }
 
+    /**
+     * Indica si el error de una petición se debe a que el servidor no soporta la
+     * operación solicitada. Otros errores, como un 400 por un identificador mal
+     * formado o un 404 por una subscripción inexistente, no desactivan la
+     * consulta en lote.
+     */
+    private static boolean isUnsupportedOperation(BaseServerResponseException e) {
+        int code = e.getStatusCode();
+        return code == 405 || code == 501;
+    }
+
+    /**
+     * Divide una lista en lotes del tamaño indicado.
+     */
+    private static List<List<String>> partition(List<String> ids, int batchSize) {
+        int size = Math.max(batchSize, 1);
+        List<List<String>> batches = new ArrayList<>();
+        for (int from = 0; from < ids.size(); from += size) {
+            batches.add(ids.subList(from, Math.min(from + size, ids.size())));
+        }
+        return batches;
+    }
+
 }
\ No newline at end of file
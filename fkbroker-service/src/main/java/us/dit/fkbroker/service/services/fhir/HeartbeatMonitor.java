@@ -0,0 +1,240 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import us.dit.fkbroker.service.entities.domain.Route;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
+
+/**
+ * Componente que mantiene en memoria un plazo de heartbeat por subscripción.
+ * 
+ * Cada subscripción de un servidor con heartbeat activado tiene como plazo su
+ * propio periodo de heartbeat multiplicado por el número de errores permitidos.
+ * Los plazos se guardan en una rueda de temporización (hashed wheel timer) con
+ * un número fijo de casillas, cada una correspondiente a un intervalo de tiempo.
+ * Reiniciar un plazo al recibir una notificación sólo actualiza su fecha de
+ * vencimiento, y al avanzar la rueda sólo se revisan las casillas de los
+ * intervalos transcurridos. Los plazos que aún no han vencido, porque se han
+ * reiniciado o están a más de una vuelta, se vuelven a colocar en la casilla
+ * que les corresponde.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class HeartbeatMonitor {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    @Value("${fhir.subscription.heartbeat.errors}")
+    private Long heartbeatErrors;
+    @Value("${fhir.subscription.heartbeat.wheel.tick:1000}")
+    private Long tickMillis;
+    @Value("${fhir.subscription.heartbeat.wheel.size:512}")
+    private Integer wheelSize;
+
+    private final RoutingTable routingTable;
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<Long, Deadline> deadlines = new ConcurrentHashMap<>();
+    private final long startMillis = System.currentTimeMillis();
+    private List<Queue<Deadline>> wheel;
+    private volatile long currentTick;
+
+    /**
+     * Constructor que inyecta la tabla de rutas {@link RoutingTable} y el registro
+     * de métricas.
+     * 
+     * @param routingTable tabla en memoria con las rutas de los endpoints de
+     *                     notificación, que incluyen el periodo de heartbeat.
+     * @param registry     registro en el que se publica el número de plazos.
+     */
+    @Autowired
+    public HeartbeatMonitor(RoutingTable routingTable, MeterRegistry registry) {
+        this.routingTable = routingTable;
+        this.registry = registry;
+    }
+
+    /**
+     * Crea las casillas de la rueda y registra la métrica con el número de
+     * subscripciones vigiladas.
+     */
+    @PostConstruct
+    public void init() {
+        wheel = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            wheel.add(new ConcurrentLinkedQueue<>());
+        }
+        Gauge.builder("fkbroker.heartbeat.deadlines", deadlines, ConcurrentMap::size)
+                .description("Subscripciones con plazo de heartbeat").register(registry);
+    }
+
+    /**
+     * Inicia los plazos de todas las subscripciones con heartbeat al arrancar la
+     * aplicación, tomando el arranque como última actividad.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        routingTable.getRoutes().forEach(this::touch);
+        logger.info("Se vigilan los heartbeats de {} subscripciones", deadlines.size());
+    }
+
+    /**
+     * Reinicia el plazo de heartbeat de una subscripción al detectar actividad. Si
+     * la subscripción no espera heartbeats se deja de vigilar.
+     * 
+     * @param route ruta del endpoint de la subscripción.
+     */
+    public void touch(Route route) {
+        Integer heartbeatPeriod = route.getHeartbeatPeriod();
+        if (heartbeatPeriod == null) {
+            cancel(route.getId());
+            return;
+        }
+
+        long expiresAt = System.currentTimeMillis() + heartbeatPeriod * heartbeatErrors * 1000;
+        Deadline deadline = deadlines.get(route.getId());
+        if (deadline == null) {
+            Deadline created = new Deadline(route.getId(), expiresAt);
+            deadline = deadlines.putIfAbsent(route.getId(), created);
+            if (deadline == null) {
+                schedule(created, currentTick);
+                return;
+            }
+        }
+        deadline.expiresAt = expiresAt;
+    }
+
+    /**
+     * Reinicia el plazo de heartbeat de una subscripción a partir de su
+     * identificador, consultando su ruta en la tabla de rutas.
+     * 
+     * @param id identificador del endpoint de la subscripción.
+     */
+    public void touch(Long id) {
+        Route route = routingTable.getRoute(id);
+        if (route == null) {
+            cancel(id);
+        } else {
+            touch(route);
+        }
+    }
+
+    /**
+     * Deja de vigilar el heartbeat de una subscripción.
+     * 
+     * @param id identificador del endpoint de la subscripción.
+     */
+    public void cancel(Long id) {
+        Deadline deadline = deadlines.remove(id);
+        if (deadline != null) {
+            deadline.cancelled = true;
+        }
+    }
+
+    /**
+     * Avanza la rueda hasta el instante actual y obtiene las subscripciones cuyo
+     * plazo ha vencido. Las subscripciones devueltas dejan de vigilarse hasta que
+     * se reinicie su plazo.
+     * 
+     * @return los identificadores de las subscripciones con el plazo vencido.
+     */
+    public synchronized List<Long> pollExpired() {
+        long now = System.currentTimeMillis();
+        long target = tickOf(now);
+        List<Long> expired = new ArrayList<>();
+
+        // Revisa las casillas de los intervalos transcurridos, como mucho una vuelta
+        for (long tick = Math.max(currentTick + 1, target - wheelSize + 1); tick <= target; tick++) {
+            Queue<Deadline> bucket = wheel.get(index(tick));
+            for (int i = bucket.size(); i > 0; i--) {
+                Deadline deadline = bucket.poll();
+                if (deadline == null) {
+                    break;
+                }
+                if (deadline.cancelled) {
+                    continue;
+                }
+                if (deadline.expiresAt <= now) {
+                    if (deadlines.remove(deadline.id, deadline)) {
+                        expired.add(deadline.id);
+                    }
+                } else {
+                    schedule(deadline, tick);
+                }
+            }
+        }
+        currentTick = target;
+        return expired;
+    }
+
+    /**
+     * Coloca un plazo en la casilla de su intervalo de vencimiento, o en la
+     * siguiente a la indicada si ese intervalo ya se ha revisado.
+     */
+    private void schedule(Deadline deadline, long afterTick) {
+        long tick = Math.max(tickOf(deadline.expiresAt), afterTick + 1);
+        wheel.get(index(tick)).add(deadline);
+    }
+
+    private long tickOf(long millis) {
+        return (millis - startMillis) / tickMillis;
+    }
+
+    private int index(long tick) {
+        return (int) (tick % wheelSize);
+    }
+
+    /**
+     * Plazo de heartbeat de una subscripción.
+     */
+    private static final class Deadline {
+
+        private final Long id;
+        private volatile long expiresAt;
+        private volatile boolean cancelled;
+
+        private Deadline(Long id, long expiresAt) {
+            this.id = id;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+import us.dit.fkbroker.service.entities.domain.Route;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Servicio que gestiona la recepción de las notificaciones. Las notificaciones
+ * pueden procesarse en el mismo hilo de la petición (modo síncrono) o
+ * encolarse en una cola acotada que es consumida por un conjunto de hilos
+ * (modo asíncrono), respondiendo al servidor FHIR de forma inmediata. En ambos
+ * modos las notificaciones de una misma subscripción se procesan en orden
+ * mediante el componente {@link NotificationSequencer}.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Service
+public class NotificationIngestService {
+
+    @Value("${fhir.notification.ingest.mode:sync}")
+    private String ingestMode;
+
+    private final SubscriptionService subscriptionService;
+    private final NotificationService notificationService;
+    private final NotificationSequencer notificationSequencer;
+    private final TransactionTemplate transactionTemplate;
+    private final RoutingTable routingTable;
+    private final PipelineMetrics pipelineMetrics;
+
+    /**
+     * Constructor que inyecta los servicios {@link SubscriptionService} y
+     * {@link NotificationService}, el componente {@link NotificationSequencer},
+     * la plantilla de transacciones, la tabla de rutas {@link RoutingTable} y el
+     * componente {@link PipelineMetrics}.
+     * 
+     * @param subscriptionService   servicio para gestionar las operaciones sobre
+     *                              las entidades {@link SubscriptionData}.
+     * @param notificationService   servicio para gestionar las notificaciones de
+     *                              subscripciones.
+     * @param notificationSequencer componente que procesa en orden las
+     *                              notificaciones de cada subscripción.
+     * @param transactionTemplate   plantilla para ejecutar el procesamiento en
+     *                              una transacción.
+     * @param routingTable          tabla en memoria con las rutas de los
+     *                              endpoints de notificación.
+     * @param pipelineMetrics       componente que registra las métricas de las
+     *                              etapas del procesamiento.
+     */
+    @Autowired
+    public NotificationIngestService(SubscriptionService subscriptionService, NotificationService notificationService,
+            NotificationSequencer notificationSequencer, TransactionTemplate transactionTemplate,
+            RoutingTable routingTable, PipelineMetrics pipelineMetrics) {
+        this.subscriptionService = subscriptionService;
+        this.notificationService = notificationService;
+        this.notificationSequencer = notificationSequencer;
+        this.transactionTemplate = transactionTemplate;
+        this.routingTable = routingTable;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Obtiene la ruta de un endpoint de notificación, consultando la tabla de
+     * rutas en memoria.
+     * 
+     * @param id identificador del endpoint de la notificación.
+     * @return la ruta del endpoint o null si no corresponde a ninguna
+     *         subscripción.
+     */
+    public Route getRoute(Long id) {
+        return routingTable.getRoute(id);
+    }
+
+    /**
+     * Indica si las notificaciones se procesan de forma asíncrona.
+     * 
+     * @return true si la ingesta es asíncrona, false en caso contrario.
+     */
+    public boolean isAsync() {
+        return "async".equalsIgnoreCase(ingestMode);
+    }
+
+    /**
+     * Procesa una notificación en el hilo actual, después de las notificaciones
+     * de la misma subscripción que se estén procesando.
+     * 
+     * @param id      identificador del endpoint de la notificación.
+     * @param message mensaje que contiene los detalles de la notificación.
+     */
+    public void process(Long id, String message) {
+        notificationSequencer.process(id, getTags(id), message, details -> process(id, details));
+    }
+
+    /**
+     * Encola una notificación para que sea procesada en segundo plano, en orden
+     * con las demás notificaciones de su subscripción.
+     * 
+     * @param id      identificador del endpoint de la notificación.
+     * @param message mensaje que contiene los detalles de la notificación.
+     * @throws RejectedExecutionException si la cola de notificaciones está llena.
+     */
+    public void enqueue(Long id, String message) {
+        notificationSequencer.submit(id, getTags(id), message, details -> process(id, details));
+    }
+
+    /**
+     * Procesa una notificación: obtiene los datos de la subscripción, procesa el
+     * mensaje y actualiza la subscripción con los detalles de la notificación. Todo
+     * ello se realiza en una única transacción, de modo que las señales guardadas
+     * en la bandeja de salida y el avance del contador de eventos se confirman
+     * juntos. Si el estado se guarda en segundo plano
+     * ({@link SubscriptionStateBuffer}), sólo se acumula al confirmarse la
+     * transacción. La subscripción se obtiene de sólo lectura y sólo se guardan su
+     * estado y su contador de eventos, que nunca retrocede.
+     * 
+     * @param id           identificador del endpoint de la notificación.
+     * @param notification detalles de la notificación.
+     * @return el último evento recibido de la subscripción.
+     */
+    private Long process(Long id, NotificationDetails notification) {
+        return transactionTemplate.execute(status -> {
+            // Obtiene los datos de la subscripción
+            Timer.Sample lookup = pipelineMetrics.start();
+            SubscriptionData subscription = subscriptionService.getReadOnlySubscriptionData(id);
+            Tags tags = pipelineMetrics.tags(subscription);
+            pipelineMetrics.stop(lookup, PipelineMetrics.STAGE_LOOKUP, tags);
+
+            // Procesa la notificación, obtiene los detalles de la subscripción
+            subscription = notificationService.processNotification(notification, subscription);
+
+            // Actualiza la subscripción con los detalles de la notificación
+            Timer.Sample save = pipelineMetrics.start();
+            subscriptionService.updateSubscriptionState(subscription);
+            pipelineMetrics.stop(save, PipelineMetrics.STAGE_SAVE, tags);
+            return subscription.getEvents();
+        });
+    }
+
+    /**
+     * Obtiene las etiquetas de las métricas de un endpoint de notificación.
+     */
+    private Tags getTags(Long id) {
+        Route route = routingTable.getRoute(id);
+        return route != null ? pipelineMetrics.tags(route) : Tags.empty();
+    }
+
+}
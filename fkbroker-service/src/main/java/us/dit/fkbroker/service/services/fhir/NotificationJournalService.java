@@ -0,0 +1,316 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import us.dit.fkbroker.service.conf.TransactionSupport;
+import us.dit.fkbroker.service.entities.db.NotificationJournal;
+import us.dit.fkbroker.service.entities.domain.Route;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.repositories.NotificationJournalRepository;
+import us.dit.fkbroker.service.services.kie.KieService;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
+
+/**
+ * Servicio que mantiene el diario de notificaciones: una entrada por cada
+ * evento recibido de una subscripción, con su número, la referencia del recurso
+ * notificado, la fecha, el origen y el resultado de su envío a los servidores
+ * KIE. No se guarda el mensaje completo, sólo los datos necesarios para
+ * consultar y reenviar los eventos.
+ * 
+ * Las entradas se acumulan en una cola acotada y se guardan mediante inserciones
+ * JDBC por lotes cada intervalo de volcado y al detener la aplicación, por lo
+ * que el registro no añade escrituras en la transacción de cada notificación.
+ * Si la cola está llena las entradas se descartan y se contabilizan en la
+ * métrica fkbroker.journal.dropped. Periódicamente se eliminan las entradas
+ * más antiguas que el periodo de retención y las que superan el número máximo
+ * de entradas, tomando como referencia el identificador más reciente.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Service
+public class NotificationJournalService {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String INSERT_SQL = "INSERT INTO NOTIFICATION_JOURNAL "
+            + "(ID_ENDPOINT, EVENT_NUMBER, REFERENCE, RECEIVED, SOURCE, OUTCOME) VALUES (?, ?, ?, ?, ?, ?)";
+
+    @Value("${fhir.notification.journal.enabled:true}")
+    private Boolean enabled;
+    @Value("${fhir.notification.journal.queue.capacity:10000}")
+    private Integer capacity;
+    @Value("${fhir.notification.journal.batch.size:500}")
+    private Integer batchSize;
+    @Value("${fhir.notification.journal.retention.days:7}")
+    private Integer retentionDays;
+    @Value("${fhir.notification.journal.max.entries:1000000}")
+    private Integer maxEntries;
+    @Value("${fhir.notification.journal.query.limit:1000}")
+    private Integer queryLimit;
+
+    private final NotificationJournalRepository notificationJournalRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final KieService kieService;
+    private final RoutingTable routingTable;
+    private final MeterRegistry registry;
+
+    private BlockingQueue<NotificationJournal> queue;
+    private Counter dropped;
+
+    /**
+     * Constructor que inyecta el repositorio
+     * {@link NotificationJournalRepository}, la plantilla JDBC, el servicio
+     * {@link KieService}, la tabla de rutas {@link RoutingTable} y el registro de
+     * métricas.
+     * 
+     * @param notificationJournalRepository repositorio JPA de la entidad
+     *                                      {@link NotificationJournal}.
+     * @param jdbcTemplate                  plantilla JDBC con la que se guardan
+     *                                      las entradas.
+     * @param kieService                    servicio con el que se reenvían los
+     *                                      eventos a los servidores KIE.
+     * @param routingTable                  tabla en memoria con las rutas de los
+     *                                      endpoints de notificación.
+     * @param registry                      registro en el que se publican las
+     *                                      entradas descartadas.
+     */
+    @Autowired
+    public NotificationJournalService(NotificationJournalRepository notificationJournalRepository,
+            JdbcTemplate jdbcTemplate, KieService kieService, RoutingTable routingTable, MeterRegistry registry) {
+        this.notificationJournalRepository = notificationJournalRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.kieService = kieService;
+        this.routingTable = routingTable;
+        this.registry = registry;
+    }
+
+    /**
+     * Crea la cola de entradas pendientes de guardar y registra la métrica de
+     * entradas descartadas.
+     */
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(capacity);
+        dropped = Counter.builder("fkbroker.journal.dropped")
+                .description("Entradas del diario descartadas por estar la cola llena").register(registry);
+    }
+
+    /**
+     * Indica si se registran las notificaciones en el diario.
+     * 
+     * @return true si el diario está activado, false en caso contrario.
+     */
+    public boolean isEnabled() {
+        return Boolean.TRUE.equals(enabled);
+    }
+
+    /**
+     * Registra en el diario los eventos de una subscripción con el resultado
+     * indicado.
+     * 
+     * @param id           identificador del endpoint de la subscripción.
+     * @param eventNumbers número de cada evento, o null si no tiene.
+     * @param references   referencia del recurso de cada evento.
+     * @param source       origen de los eventos.
+     * @param outcome      resultado del envío.
+     */
+    public void record(Long id, List<Long> eventNumbers, List<String> references, String source, String outcome) {
+        if (!isEnabled()) {
+            return;
+        }
+
+        Date received = new Date();
+        for (int i = 0; i < references.size(); i++) {
+            NotificationJournal entry = new NotificationJournal(id, eventNumbers.get(i), references.get(i), received,
+                    source, outcome);
+            if (!queue.offer(entry)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    /**
+     * Registra en el diario los eventos de una subscripción cuando finaliza su
+     * envío a los servidores KIE. Si las señales se guardan en la bandeja de
+     * salida, los eventos se registran como QUEUED al confirmarse la transacción
+     * en curso y no se registran si se deshace. En otro caso el resultado es
+     * FAILED si falla algún envío o no había ningún destino, y DELIVERED si no.
+     * 
+     * @param id           identificador del endpoint de la subscripción.
+     * @param eventNumbers número de cada evento, o null si no tiene.
+     * @param references   referencia del recurso de cada evento.
+     * @param source       origen de los eventos.
+     * @param delivery     futuro que se completa con el resultado de cada envío.
+     */
+    public void record(Long id, List<Long> eventNumbers, List<String> references, String source,
+            CompletableFuture<List<SignalResult>> delivery) {
+        if (!isEnabled() || references.isEmpty()) {
+            return;
+        }
+
+        if (kieService.isOutboxEnabled()) {
+            TransactionSupport.afterCommit(
+                    () -> record(id, eventNumbers, references, source, NotificationJournal.QUEUED));
+            return;
+        }
+
+        delivery.whenComplete((results, error) -> {
+            String outcome;
+            if (error != null || !SignalResult.isDelivered(results)) {
+                outcome = NotificationJournal.FAILED;
+            } else {
+                outcome = NotificationJournal.DELIVERED;
+            }
+            record(id, eventNumbers, references, source, outcome);
+        });
+    }
+
+    /**
+     * Obtiene las entradas del diario de un rango de eventos de una subscripción,
+     * ordenadas por número de evento, hasta el límite de consulta.
+     * 
+     * @param id                identificador del endpoint de la subscripción.
+     * @param eventsSinceNumber número del primer evento.
+     * @param eventsUntilNumber número del último evento.
+     * @return las entradas del rango.
+     */
+    public List<NotificationJournal> find(Long id, long eventsSinceNumber, long eventsUntilNumber) {
+        flush();
+        return notificationJournalRepository.findByEndpointAndEventNumberBetweenOrderByEventNumberAscIdAsc(id,
+                eventsSinceNumber, eventsUntilNumber, PageRequest.of(0, queryLimit));
+    }
+
+    /**
+     * Vuelve a enviar a los servidores KIE los eventos del diario de un rango de
+     * una subscripción, una vez por número de evento. Los eventos reenviados se
+     * registran con el origen REPLAY.
+     * 
+     * @param id                identificador del endpoint de la subscripción.
+     * @param eventsSinceNumber número del primer evento.
+     * @param eventsUntilNumber número del último evento.
+     * @return el número de eventos reenviados.
+     * @throws RuntimeException si el endpoint no existe.
+     */
+    public int replay(Long id, long eventsSinceNumber, long eventsUntilNumber) {
+        Route route = routingTable.getRoute(id);
+        if (route == null) {
+            throw new RuntimeException("Endpoint not found with id: " + id);
+        }
+
+        Map<Long, String> events = new LinkedHashMap<>();
+        for (NotificationJournal entry : find(id, eventsSinceNumber, eventsUntilNumber)) {
+            events.putIfAbsent(entry.getEventNumber(), entry.getReference());
+        }
+        if (events.isEmpty()) {
+            return 0;
+        }
+
+        logger.info("Se reenvían {} eventos del endpoint {} ({}-{})", events.size(), id, eventsSinceNumber,
+                eventsUntilNumber);
+        List<Long> eventNumbers = new ArrayList<>(events.keySet());
+        List<String> references = new ArrayList<>(events.values());
+        record(id, eventNumbers, references, NotificationJournal.SOURCE_REPLAY,
+                kieService.sendSignal(route.getIdTrigger(), references));
+        return events.size();
+    }
+
+    /**
+     * Guarda por lotes las entradas pendientes del diario.
+     */
+    @Scheduled(fixedDelayString = "${fhir.notification.journal.flush.interval:1000}")
+    public synchronized void flush() {
+        List<NotificationJournal> batch = new ArrayList<>(batchSize);
+        while (queue.drainTo(batch, batchSize) > 0) {
+            List<Object[]> args = new ArrayList<>(batch.size());
+            for (NotificationJournal entry : batch) {
+                args.add(new Object[] { entry.getEndpoint(), entry.getEventNumber(), entry.getReference(),
+                        new Timestamp(entry.getReceived().getTime()), entry.getSource(), entry.getOutcome() });
+            }
+            try {
+                jdbcTemplate.batchUpdate(INSERT_SQL, args);
+            } catch (Exception e) {
+                logger.error("Error guardando {} entradas del diario de notificaciones: {}", batch.size(),
+                        e.getMessage());
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Elimina las entradas anteriores al periodo de retención y las más antiguas
+     * que superan el número máximo de entradas. Las entradas sobrantes se obtienen
+     * a partir del identificador más reciente, que es creciente, sin recorrer la
+     * tabla; los huecos en los identificadores sólo hacen que se conserven algunas
+     * entradas menos.
+    @Scheduled(fixedRateString = "${fhir.notification.journal.purge.rate:3600000}", initialDelayString = "${fhir.notification.journal.purge.rate:3600000}")
+    public void purge() {
+        Date threshold = new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(retentionDays));
+        int expired = notificationJournalRepository.deleteReceivedBefore(threshold);
+
+        // Elimina las entradas anteriores a las últimas maxEntries
+        int exceeded = 0;
+        Long maxId = notificationJournalRepository.findMaxId();
+        if (maxId != null && maxId > maxEntries) {
+            exceeded = notificationJournalRepository.deleteUpTo(maxId - maxEntries);
+        }
+
+        if (expired > 0 || exceeded > 0) {
+            logger.info("Se eliminan {} entradas caducadas y {} entradas antiguas del diario de notificaciones",
+                    expired, exceeded);
+        }
+    }
+
+    /**
+     * Guarda las entradas pendientes al detener la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+}
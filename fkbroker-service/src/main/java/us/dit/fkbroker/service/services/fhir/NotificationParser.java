@@ -0,0 +1,333 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongPredicate;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.hl7.fhir.r5.model.SubscriptionStatus;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionStatusNotificationEventComponent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import ca.uhn.fhir.context.FhirContext;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+
+/**
+ * Componente que extrae de una notificación FHIR (Bundle de tipo
+ * subscription-notification) los datos que necesita el broker.
+ * 
+ * Por defecto utiliza un lector JSON en streaming que sólo recorre el
+ * SubscriptionStatus de la primera entrada del Bundle y salta el resto del
+ * documento sin construir objetos, lo que evita crear el árbol de recursos de
+ * las notificaciones full-resource. Si el mensaje no tiene la estructura
+ * esperada, se procesa con el parser completo de HAPI FHIR.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class NotificationParser {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    @Value("${fhir.notification.parser.streaming:true}")
+    private Boolean streaming;
+
+    private final FhirContext fhirContext;
+
+    /**
+     * Constructor que inyecta el contexto FHIR, utilizado para crear el parser
+     * completo de HAPI FHIR.
+     * 
+     * @param fhirContext contexto FHIR de la aplicación.
+     */
+    @Autowired
+    public NotificationParser(FhirContext fhirContext) {
+        this.fhirContext = fhirContext;
+    }
+
+    /**
+     * Obtiene los datos de una notificación.
+     * 
+     * @param message el JSON que contiene la notificación.
+     * @return los datos de la notificación.
+     * @throws RuntimeException si el mensaje no contiene un SubscriptionStatus.
+     */
+    public NotificationDetails parse(String message) {
+        if (streaming) {
+            NotificationDetails details = parseStreaming(message);
+            if (details != null) {
+                return details;
+            }
+            logger.debug("Notificación con estructura no esperada. Se procesa con el parser de HAPI FHIR.");
+        }
+        return parseHapi(message);
+    }
+
+    /**
+     * Obtiene los datos de una notificación con el lector JSON en streaming.
+     * 
+     * @param message el JSON que contiene la notificación.
+     * @return los datos de la notificación o null si el mensaje no tiene la
+     *         estructura esperada.
+     */
+    public NotificationDetails parseStreaming(String message) {
+        try (JsonParser parser = jsonFactory.createParser(message)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            String resourceType = null;
+            NotificationDetails details = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if ("resourceType".equals(field)) {
+                    resourceType = parser.getValueAsString();
+                } else if ("entry".equals(field) && token == JsonToken.START_ARRAY) {
+                    details = parseEntries(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            return "Bundle".equals(resourceType) ? details : null;
+        } catch (IOException | RuntimeException e) {
+            // Cualquier contenido inesperado (códigos desconocidos, tipos erróneos,
+            // JSON mal formado) se delega en el parser completo
+            return null;
+        }
+    }
+
+    /**
+     * Obtiene los datos de una notificación con el parser completo de HAPI FHIR.
+     * 
+     * @param message el JSON que contiene la notificación.
+     * @return los datos de la notificación.
+     * @throws RuntimeException si el mensaje no contiene un SubscriptionStatus.
+     */
+    public NotificationDetails parseHapi(String message) {
+        // Los parsers de HAPI FHIR no son seguros entre hilos, se crea uno por mensaje
+        Bundle bundle = fhirContext.newJsonParser().parseResource(Bundle.class, message);
+
+        // Comprueba que tenga SubscriptionStatus y lo extrae
+        if (bundle.getEntry().isEmpty() || !bundle.getEntryFirstRep().hasResource()
+                || bundle.getEntryFirstRep().getResource().getClass() != SubscriptionStatus.class) {
+            throw new RuntimeException("Mensaje incorrecto. Bundle sin SubscriptionStatus.");
+        }
+        SubscriptionStatus subscriptionStatus = (SubscriptionStatus) bundle.getEntryFirstRep().getResource();
+
+        List<String> references = new ArrayList<>();
+        List<Long> eventNumbers = new ArrayList<>();
+        for (SubscriptionStatusNotificationEventComponent event : subscriptionStatus.getNotificationEvent()) {
+            if (event.hasFocus() && event.getFocus().hasReference()) {
+                references.add(event.getFocus().getReference());
+                eventNumbers.add(event.hasEventNumber() ? event.getEventNumber() : null);
+            }
+        }
+
+        return new NotificationDetails(subscriptionStatus.getType(), subscriptionStatus.getStatus(),
+                subscriptionStatus.getEventsSinceSubscriptionStart(),
+                subscriptionStatus.getNotificationEventFirstRep().getEventNumber(), references, eventNumbers);
+    }
+
+    /**
+     * Obtiene el listado de referencias de recursos notificados que contiene un
+     * SubscriptionStatus.
+     * 
+     * @param subscriptionStatus recurso FHIR con la información del estado de la
+     *                           subscribción.
+     * @return el listado de recursos que contiene el SubscriptionStatus.
+     */
+    public List<String> getReferences(SubscriptionStatus subscriptionStatus) {
+        return getReferences(subscriptionStatus, eventNumber -> false);
+    }
+
+    /**
+     * Obtiene el listado de referencias de recursos notificados que contiene un
+     * SubscriptionStatus, descartando los eventos indicados.
+     * 
+     * @param subscriptionStatus recurso FHIR con la información del estado de la
+     *                           subscribción.
+     * @param skip               condición que indica, por su número, si un evento
+     *                           se debe descartar.
+     * @return el listado de recursos de los eventos no descartados.
+     */
+    public List<String> getReferences(SubscriptionStatus subscriptionStatus, LongPredicate skip) {
+        List<String> resources = new ArrayList<>();
+
+        for (SubscriptionStatusNotificationEventComponent event : subscriptionStatus.getNotificationEvent()) {
+            if (event.hasEventNumber() && skip.test(event.getEventNumber())) {
+                continue;
+            }
+            if (event.hasFocus() && event.getFocus().hasReference()) {
+                resources.add(event.getFocus().getReference());
+            }
+        }
+
+        return resources;
+    }
+
+    /**
+     * Recorre las entradas del Bundle. Sólo se procesa la primera, que debe
+     * contener el SubscriptionStatus; el resto se saltan sin construir objetos.
+     */
+    private NotificationDetails parseEntries(JsonParser parser) throws IOException {
+        NotificationDetails details = null;
+        boolean first = true;
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (first && parser.currentToken() == JsonToken.START_OBJECT) {
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken token = parser.nextToken();
+                    if ("resource".equals(field) && token == JsonToken.START_OBJECT) {
+                        details = parseSubscriptionStatus(parser);
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+            first = false;
+        }
+        return details;
+    }
+
+    /**
+     * Obtiene los datos de un SubscriptionStatus, devolviendo null si el recurso
+     * no es un SubscriptionStatus o le faltan el tipo o el estado.
+     */
+    private NotificationDetails parseSubscriptionStatus(JsonParser parser) throws IOException {
+        String resourceType = null;
+        SubscriptionNotificationType type = null;
+        SubscriptionStatusCodes status = null;
+        long eventsSinceSubscriptionStart = 0;
+        long firstEventNumber = 0;
+        boolean firstEvent = true;
+        List<String> references = new ArrayList<>();
+        List<Long> eventNumbers = new ArrayList<>();
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            switch (field) {
+            case "resourceType":
+                resourceType = parser.getValueAsString();
+                break;
+            case "type":
+                type = SubscriptionNotificationType.fromCode(parser.getValueAsString());
+                break;
+            case "status":
+                status = SubscriptionStatusCodes.fromCode(parser.getValueAsString());
+                break;
+            case "eventsSinceSubscriptionStart":
+                eventsSinceSubscriptionStart = readLong(parser, token);
+                break;
+            case "notificationEvent":
+                if (token != JsonToken.START_ARRAY) {
+                    throw new IOException("notificationEvent no es un array");
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    Long eventNumber = null;
+                    String reference = null;
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String eventField = parser.getCurrentName();
+                        JsonToken eventToken = parser.nextToken();
+                        if ("eventNumber".equals(eventField)) {
+                            eventNumber = readLong(parser, eventToken);
+                        } else if ("focus".equals(eventField) && eventToken == JsonToken.START_OBJECT) {
+                            reference = readReference(parser);
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                    if (reference != null) {
+                        references.add(reference);
+                        eventNumbers.add(eventNumber);
+                    }
+                    if (firstEvent) {
+                        firstEventNumber = eventNumber != null ? eventNumber : 0;
+                        firstEvent = false;
+                    }
+                }
+                if (parser.currentToken() != JsonToken.END_ARRAY) {
+                    throw new IOException("notificationEvent con elementos no válidos");
+                }
+                break;
+            default:
+                parser.skipChildren();
+            }
+        }
+
+        if (!"SubscriptionStatus".equals(resourceType) || type == null || status == null) {
+            return null;
+        }
+        return new NotificationDetails(type, status, eventsSinceSubscriptionStart, firstEventNumber, references,
+                eventNumbers);
+    }
+
+    /**
+     * Obtiene el campo reference de un objeto Reference.
+     */
+    private String readReference(JsonParser parser) throws IOException {
+        String reference = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            parser.nextToken();
+            if ("reference".equals(field)) {
+                reference = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return reference;
+    }
+
+    /**
+     * Lee un integer64, que en FHIR R5 se representa en JSON como cadena.
+     */
+    private long readLong(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_STRING) {
+            return Long.parseLong(parser.getText());
+        } else if (token == JsonToken.VALUE_NUMBER_INT) {
+            return parser.getLongValue();
+        }
+        throw new IOException("Valor numérico no válido");
+    }
+
+}
@@ -0,0 +1,356 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Componente que ordena el procesamiento de las notificaciones de cada
+ * subscripción.
+ * 
+ * Cada subscripción tiene su propia cola de notificaciones y como mucho una
+ * tarea en el ejecutor de notificaciones, de modo que las notificaciones de una
+ * misma subscripción se procesan de una en una y en orden, mientras que las de
+ * distintas subscripciones se procesan en paralelo.
+ * 
+ * Además, cada subscripción recuerda el último evento procesado. Una
+ * notificación cuyo primer evento no es el siguiente al último procesado, o un
+ * heartbeat que indica más eventos de los procesados, se retiene durante la
+ * ventana de reordenación a la espera de las notificaciones que faltan. Las
+ * notificaciones retenidas se procesan en orden de eventos en cuanto llegan las
+ * que faltan, o al vencer la ventana o llenarse el búfer de la subscripción, en
+ * cuyo caso se detecta la pérdida de eventos de la forma habitual.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class NotificationSequencer {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    @Value("${fhir.notification.ingest.queue.capacity:1000}")
+    private Integer capacity;
+    @Value("${fhir.notification.reorder.window:200}")
+    private Long reorderWindow;
+    @Value("${fhir.notification.reorder.size:32}")
+    private Integer reorderSize;
+
+    private final NotificationParser notificationParser;
+    private final PipelineMetrics pipelineMetrics;
+    private final Executor notificationExecutor;
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<Long, Sequence> sequences = new ConcurrentHashMap<>();
+    private final Set<Long> holding = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger held = new AtomicInteger();
+    private final AtomicLong arrivals = new AtomicLong();
+
+    /**
+     * Constructor que inyecta los componentes {@link NotificationParser} y
+     * {@link PipelineMetrics}, el ejecutor de notificaciones y el registro de
+     * métricas.
+     * 
+     * @param notificationParser   componente que extrae los datos de las
+     *                             notificaciones.
+     * @param pipelineMetrics      componente que registra las métricas de las
+     *                             etapas del procesamiento.
+     * @param notificationExecutor ejecutor acotado que procesa las notificaciones
+     *                             en modo asíncrono.
+     * @param registry             registro en el que se publica el número de
+     *                             notificaciones retenidas.
+     */
+    @Autowired
+    public NotificationSequencer(NotificationParser notificationParser, PipelineMetrics pipelineMetrics,
+            @Qualifier("notificationExecutor") Executor notificationExecutor, MeterRegistry registry) {
+        this.notificationParser = notificationParser;
+        this.pipelineMetrics = pipelineMetrics;
+        this.notificationExecutor = notificationExecutor;
+        this.registry = registry;
+    }
+
+    /**
+     * Registra la métrica con el número de notificaciones retenidas.
+     */
+    @PostConstruct
+    public void init() {
+        Gauge.builder("fkbroker.notification.reorder.held", held, AtomicInteger::get)
+                .description("Notificaciones retenidas a la espera de eventos anteriores").register(registry);
+    }
+
+    /**
+     * Procesa una notificación en el hilo actual, después de las notificaciones
+     * de la misma subscripción que se estén procesando. Se utiliza en la ingesta
+     * síncrona, por lo que no se retienen notificaciones.
+     * 
+     * @param id        identificador del endpoint de la notificación.
+     * @param tags      etiquetas de las métricas de la subscripción.
+     * @param message   mensaje que contiene los detalles de la notificación.
+     * @param processor función que procesa la notificación y devuelve el último
+     *                  evento de la subscripción.
+     */
+    public void process(Long id, Tags tags, String message, Function<NotificationDetails, Long> processor) {
+        NotificationDetails details = parse(message, tags);
+        Sequence sequence = sequences.computeIfAbsent(id, key -> new Sequence());
+        synchronized (sequence.processing) {
+            Long events = processor.apply(details);
+            synchronized (sequence) {
+                sequence.advance(events);
+            }
+        }
+    }
+
+    /**
+     * Encola una notificación en la cola de su subscripción para que sea
+     * procesada en segundo plano. Si la subscripción no tiene ninguna tarea en
+     * curso se programa una en el ejecutor de notificaciones.
+     * 
+     * @param id        identificador del endpoint de la notificación.
+     * @param tags      etiquetas de las métricas de la subscripción.
+     * @param message   mensaje que contiene los detalles de la notificación.
+     * @param processor función que procesa la notificación y devuelve el último
+     *                  evento de la subscripción.
+     * @throws RejectedExecutionException si se ha alcanzado el número máximo de
+     *                                    notificaciones pendientes.
+     */
+    public void submit(Long id, Tags tags, String message, Function<NotificationDetails, Long> processor) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Cola de notificaciones llena");
+        }
+
+        Pending notification = new Pending(message, tags, processor, arrivals.incrementAndGet());
+        Sequence sequence = sequences.computeIfAbsent(id, key -> new Sequence());
+        synchronized (sequence) {
+            sequence.queue.add(notification);
+            if (sequence.running) {
+                return;
+            }
+            sequence.running = true;
+        }
+
+        try {
+            notificationExecutor.execute(() -> drain(id, sequence));
+        } catch (RejectedExecutionException e) {
+            synchronized (sequence) {
+                sequence.queue.remove(notification);
+                sequence.running = false;
+            }
+            pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Procesa las notificaciones retenidas cuya ventana de reordenación ha
+     * vencido.
+     */
+    @Scheduled(fixedDelayString = "${fhir.notification.reorder.check.rate:100}")
+    public void flushExpired() {
+        long now = System.currentTimeMillis();
+        for (Long id : holding) {
+            Sequence sequence = sequences.get(id);
+            if (sequence == null) {
+                holding.remove(id);
+                continue;
+            }
+            synchronized (sequence) {
+                if (sequence.running || sequence.held.isEmpty() || !sequence.isExpired(now, reorderWindow)) {
+                    continue;
+                }
+                sequence.running = true;
+            }
+
+            try {
+                notificationExecutor.execute(() -> drain(id, sequence));
+            } catch (RejectedExecutionException e) {
+                // Se vuelve a intentar en la siguiente comprobación
+                synchronized (sequence) {
+                    sequence.running = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Procesa las notificaciones pendientes de una subscripción hasta que no
+     * quedan más o sólo quedan notificaciones retenidas dentro de su ventana.
+     */
+    private void drain(Long id, Sequence sequence) {
+        while (true) {
+            Pending notification;
+            synchronized (sequence) {
+                Pending first = sequence.held.peek();
+                if (first != null && (sequence.isReady(first) || sequence.held.size() > reorderSize
+                        || sequence.isExpired(System.currentTimeMillis(), reorderWindow))) {
+                    notification = sequence.held.poll();
+                    held.decrementAndGet();
+                    if (sequence.held.isEmpty()) {
+                        holding.remove(id);
+                    }
+                } else if (!sequence.queue.isEmpty()) {
+                    notification = sequence.queue.poll();
+                } else {
+                    sequence.running = false;
+                    return;
+                }
+            }
+
+            try {
+                if (notification.details == null) {
+                    notification.details = parse(notification.message, notification.tags);
+                    notification.required = getRequiredEvent(notification.details);
+
+                    // Retiene la notificación si faltan eventos anteriores
+                    synchronized (sequence) {
+                        if (reorderWindow > 0 && !sequence.isReady(notification)) {
+                            logger.debug("Se retiene una notificación del endpoint {} a la espera del evento {}", id,
+                                    notification.required);
+                            notification.heldAt = System.currentTimeMillis();
+                            sequence.held.add(notification);
+                            held.incrementAndGet();
+                            holding.add(id);
+                            continue;
+                        }
+                    }
+                }
+
+                Long events = notification.processor.apply(notification.details);
+                synchronized (sequence) {
+                    sequence.advance(events);
+                }
+            } catch (Exception e) {
+                logger.error("Error procesando la notificación del endpoint {}", id, e);
+            }
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * Obtiene el mensaje de notificación, registrando el tiempo de análisis.
+     */
+    private NotificationDetails parse(String message, Tags tags) {
+        Timer.Sample parse = pipelineMetrics.start();
+        try {
+            return notificationParser.parse(message);
+        } finally {
+            pipelineMetrics.stop(parse, PipelineMetrics.STAGE_PARSE, tags);
+        }
+    }
+
+    /**
+     * Obtiene el último evento que debe haberse procesado antes de una
+     * notificación: el anterior a su primer evento en las notificaciones de
+     * eventos, y el total de eventos enviados en el resto.
+     */
+    private static Long getRequiredEvent(NotificationDetails details) {
+        if (details.getType() == SubscriptionNotificationType.EVENTNOTIFICATION) {
+            return details.getFirstEventNumber() != null ? details.getFirstEventNumber() - 1 : null;
+        }
+        return details.getEventsSinceSubscriptionStart();
+    }
+
+    /**
+     * Estado de las notificaciones de una subscripción.
+     */
+    private static final class Sequence {
+
+        private final Object processing = new Object();
+        private final Deque<Pending> queue = new ArrayDeque<>();
+        private final PriorityQueue<Pending> held = new PriorityQueue<>(
+                Comparator.comparingLong((Pending notification) -> notification.required)
+                        .thenComparingLong(notification -> notification.arrival));
+        private Long lastEvent;
+        private boolean running;
+
+        private boolean isReady(Pending notification) {
+            return lastEvent == null || notification.required == null || notification.required <= lastEvent;
+        }
+
+        private boolean isExpired(long now, long window) {
+            for (Pending notification : held) {
+                if (now - notification.heldAt >= window) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void advance(Long events) {
+            if (events != null && (lastEvent == null || events > lastEvent)) {
+                lastEvent = events;
+            }
+        }
+    }
+
+    /**
+     * Notificación pendiente de procesar.
+     */
+    private static final class Pending {
+
+        private final String message;
+        private final Tags tags;
+        private final Function<NotificationDetails, Long> processor;
+        private final long arrival;
+        private NotificationDetails details;
+        private Long required;
+        private long heldAt;
+
+        private Pending(String message, Tags tags, Function<NotificationDetails, Long> processor, long arrival) {
+            this.message = message;
+            this.tags = tags;
+            this.processor = processor;
+            this.arrival = arrival;
+        }
+    }
+
+}
@@ -21,26 +21,37 @@
 package us.dit.fkbroker.service.services.fhir;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import org.hl7.fhir.r5.model.Bundle;
 import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
 import org.hl7.fhir.r5.model.Subscription;
 import org.hl7.fhir.r5.model.SubscriptionStatus;
 import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
-import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionStatusNotificationEventComponent;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import ca.uhn.fhir.parser.IParser;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.conf.TransactionSupport;
 import us.dit.fkbroker.service.entities.db.FhirServer;
+import us.dit.fkbroker.service.entities.db.NotificationJournal;
 import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
 import us.dit.fkbroker.service.services.kie.KieService;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
 
 /**
  * Servicio que procesa los distintos tipos de notificaciones FHIR
@@ -55,27 +66,58 @@ public class NotificationService {
 
     private static final Logger logger = LogManager.getLogger(FhirService.class);
 
+    @Value("${fhir.subscription.status.batch.size:50}")
+    private Integer statusBatchSize;
+
     private final FhirService fhirService;
     private final KieService kieService;
-    private final IParser jsonParser;
+    private final NotificationParser notificationParser;
+    private final PipelineMetrics pipelineMetrics;
+    private final RecoveryCoordinator recoveryCoordinator;
+    private final SignalDeduplicator signalDeduplicator;
+    private final NotificationJournalService notificationJournalService;
+    private final Executor statusExecutor;
 
     private final Set<SubscriptionNotificationType> validTypes;
 
     /**
      * Constructor que inyecta los servicios {@link FhirService} y
-     * {@link KieService}.
+     * {@link KieService}, los componentes {@link NotificationParser},
+     * {@link PipelineMetrics}, {@link RecoveryCoordinator} y
+     * {@link SignalDeduplicator}, el servicio {@link NotificationJournalService}
+     * y el ejecutor de reparación del estado de las subscripciones.
      * 
-     * @param fhirService servicio para gestionar operaciones que se realizan sobre
-     *                    elementos FHIR.
-     * @param kieService  servicio para gestionar las operaciones sobre los
-     *                    servidores y las señales KIE.
-     * @param jsonParser
+     * @param fhirService                servicio para gestionar operaciones que se
+     *                                   realizan sobre elementos FHIR.
+     * @param kieService                 servicio para gestionar las operaciones
+     *                                   sobre los servidores y las señales KIE.
+     * @param notificationParser         componente que extrae los datos de las
+     *                                   notificaciones.
+     * @param pipelineMetrics            componente que registra las métricas de las
+     *                                   etapas del procesamiento.
+     * @param recoveryCoordinator        componente que coordina la recuperación de
+     *                                   los eventos perdidos de cada subscripción.
+     * @param signalDeduplicator         componente que descarta los eventos ya
+     *                                   señalizados.
+     * @param notificationJournalService servicio que registra los eventos en el
+     *                                   diario de notificaciones.
+     * @param statusExecutor             ejecutor acotado que vuelve a activar las
+     *                                   subscripciones en estado de error.
      */
     @Autowired
-    public NotificationService(FhirService fhirService, KieService kieService, IParser jsonParser) {
+    public NotificationService(FhirService fhirService, KieService kieService,
+            NotificationParser notificationParser, PipelineMetrics pipelineMetrics,
+            RecoveryCoordinator recoveryCoordinator, SignalDeduplicator signalDeduplicator,
+            NotificationJournalService notificationJournalService,
+            @Qualifier("statusExecutor") Executor statusExecutor) {
         this.fhirService = fhirService;
         this.kieService = kieService;
-        this.jsonParser = jsonParser;
+        this.notificationParser = notificationParser;
+        this.pipelineMetrics = pipelineMetrics;
+        this.recoveryCoordinator = recoveryCoordinator;
+        this.signalDeduplicator = signalDeduplicator;
+        this.notificationJournalService = notificationJournalService;
+        this.statusExecutor = statusExecutor;
         this.validTypes = EnumSet.of(SubscriptionNotificationType.EVENTNOTIFICATION,
                 SubscriptionNotificationType.HEARTBEAT, SubscriptionNotificationType.HANDSHAKE);
     }
@@ -87,34 +129,42 @@ public class NotificationService {
      * @return la URL completa del recurso de notificación.
      */
     public SubscriptionData processNotification(String mesagge, SubscriptionData subscriptionData) {
-        Long idTrigger = subscriptionData.getTopic().getTrigger().getId();
-        FhirServer server = subscriptionData.getServer();
+        // Obtiene los datos del SubscriptionStatus de la notificación recibida
+        Timer.Sample parse = pipelineMetrics.start();
+        NotificationDetails notification = notificationParser.parse(mesagge);
+        pipelineMetrics.stop(parse, PipelineMetrics.STAGE_PARSE, pipelineMetrics.tags(subscriptionData));
 
-        // Obtiene el Bundle de la notificación recibida
-        Bundle bundle = jsonParser.parseResource(Bundle.class, mesagge);
+        return processNotification(notification, subscriptionData);
+    }
 
-        // Comprueba que tenga SubscriptionStatus y lo extrae
-        SubscriptionStatus subscriptionStatus;
-        if (bundle.getEntry().isEmpty() || !bundle.getEntryFirstRep().hasResource()
-                || bundle.getEntryFirstRep().getResource().getClass() != SubscriptionStatus.class) {
-            throw new RuntimeException("Mensaje incorrecto. Bundle sin SubscriptionStatus.");
-        } else {
-            subscriptionStatus = (SubscriptionStatus) bundle.getEntryFirstRep().getResource();
-        }
+    /**
+     * Procesa los detalles de una notificación ya analizada: actualiza el estado
+     * de la subscripción, detecta los eventos perdidos y envía las referencias de
+     * los recursos notificados. El contador de eventos de la subscripción nunca
+     * retrocede, aunque la notificación sea anterior a otra ya procesada.
+     * 
+     * @param notification     detalles de la notificación.
+     * @param subscriptionData datos de la subscripción.
+     * @return los datos de la subscripción actualizados.
+     */
+    public SubscriptionData processNotification(NotificationDetails notification,
+            SubscriptionData subscriptionData) {
+        Long idTrigger = subscriptionData.getTopic().getTrigger().getId();
+        FhirServer server = subscriptionData.getServer();
+        Tags tags = pipelineMetrics.tags(subscriptionData);
 
         // Comprueba que sea un tipo de notificación válido, sino lanza una excepción
-        SubscriptionNotificationType notificationType = subscriptionStatus.getType();
+        SubscriptionNotificationType notificationType = notification.getType();
         if (!validTypes.contains(notificationType)) {
             throw new RuntimeException("Invalid NotificationType");
         }
 
         // Comprueba el estado de la subscripción, actualizandolo si es necesario
-        SubscriptionStatusCodes status = subscriptionStatus.getStatus();
+        SubscriptionStatusCodes status = notification.getStatus();
         if (status == SubscriptionStatusCodes.ERROR) {
             // Si detecta un error, vuelve a activar la subscripción y actualiza el estado
             logger.warn("Se detecta estado de ERROR. Se inicia proceso de actualización.");
-            CompletableFuture.runAsync(
-                    () -> fhirService.updateSubscriptionStatus(server.getUrl(), subscriptionData.getIdSubscription()));
+            submitStatusRepair(server, subscriptionData, tags);
             subscriptionData.setStatus(SubscriptionStatusCodes.REQUESTED.toCode());
         } else {
             // Si no, guarda el estado de la notificación en la subscripción
@@ -125,40 +175,95 @@ public class NotificationService {
         if (server.getQueryOperations()) {
             // Comprueba si se trata de una notificación de eventos
             if (notificationType == SubscriptionNotificationType.EVENTNOTIFICATION) {
+                // Registra los eventos recibidos para no recuperarlos si están pendientes, una
+                // vez confirmada la transacción para no perderlos si el procesamiento falla
+                Long id = subscriptionData.getId();
+                long firstEventNumber = notification.getFirstEventNumber();
+                long lastEventNumber = notification.getEventsSinceSubscriptionStart();
+                TransactionSupport.afterCommit(
+                        () -> recoveryCoordinator.markReceived(id, firstEventNumber, lastEventNumber));
+
                 // En este caso recupera el primer evento recibido y el esperado
-                Long receivedEvent = subscriptionStatus.getNotificationEventFirstRep().getEventNumber();
+                Long receivedEvent = notification.getFirstEventNumber();
                 Long expectedEvent = subscriptionData.getEvents() + 1;
                 if (receivedEvent > expectedEvent) {
-                    logger.warn("Se detectan eventos perdidos. Se inicia proceso de recuperación.");
-                    CompletableFuture.runAsync(() -> getAndSendLostEvents(server.getUrl(),
-                            subscriptionData.getIdSubscription(), expectedEvent, receivedEvent - 1, idTrigger));
+                    submitRecovery(subscriptionData, expectedEvent, receivedEvent - 1, tags);
                 }
             } else {
                 // Si no se trata de una notificación de eventos, recupera el último evento
                 // enviado y el último evento recibido
-                Long lastEventSent = subscriptionStatus.getEventsSinceSubscriptionStart();
+                Long lastEventSent = notification.getEventsSinceSubscriptionStart();
                 Long lastEventReceived = subscriptionData.getEvents();
                 if (lastEventSent > lastEventReceived) {
-                    logger.warn("Se detectan eventos perdidos. Se inicia proceso de recuperación.");
-                    CompletableFuture.runAsync(() -> getAndSendLostEvents(server.getUrl(),
-                            subscriptionData.getIdSubscription(), lastEventReceived + 1, lastEventSent, idTrigger));
+                    submitRecovery(subscriptionData, lastEventReceived + 1, lastEventSent, tags);
                 }
             }
         }
 
         // Si se trata de una notificación de eventos envía las referencia de los
-        // recursos notificados mediante señales a los servidores KIE
+        // recursos notificados mediante señales a los servidores KIE. El envío se
+        // realiza en los ejecutores de KieSignalDispatcher, por lo que no bloquea.
+        // Se descartan los eventos que ya se han señalizado y todos los eventos se
+        // registran en el diario
         if (notificationType == SubscriptionNotificationType.EVENTNOTIFICATION) {
-            CompletableFuture
-                    .runAsync(() -> kieService.sendSignal(idTrigger, getReferenceNotifications(subscriptionStatus)));
+            sendSignals(subscriptionData.getId(), idTrigger, notification, tags);
         }
 
-        // Guarda el último evento recibido
-        subscriptionData.setEvents(subscriptionStatus.getEventsSinceSubscriptionStart());
+        // Guarda el último evento recibido, salvo que ya se haya procesado uno
+        // posterior
+        Long events = notification.getEventsSinceSubscriptionStart();
+        if (events != null && (subscriptionData.getEvents() == null || events > subscriptionData.getEvents())) {
+            subscriptionData.setEvents(events);
+        }
 
         return subscriptionData;
     }
 
+    /**
+     * Envía a los servidores KIE las referencias de los eventos de una
+     * notificación que no se han señalizado, y registra en el diario los eventos
+     * enviados y los descartados. Los eventos sin número se envían siempre.
+     * 
+     * @param id           identificador del endpoint de la subscripción.
+     * @param idTrigger    identificador del trigger de la subscripción.
+     * @param notification detalles de la notificación.
+     * @param tags         etiquetas de las métricas de la subscripción.
+     */
+    private void sendSignals(Long id, Long idTrigger, NotificationDetails notification, Tags tags) {
+        List<String> references = new ArrayList<>();
+        List<Long> eventNumbers = new ArrayList<>();
+        List<String> duplicates = new ArrayList<>();
+        List<Long> duplicateNumbers = new ArrayList<>();
+        for (int i = 0; i < notification.getReferences().size(); i++) {
+            String reference = notification.getReferences().get(i);
+            Long eventNumber = notification.getEventNumbers().get(i);
+            if (eventNumber == null || signalDeduplicator.markSignalled(id, eventNumber, tags)) {
+                references.add(reference);
+                eventNumbers.add(eventNumber);
+            } else {
+                duplicates.add(reference);
+                duplicateNumbers.add(eventNumber);
+            }
+        }
+        if (!duplicates.isEmpty()) {
+            logger.info("Se descartan {} eventos ya señalizados del endpoint {}", duplicates.size(), id);
+        }
+
+        CompletableFuture<List<SignalResult>> delivery;
+        try {
+            delivery = kieService.sendSignal(idTrigger, references);
+        } catch (RuntimeException e) {
+            signalDeduplicator.release(id, eventNumbers);
+            throw e;
+        }
+        signalDeduplicator.settle(id, eventNumbers, kieService.isOutboxEnabled(), delivery);
+
+        notificationJournalService.record(id, duplicateNumbers, duplicates, NotificationJournal.SOURCE_NOTIFICATION,
+                NotificationJournal.DUPLICATE);
+        notificationJournalService.record(id, eventNumbers, references, NotificationJournal.SOURCE_NOTIFICATION,
+                delivery);
+    }
+
     /**
      * Actualiza los datos de una subscripción en la base de datos comprobando su
      * estado actual en el servidor FHIR. Si el servidor tiene activadas las
@@ -169,88 +274,185 @@ public class NotificationService {
      * @param subscriptionData datos de la subscripción a actualizar.
      */
     public SubscriptionData updateSubscriptionStatus(FhirServer server, SubscriptionData subscriptionData) {
-        SubscriptionStatusCodes status;
+        return updateSubscriptionStatus(server, Collections.singletonList(subscriptionData)).stream().findFirst()
+                .orElseThrow(() -> new RuntimeException(
+                        "No se ha podido actualizar la subscripción " + subscriptionData.getIdSubscription()));
+    }
 
-        // Comprueba si tiene las operaciones $status y $events activadas
-        if (server.getQueryOperations()) {
-            // Obtiene el estado de la subscripción
-            SubscriptionStatus subscriptionStatus = fhirService.getStatus(server.getUrl(),
-                    subscriptionData.getIdSubscription());
-            status = subscriptionStatus.getStatus();
-
-            // Comprueba que no se haya perdido ningún evento y, en caso de detectar
-            // perdida, recupera estos eventos y se notifica al servidor KIE correspondiente
-            Long lastEventSent = subscriptionStatus.getEventsSinceSubscriptionStart();
-            Long lastEventReceived = subscriptionData.getEvents();
-            Long idTrigger = subscriptionData.getTopic().getTrigger().getId();
-            if (lastEventSent > lastEventReceived) {
-                logger.warn("Se detectan eventos perdidos. Se inicia proceso de recuperación.");
-                CompletableFuture.runAsync(() -> getAndSendLostEvents(server.getUrl(),
-                        subscriptionData.getIdSubscription(), lastEventReceived + 1, lastEventSent, idTrigger));
+    /**
+     * Actualiza los datos de varias subscripciones de un mismo servidor FHIR
+     * comprobando su estado actual. El estado se obtiene en lotes mediante
+     * Subscription/$status?id=... si el servidor tiene activadas las operaciones
+     * $status y $events, o mediante la búsqueda Subscription?_id=... en caso
+     * contrario. Las subscripciones que no se obtienen en lote, por ejemplo si el
+     * servidor no soporta la operación de tipo, se consultan de una en una. La
+     * consulta en lote se registra como la etapa status_fetch del servidor y la
+     * actualización de cada subscripción como su etapa de estado.
+     * 
+     * @param server            información del servidor FHIR.
+     * @param subscriptionDatas datos de las subscripciones a actualizar.
+     * @return las subscripciones actualizadas. Las que no se han podido
+     *         actualizar no se incluyen.
+     */
+    public List<SubscriptionData> updateSubscriptionStatus(FhirServer server,
+            List<SubscriptionData> subscriptionDatas) {
+        List<String> ids = subscriptionDatas.stream().map(SubscriptionData::getIdSubscription)
+                .collect(Collectors.toList());
+
+        // Obtiene el estado de las subscripciones en lotes
+        Map<String, SubscriptionStatus> statuses = Collections.emptyMap();
+        Map<String, Subscription> subscriptions = Collections.emptyMap();
+        Timer.Sample fetch = pipelineMetrics.start();
+        try {
+            if (server.getQueryOperations()) {
+                statuses = fhirService.getStatuses(server.getUrl(), ids, statusBatchSize);
+            } else {
+                subscriptions = fhirService.getSubscriptions(server.getUrl(), ids, statusBatchSize);
             }
+        } catch (Exception e) {
+            logger.warn("Error obteniendo en lote el estado de las subscripciones del servidor {}: {}",
+                    server.getId(), e.getMessage());
+        } finally {
+            pipelineMetrics.stop(fetch, PipelineMetrics.STAGE_STATUS_FETCH, pipelineMetrics.tags(server));
+        }
 
-            subscriptionData.setEvents(lastEventSent);
-        } else {
-            // Obtiene el estado de la subscripción
-            Subscription subscription = fhirService.getSubscription(server.getUrl(),
-                    subscriptionData.getIdSubscription());
-            status = subscription.getStatus();
+        List<SubscriptionData> updated = new ArrayList<>();
+        for (SubscriptionData subscriptionData : subscriptionDatas) {
+            String id = subscriptionData.getIdSubscription();
+            Tags tags = pipelineMetrics.tags(subscriptionData);
+            Timer.Sample sample = pipelineMetrics.start();
+            try {
+                if (server.getQueryOperations()) {
+                    SubscriptionStatus subscriptionStatus = statuses.get(id);
+                    if (subscriptionStatus == null) {
+                        subscriptionStatus = fhirService.getStatus(server.getUrl(), id);
+                    }
+                    applyStatus(server, subscriptionData, subscriptionStatus, tags);
+                } else {
+                    Subscription subscription = subscriptions.get(id);
+                    if (subscription == null) {
+                        subscription = fhirService.getSubscription(server.getUrl(), id);
+                    }
+                    applyStatus(server, subscriptionData, subscription.getStatus(), tags);
+                }
+                updated.add(subscriptionData);
+            } catch (Exception e) {
+                logger.warn("No se ha podido obtener el estado de la subscripción {} del servidor {}: {}", id,
+                        server.getId(), e.getMessage());
+            } finally {
+                pipelineMetrics.stop(sample, PipelineMetrics.STAGE_STATUS, tags);
+            }
         }
+        return updated;
+    }
 
-        // Comprueba el estado de la subscripción, actualizandolo si es necesario
+    /**
+     * Obtiene el tamaño de lote utilizado al consultar el estado de varias
+     * subscripciones.
+     * 
+     * @return el número máximo de subscripciones por petición.
+     */
+    public int getStatusBatchSize() {
+        return statusBatchSize;
+    }
+
+    /**
+     * Aplica a una subscripción el estado obtenido mediante $status, comprobando
+     * que no se haya perdido ningún evento y, en caso de detectar pérdida,
+     * programando su recuperación para notificar al servidor KIE correspondiente.
+     * 
+     * @param server             información del servidor FHIR.
+     * @param subscriptionData   datos de la subscripción.
+     * @param subscriptionStatus estado de la subscripción en el servidor FHIR.
+     * @param tags               etiquetas de las métricas de la subscripción.
+     */
+    private void applyStatus(FhirServer server, SubscriptionData subscriptionData,
+            SubscriptionStatus subscriptionStatus, Tags tags) {
+        Long lastEventSent = subscriptionStatus.getEventsSinceSubscriptionStart();
+        Long lastEventReceived = subscriptionData.getEvents();
+        if (lastEventSent > lastEventReceived) {
+            submitRecovery(subscriptionData, lastEventReceived + 1, lastEventSent, tags);
+        }
+
+        subscriptionData.setEvents(lastEventSent);
+        applyStatus(server, subscriptionData, subscriptionStatus.getStatus(), tags);
+    }
+
+    /**
+     * Aplica a una subscripción su estado en el servidor FHIR. Si detecta un
+     * error, programa la reactivación de la subscripción.
+     * 
+     * @param server           información del servidor FHIR.
+     * @param subscriptionData datos de la subscripción.
+     * @param status           estado de la subscripción en el servidor FHIR.
+     * @param tags             etiquetas de las métricas de la subscripción.
+     */
+    private void applyStatus(FhirServer server, SubscriptionData subscriptionData, SubscriptionStatusCodes status,
+            Tags tags) {
         if (status == SubscriptionStatusCodes.ERROR) {
             // Si detecta un error, vuelve a activar la subscripción y actualiza el estado
             logger.warn("Se detecta estado de ERROR. Se inicia proceso de actualización.");
-            CompletableFuture.runAsync(
-                    () -> fhirService.updateSubscriptionStatus(server.getUrl(), subscriptionData.getIdSubscription()));
+            submitStatusRepair(server, subscriptionData, tags);
             subscriptionData.setStatus(SubscriptionStatusCodes.REQUESTED.toCode());
         } else {
             // Si no, guarda el estado de la notificación en la subscripción
             subscriptionData.setStatus(status.toCode());
         }
-
-        return subscriptionData;
     }
 
     /**
-     * Obtiene el listado de referencias de recursos notificados que contiene un
-     * SubscriptionStatus.
+     * Solicita al coordinador la recuperación de los eventos perdidos de una
+     * subscripción. El rango pendiente se guarda en la transacción en curso y la
+     * recuperación se programa al confirmarla.
      * 
-     * @param subscriptionStatus recurso FHIR con la información del estado de la
-     *                           subscribción.
-     * @return el listado de recursos que contiene el SubscriptionStatus.
+     * @param subscriptionData  datos de la subscripción.
+     * @param eventsSinceNumber número del primer evento perdido.
+     * @param eventsUntilNumber número del último evento perdido.
+     * @param tags              etiquetas de las métricas de la subscripción.
      */
-    private List<String> getReferenceNotifications(SubscriptionStatus subscriptionStatus) {
-        List<String> resources = new ArrayList<>();
+    private void submitRecovery(SubscriptionData subscriptionData, Long eventsSinceNumber, Long eventsUntilNumber,
+            Tags tags) {
+        logger.warn("Se detectan eventos perdidos. Se inicia proceso de recuperación.");
+        pipelineMetrics.countLostEvents(tags, eventsUntilNumber - eventsSinceNumber + 1);
+        recoveryCoordinator.recover(subscriptionData, eventsSinceNumber, eventsUntilNumber, tags);
+    }
 
-        for (SubscriptionStatusNotificationEventComponent event : subscriptionStatus.getNotificationEvent()) {
-            if (event.hasFocus() && event.getFocus().hasReference()) {
-                resources.add(event.getFocus().getReference());
-            }
+    /**
+     * Programa la reactivación de una subscripción en estado de error en el
+     * ejecutor de reparación de estado. Si su cola está llena la reactivación se
+     * pospone hasta que se vuelva a detectar el error.
+     * 
+     * @param server           información del servidor FHIR.
+     * @param subscriptionData datos de la subscripción.
+     * @param tags             etiquetas de las métricas de la subscripción.
+     */
+    private void submitStatusRepair(FhirServer server, SubscriptionData subscriptionData, Tags tags) {
+        try {
+            statusExecutor.execute(() -> repairSubscriptionStatus(server, subscriptionData, tags));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cola de reparación llena. Se pospone la reactivación de la subscripción {}",
+                    subscriptionData.getIdSubscription());
         }
-
-        return resources;
     }
 
     /**
-     * Obtiene el listado de referencias de recursos notificados que contiene un
-     * SubscriptionStatus.
+     * Vuelve a activar en el servidor FHIR una subscripción en estado de error,
+     * registrando la duración como parte de la etapa de estado.
      * 
-     * @param urlServer         URL del servidor FHIR.
-     * @param idSubscription    identificador de la subscripción FHIR.
-     * @param eventsSinceNumber número del primer evento perdido.
-     * @param eventsUntilNumber número del último evento perdido.
-     * @param idTrigger         identificador del trigger.
+     * @param server           información del servidor FHIR.
+     * @param subscriptionData datos de la subscripción.
+     * @param tags             etiquetas de las métricas de la subscripción.
      */
-    private void getAndSendLostEvents(String urlServer, String idSubscription, Long eventsSinceNumber,
-            Long eventsUntilNumber, Long idTrigger) {
-        // Recupera los eventos perdidos
-        SubscriptionStatus lostEvents = fhirService.getLostEvents(urlServer, idSubscription, eventsSinceNumber,
-                eventsUntilNumber);
-
-        // Envía las referencia de los recursos notificados mediante señales a los
-        // servidores KIE configurados.
-        kieService.sendSignal(idTrigger, getReferenceNotifications(lostEvents));
+    private void repairSubscriptionStatus(FhirServer server, SubscriptionData subscriptionData, Tags tags) {
+        Timer.Sample sample = pipelineMetrics.start();
+        try {
+            fhirService.updateSubscriptionStatus(server.getUrl(), subscriptionData.getIdSubscription());
+        } catch (Exception e) {
+            logger.error("Error reactivando la subscripción {}: {}", subscriptionData.getIdSubscription(),
+                    e.getMessage());
+        } finally {
+            pipelineMetrics.stop(sample, PipelineMetrics.STAGE_STATUS, tags);
+        }
     }
 
 }
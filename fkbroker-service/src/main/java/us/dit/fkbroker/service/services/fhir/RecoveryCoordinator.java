@@ -0,0 +1,561 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.hl7.fhir.r5.model.SubscriptionStatus;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionStatusNotificationEventComponent;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.TaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.conf.TransactionSupport;
+import us.dit.fkbroker.service.entities.db.NotificationJournal;
+import us.dit.fkbroker.service.entities.db.RecoveryRange;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.Route;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.repositories.RecoveryRangeRepository;
+import us.dit.fkbroker.service.services.kie.KieService;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Componente que coordina la recuperación de los eventos perdidos de las
+ * subscripciones.
+ * 
+ * Cada subscripción con eventos pendientes de recuperar tiene un conjunto de
+ * intervalos de eventos perdidos, en el que se unen los rangos solapados o
+ * contiguos, y un conjunto de intervalos de eventos recibidos mediante
+ * notificaciones mientras la recuperación está pendiente. Por cada subscripción
+ * hay como mucho una tarea en el ejecutor de recuperación, que consulta los
+ * eventos pendientes mediante la operación $events en páginas de tamaño
+ * limitado, enviando las señales de cada página antes de pedir la siguiente, y
+ * descarta los eventos que ya se han recibido, de modo que no se envían señales
+ * duplicadas a los servidores KIE. Tampoco se envían los eventos que
+ * {@link SignalDeduplicator} registra como ya señalizados. Cuando no quedan
+ * intervalos pendientes se descarta el estado de la subscripción.
+ * 
+ * Los rangos pendientes se guardan en base de datos como {@link RecoveryRange}
+ * y se actualizan tras cada página, de modo que al arrancar la aplicación se
+ * reanudan las recuperaciones interrumpidas desde la última página recuperada.
+ * Si falla la consulta de una página, su rango vuelve a quedar pendiente y la
+ * recuperación se reintenta con espera exponencial. Las recuperaciones
+ * solicitadas durante una notificación sólo se programan al confirmar su
+ * transacción.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class RecoveryCoordinator {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    @Value("${fhir.recovery.page.size:100}")
+    private Integer pageSize;
+    @Value("${fhir.recovery.retry.backoff.initial:1000}")
+    private Long initialBackoff;
+    @Value("${fhir.recovery.retry.backoff.max:60000}")
+    private Long maxBackoff;
+
+    private final FhirService fhirService;
+    private final KieService kieService;
+    private final PipelineMetrics pipelineMetrics;
+    private final Executor recoveryExecutor;
+    private final TaskScheduler taskScheduler;
+    private final RecoveryRangeRepository recoveryRangeRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final RoutingTable routingTable;
+    private final SignalDeduplicator signalDeduplicator;
+    private final NotificationJournalService notificationJournalService;
+
+    private final ConcurrentMap<Long, Recovery> recoveries = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor que inyecta los servicios {@link FhirService},
+     * {@link KieService} y {@link NotificationJournalService}, el componente
+     * {@link PipelineMetrics}, el ejecutor de recuperación de eventos, el
+     * planificador de reintentos, el repositorio {@link RecoveryRangeRepository}, la plantilla de transacciones,
+     * la tabla de rutas {@link RoutingTable} y el componente
+     * {@link SignalDeduplicator}.
+     * 
+     * @param fhirService                servicio para gestionar operaciones que se
+     *                                   realizan sobre elementos FHIR.
+     * @param kieService                 servicio para gestionar las operaciones
+     *                                   sobre los servidores y las señales KIE.
+     * @param pipelineMetrics            componente que registra las métricas de las
+     *                                   etapas del procesamiento.
+     * @param recoveryExecutor           ejecutor acotado que recupera los eventos
+     *                                   perdidos.
+     * @param taskScheduler              planificador con el que se reintentan las
+     *                                   recuperaciones fallidas.
+     * @param recoveryRangeRepository    repositorio JPA de la entidad
+     *                                   {@link RecoveryRange}.
+     * @param transactionTemplate        plantilla para guardar el progreso en una
+     *                                   transacción.
+     * @param routingTable               tabla en memoria con las rutas de los
+     *                                   endpoints, utilizada al reanudar las
+     *                                   recuperaciones.
+     * @param signalDeduplicator         componente que descarta los eventos ya
+     *                                   señalizados.
+     * @param notificationJournalService servicio que registra los eventos en el
+     *                                   diario de notificaciones.
+     */
+    @Autowired
+    public RecoveryCoordinator(FhirService fhirService, KieService kieService, PipelineMetrics pipelineMetrics,
+            @Qualifier("recoveryExecutor") Executor recoveryExecutor, TaskScheduler taskScheduler,
+            RecoveryRangeRepository recoveryRangeRepository, TransactionTemplate transactionTemplate,
+            RoutingTable routingTable, SignalDeduplicator signalDeduplicator,
+            NotificationJournalService notificationJournalService) {
+        this.fhirService = fhirService;
+        this.kieService = kieService;
+        this.pipelineMetrics = pipelineMetrics;
+        this.recoveryExecutor = recoveryExecutor;
+        this.taskScheduler = taskScheduler;
+        this.recoveryRangeRepository = recoveryRangeRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.routingTable = routingTable;
+        this.signalDeduplicator = signalDeduplicator;
+        this.notificationJournalService = notificationJournalService;
+    }
+
+    /**
+     * Reanuda al arrancar la aplicación las recuperaciones que quedaron
+     * pendientes. Los rangos de subscripciones que ya no existen se eliminan.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void resume() {
+        Map<Long, List<RecoveryRange>> pending = new LinkedHashMap<>();
+        for (RecoveryRange range : recoveryRangeRepository.findAll()) {
+            pending.computeIfAbsent(range.getEndpoint(), id -> new ArrayList<>()).add(range);
+        }
+
+        for (Map.Entry<Long, List<RecoveryRange>> entry : pending.entrySet()) {
+            Long id = entry.getKey();
+            Route route = routingTable.getRoute(id);
+            if (route == null) {
+                transactionTemplate.executeWithoutResult(status -> recoveryRangeRepository.deleteByEndpoint(id));
+                continue;
+            }
+
+            logger.info("Se reanuda la recuperación de eventos de la subscripción {}", route.getIdSubscription());
+            for (RecoveryRange range : entry.getValue()) {
+                recoverOrRetry(id, () -> new Recovery(route.getServer().getUrl(), route.getIdSubscription(),
+                        route.getIdTrigger(), pipelineMetrics.tags(route)), range.getEventsSince(),
+                        range.getEventsUntil());
+            }
+        }
+    }
+
+    /**
+     * Solicita la recuperación de un rango de eventos perdidos de una
+     * subscripción. El rango se guarda en base de datos, dentro de la transacción
+     * en curso si la hay, y al confirmarla se une a los pendientes descontando los
+     * eventos ya recibidos. Si no hay ninguna recuperación en curso para la
+     * subscripción se programa una en el ejecutor de recuperación; si su cola está
+     * llena, se reintenta más tarde.
+     * 
+     * @param subscriptionData  datos de la subscripción.
+     * @param eventsSinceNumber número del primer evento perdido.
+     * @param eventsUntilNumber número del último evento perdido.
+     * @param tags              etiquetas de las métricas de la subscripción.
+     */
+    public void recover(SubscriptionData subscriptionData, long eventsSinceNumber, long eventsUntilNumber,
+            Tags tags) {
+        Long id = subscriptionData.getId();
+        String urlServer = subscriptionData.getServer().getUrl();
+        String idSubscription = subscriptionData.getIdSubscription();
+        Long idTrigger = subscriptionData.getTopic().getTrigger().getId();
+        recoveryRangeRepository.save(new RecoveryRange(id, eventsSinceNumber, eventsUntilNumber));
+        TransactionSupport.afterCommit(() -> recoverOrRetry(id,
+                () -> new Recovery(urlServer, idSubscription, idTrigger, tags), eventsSinceNumber, eventsUntilNumber));
+    }
+
+    /**
+     * Registra los eventos recibidos mediante una notificación, de modo que no se
+     * recuperen si están pendientes. Sólo se registran mientras la subscripción
+     * tiene una recuperación pendiente.
+     * 
+     * @param id               identificador del endpoint de la subscripción.
+     * @param firstEventNumber número del primer evento recibido.
+     * @param lastEventNumber  número del último evento recibido.
+     */
+    public void markReceived(Long id, long firstEventNumber, long lastEventNumber) {
+        if (id == null) {
+            return;
+        }
+        Recovery recovery = recoveries.get(id);
+        if (recovery == null) {
+            return;
+        }
+        synchronized (recovery) {
+            if (!recovery.finished) {
+                recovery.missing.remove(firstEventNumber, lastEventNumber);
+                recovery.received.add(firstEventNumber, lastEventNumber);
+            }
+        }
+    }
+
+    /**
+     * Une un rango a los pendientes de una subscripción y, si no hay ninguna
+     * recuperación en curso, la programa en el ejecutor de recuperación. Si la
+     * cola del ejecutor está llena, se reintenta más tarde.
+     */
+    private void recoverOrRetry(Long id, Supplier<Recovery> factory, long eventsSinceNumber,
+            long eventsUntilNumber) {
+        while (true) {
+            Recovery recovery = recoveries.computeIfAbsent(id, key -> factory.get());
+            synchronized (recovery) {
+                if (recovery.finished) {
+                    // La tarea de recuperación acaba de descartar este estado
+                    continue;
+                }
+                recovery.missing.add(eventsSinceNumber, eventsUntilNumber);
+                recovery.missing.removeAll(recovery.received);
+                if (recovery.running || recovery.missing.isEmpty()) {
+                    return;
+                }
+                recovery.running = true;
+            }
+
+            submit(id, recovery);
+            return;
+        }
+    }
+
+    /**
+     * Programa en el ejecutor de recuperación la tarea de una subscripción, que ya
+     * está marcada en curso. Si la cola está llena, se reintenta más tarde.
+     */
+    private void submit(Long id, Recovery recovery) {
+        try {
+            recoveryExecutor.execute(() -> drain(id, recovery));
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cola de recuperación llena. Se reintenta más tarde la subscripción {}",
+                    recovery.idSubscription);
+            synchronized (recovery) {
+                recovery.running = false;
+            }
+            retryLater(id, recovery);
+        }
+    }
+
+    /**
+     * Programa un nuevo intento de la recuperación de una subscripción, con espera
+     * exponencial según los intentos fallidos consecutivos.
+     */
+    private void retryLater(Long id, Recovery recovery) {
+        long backoff;
+        synchronized (recovery) {
+            recovery.failures++;
+            backoff = Math.min(maxBackoff, initialBackoff << Math.min(recovery.failures - 1, 30));
+        }
+        taskScheduler.schedule(() -> retry(id, recovery), new Date(System.currentTimeMillis() + backoff));
+    }
+
+    /**
+     * Reintenta la recuperación de una subscripción si no hay otra en curso. Si la
+     * subscripción ya no existe, se descartan sus rangos pendientes.
+     */
+    private void retry(Long id, Recovery recovery) {
+        synchronized (recovery) {
+            if (recovery.finished || recovery.running) {
+                return;
+            }
+            if (recovery.missing.isEmpty() || routingTable.getRoute(id) == null) {
+                recovery.finished = true;
+                recoveries.remove(id, recovery);
+                saveProgress(id, new ArrayList<>());
+                return;
+            }
+            recovery.running = true;
+        }
+        submit(id, recovery);
+    }
+
+    /**
+     * Recupera los eventos pendientes de una subscripción página a página hasta
+     * que no quedan más, guardando los rangos pendientes tras cada página.
+     */
+    private void drain(Long id, Recovery recovery) {
+        while (true) {
+            long since;
+            long until;
+            long end;
+            synchronized (recovery) {
+                long[] range = recovery.missing.pollFirst();
+                if (range == null) {
+                    recovery.running = false;
+                    recovery.finished = true;
+                    recoveries.remove(id, recovery);
+                    saveProgress(id, new ArrayList<>());
+                    return;
+                }
+
+                // Toma como mucho una página y deja pendiente el resto del rango
+                since = range[0];
+                end = range[1];
+                until = Math.min(end, since + Math.max(pageSize, 1) - 1);
+            }
+
+            Long last = getAndSendLostEvents(id, recovery, since, until);
+
+            if (last == null) {
+                // La página no se ha recuperado: su rango vuelve a quedar pendiente y se
+                // reintenta más tarde
+                synchronized (recovery) {
+                    recovery.missing.add(since, end);
+                    recovery.missing.removeAll(recovery.received);
+                    saveProgress(id, recovery.missing.toList());
+                    recovery.running = false;
+                }
+                retryLater(id, recovery);
+                return;
+            }
+
+            synchronized (recovery) {
+                recovery.failures = 0;
+                if (last >= since && last < until) {
+                    // El servidor ha devuelto menos eventos de los pedidos
+                    until = last;
+                }
+                if (until < end) {
+                    recovery.missing.add(until + 1, end);
+                    recovery.missing.removeAll(recovery.received);
+                }
+                saveProgress(id, recovery.missing.toList());
+            }
+        }
+    }
+
+    /**
+     * Obtiene una página de eventos perdidos mediante la operación $events y envía
+     * a los servidores KIE las referencias de los que no se han recibido mientras
+     * tanto.
+     * 
+     * @param id                identificador del endpoint de la subscripción.
+     * @param recovery          estado de la recuperación de la subscripción.
+     * @param eventsSinceNumber número del primer evento de la página.
+     * @param eventsUntilNumber número del último evento de la página.
+     * @return el número del último evento devuelto por el servidor,
+     *         eventsUntilNumber si no se puede determinar, o null si falla la
+     *         recuperación.
+     */
+    private Long getAndSendLostEvents(Long id, Recovery recovery, long eventsSinceNumber, long eventsUntilNumber) {
+        Timer.Sample sample = pipelineMetrics.start();
+        try {
+            // Recupera los eventos perdidos
+            SubscriptionStatus lostEvents = fhirService.getLostEvents(recovery.urlServer, recovery.idSubscription,
+                    eventsSinceNumber, eventsUntilNumber);
+
+            // Obtiene las referencia de los recursos notificados, salvo los de eventos ya
+            // recibidos o señalizados
+            List<String> references = new ArrayList<>();
+            List<Long> eventNumbers = new ArrayList<>();
+            List<String> duplicates = new ArrayList<>();
+            List<Long> duplicateNumbers = new ArrayList<>();
+            long last = eventsSinceNumber - 1;
+            for (SubscriptionStatusNotificationEventComponent event : lostEvents.getNotificationEvent()) {
+                Long eventNumber = event.hasEventNumber() ? event.getEventNumber() : null;
+                if (eventNumber != null) {
+                    last = Math.max(last, eventNumber);
+                }
+                if (!event.hasFocus() || !event.getFocus().hasReference()) {
+                    continue;
+                }
+
+                String reference = event.getFocus().getReference();
+                if (eventNumber != null) {
+                    synchronized (recovery) {
+                        if (recovery.received.contains(eventNumber)) {
+                            continue;
+                        }
+                    }
+                    if (!signalDeduplicator.markSignalled(id, eventNumber, recovery.tags)) {
+                        duplicates.add(reference);
+                        duplicateNumbers.add(eventNumber);
+                        continue;
+                    }
+                }
+                references.add(reference);
+                eventNumbers.add(eventNumber);
+            }
+
+            // Envía las referencias mediante señales a los servidores KIE configurados y
+            // registra los eventos en el diario
+            CompletableFuture<List<SignalResult>> delivery;
+            try {
+                delivery = kieService.sendSignal(recovery.idTrigger, references);
+            } catch (RuntimeException e) {
+                signalDeduplicator.release(id, eventNumbers);
+                throw e;
+            }
+            signalDeduplicator.settle(id, eventNumbers, kieService.isOutboxEnabled(), delivery);
+
+            notificationJournalService.record(id, duplicateNumbers, duplicates, NotificationJournal.SOURCE_RECOVERY,
+                    NotificationJournal.DUPLICATE);
+            notificationJournalService.record(id, eventNumbers, references, NotificationJournal.SOURCE_RECOVERY,
+                    delivery);
+
+            return last >= eventsSinceNumber ? last : eventsUntilNumber;
+        } catch (Exception e) {
+            logger.error("Error recuperando los eventos {}-{} de la subscripción {}: {}", eventsSinceNumber,
+                    eventsUntilNumber, recovery.idSubscription, e.getMessage());
+            return null;
+        } finally {
+            pipelineMetrics.stop(sample, PipelineMetrics.STAGE_RECOVERY, recovery.tags);
+        }
+    }
+
+    /**
+     * Sustituye los rangos guardados de una subscripción por los pendientes.
+     */
+    private void saveProgress(Long id, List<long[]> ranges) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                recoveryRangeRepository.deleteByEndpoint(id);
+                for (long[] range : ranges) {
+                    recoveryRangeRepository.save(new RecoveryRange(id, range[0], range[1]));
+                }
+            });
+        } catch (Exception e) {
+            logger.error("Error guardando el progreso de la recuperación del endpoint {}: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Estado de la recuperación de una subscripción.
+     */
+    private static final class Recovery {
+
+        private final String urlServer;
+        private final String idSubscription;
+        private final Long idTrigger;
+        private final Tags tags;
+        private final Intervals missing = new Intervals();
+        private final Intervals received = new Intervals();
+        private boolean running;
+        private boolean finished;
+        private int failures;
+
+        private Recovery(String urlServer, String idSubscription, Long idTrigger, Tags tags) {
+            this.urlServer = urlServer;
+            this.idSubscription = idSubscription;
+            this.idTrigger = idTrigger;
+            this.tags = tags;
+        }
+    }
+
+    /**
+     * Conjunto de intervalos cerrados de números de evento, sin solapes ni
+     * intervalos contiguos, ordenados por su inicio. Al añadir un intervalo se une
+     * con los que solapa o con los contiguos, y al eliminarlo se recortan o se
+     * dividen los que lo contienen.
+     */
+    static final class Intervals {
+
+        private final TreeMap<Long, Long> ranges = new TreeMap<>();
+
+        void add(long start, long end) {
+            Map.Entry<Long, Long> floor = ranges.floorEntry(start);
+            if (floor != null && floor.getValue() >= start - 1) {
+                start = floor.getKey();
+                end = Math.max(end, floor.getValue());
+                ranges.remove(floor.getKey());
+            }
+            Map.Entry<Long, Long> next;
+            while ((next = ranges.ceilingEntry(start)) != null && next.getKey() <= end + 1) {
+                end = Math.max(end, next.getValue());
+                ranges.remove(next.getKey());
+            }
+            ranges.put(start, end);
+        }
+
+        void remove(long start, long end) {
+            Map.Entry<Long, Long> lower = ranges.lowerEntry(start);
+            if (lower != null && lower.getValue() >= start) {
+                long lowerEnd = lower.getValue();
+                ranges.put(lower.getKey(), start - 1);
+                if (lowerEnd > end) {
+                    ranges.put(end + 1, lowerEnd);
+                }
+            }
+            List<Long> covered = new ArrayList<>(ranges.subMap(start, true, end, true).keySet());
+            for (Long key : covered) {
+                long rangeEnd = ranges.remove(key);
+                if (rangeEnd > end) {
+                    ranges.put(end + 1, rangeEnd);
+                }
+            }
+        }
+
+        void removeAll(Intervals other) {
+            for (Map.Entry<Long, Long> range : other.ranges.entrySet()) {
+                remove(range.getKey(), range.getValue());
+            }
+        }
+
+        boolean contains(long value) {
+            Map.Entry<Long, Long> floor = ranges.floorEntry(value);
+            return floor != null && floor.getValue() >= value;
+        }
+
+        long[] pollFirst() {
+            Map.Entry<Long, Long> first = ranges.pollFirstEntry();
+            return first == null ? null : new long[] { first.getKey(), first.getValue() };
+        }
+
+        boolean isEmpty() {
+            return ranges.isEmpty();
+        }
+
+        List<long[]> toList() {
+            List<long[]> list = new ArrayList<>();
+            for (Map.Entry<Long, Long> range : ranges.entrySet()) {
+                list.add(new long[] { range.getKey(), range.getValue() });
+            }
+            return list;
+        }
+    }
+}
@@ -0,0 +1,385 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Tags;
+import us.dit.fkbroker.service.conf.TransactionSupport;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.repositories.SubscriptionRepository;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Componente que descarta los eventos de una subscripción que ya se han
+ * señalizado a los servidores KIE.
+ * 
+ * Los servidores FHIR reintentan las notificaciones cuando no reciben respuesta
+ * a tiempo, y la recuperación de eventos perdidos puede obtener eventos que
+ * también llegan por notificación. Cada subscripción tiene una ventana
+ * deslizante de bits sobre los números de evento, de tamaño fijo, en la que se
+ * marcan los eventos señalizados. Al señalizar un evento posterior a la ventana
+ * ésta avanza, olvidando los eventos más antiguos. Los eventos anteriores a la
+ * ventana no se pueden comprobar, por lo que se señalizan.
+ * 
+ * Un evento se reserva al decidir que se señaliza, de modo que las copias que
+ * llegan mientras tanto se descartan, y sólo se marca en la ventana cuando sus
+ * señales se han guardado en la bandeja de salida y se ha confirmado la
+ * transacción, o cuando se han entregado a los servidores KIE. Si la
+ * transacción se deshace o falla la entrega se libera la reserva, para que el
+ * evento se vuelva a señalizar cuando el servidor FHIR reintente la
+ * notificación o se recupere.
+ * 
+ * Las ventanas se cargan de la subscripción la primera vez que se utilizan y
+ * las que cambian se guardan en la tabla SUBSCRIPTIONS mediante
+ * actualizaciones JDBC por lotes cada intervalo de volcado y al detener la
+ * aplicación. Los eventos descartados se contabilizan en la métrica
+ * fkbroker.events.duplicate.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class SignalDeduplicator {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final int MAX_WINDOW = 65536;
+
+    private static final String UPDATE_SQL = "UPDATE SUBSCRIPTIONS SET DEDUP_HIGH_WORD = ?, DEDUP_BITS = ? "
+            + "WHERE ID = ?";
+
+    @Value("${fhir.notification.dedup.window:4096}")
+    private Integer windowSize;
+    @Value("${fhir.subscription.state.batch.size:500}")
+    private Integer batchSize;
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final JdbcTemplate jdbcTemplate;
+    private final PipelineMetrics pipelineMetrics;
+
+    private final ConcurrentMap<Long, Window> windows = new ConcurrentHashMap<>();
+    private final Set<Long> dirty = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor que inyecta el repositorio {@link SubscriptionRepository}, la
+     * plantilla JDBC y el componente {@link PipelineMetrics}.
+     * 
+     * @param subscriptionRepository repositorio JPA de la entidad
+     *                               {@link SubscriptionData}, del que se cargan
+     *                               las ventanas.
+     * @param jdbcTemplate           plantilla JDBC con la que se guardan las
+     *                               ventanas.
+     * @param pipelineMetrics        componente que contabiliza los eventos
+     *                               duplicados.
+     */
+    @Autowired
+    public SignalDeduplicator(SubscriptionRepository subscriptionRepository, JdbcTemplate jdbcTemplate,
+            PipelineMetrics pipelineMetrics) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.jdbcTemplate = jdbcTemplate;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Indica si se descartan los eventos duplicados.
+     * 
+     * @return true si la ventana tiene tamaño, false en caso contrario.
+     */
+    public boolean isEnabled() {
+        return windowSize != null && windowSize > 0;
+    }
+
+    /**
+     * Reserva un evento de una subscripción para señalizarlo, salvo que ya se
+     * haya señalizado o esté reservado. La reserva se debe resolver con
+     * {@link #settle(Long, List, boolean, CompletableFuture)} o
+     * {@link #release(Long, List)}.
+     * 
+     * @param id          identificador del endpoint de la subscripción.
+     * @param eventNumber número del evento.
+     * @param tags        etiquetas de las métricas de la subscripción.
+     * @return true si el evento se debe señalizar, false si ya se había
+     *         señalizado o se está señalizando.
+     */
+    public boolean markSignalled(Long id, long eventNumber, Tags tags) {
+        if (!isEnabled() || id == null) {
+            return true;
+        }
+
+        Window window = getWindow(id);
+        boolean reserved;
+        synchronized (window) {
+            reserved = !window.contains(eventNumber) && window.pending.add(eventNumber);
+        }
+        if (!reserved) {
+            pipelineMetrics.countDuplicateEvents(tags, 1);
+        }
+        return reserved;
+    }
+
+    /**
+     * Resuelve la reserva de los eventos enviados a los servidores KIE. Si las
+     * señales se han guardado en la bandeja de salida, los eventos se marcan al
+     * confirmarse la transacción en curso y se liberan si se deshace. Si se han
+     * enviado directamente, se marcan si la entrega tiene éxito y se liberan si
+     * falla algún envío o no había ningún destino.
+     * 
+     * @param id           identificador del endpoint de la subscripción.
+     * @param eventNumbers número de cada evento, o null si no tiene.
+     * @param queued       true si las señales se han guardado en la bandeja de
+     *                     salida.
+     * @param delivery     futuro que se completa con el resultado de cada envío.
+     */
+    public void settle(Long id, List<Long> eventNumbers, boolean queued,
+            CompletableFuture<List<SignalResult>> delivery) {
+        if (!isEnabled() || id == null || eventNumbers.isEmpty()) {
+            return;
+        }
+
+        if (queued) {
+            TransactionSupport.afterCompletion(() -> confirm(id, eventNumbers), () -> release(id, eventNumbers));
+            return;
+        }
+        delivery.whenComplete((results, error) -> {
+            if (error == null && SignalResult.isDelivered(results)) {
+                confirm(id, eventNumbers);
+            } else {
+                release(id, eventNumbers);
+            }
+        });
+    }
+
+    /**
+     * Libera la reserva de unos eventos que no se han llegado a señalizar.
+     * 
+     * @param id           identificador del endpoint de la subscripción.
+     * @param eventNumbers número de cada evento, o null si no tiene.
+     */
+    public void release(Long id, List<Long> eventNumbers) {
+        Window window = id != null ? windows.get(id) : null;
+        if (window == null) {
+            return;
+        }
+        synchronized (window) {
+            for (Long eventNumber : eventNumbers) {
+                if (eventNumber != null) {
+                    window.pending.remove(eventNumber);
+                }
+            }
+        }
+    }
+
+    /**
+     * Marca como señalizados unos eventos reservados.
+     */
+    private void confirm(Long id, List<Long> eventNumbers) {
+        Window window = windows.get(id);
+        if (window == null) {
+            return;
+        }
+        synchronized (window) {
+            for (Long eventNumber : eventNumbers) {
+                if (eventNumber != null) {
+                    window.pending.remove(eventNumber);
+                    window.mark(eventNumber);
+                }
+            }
+        }
+        dirty.add(id);
+    }
+
+    /**
+     * Guarda en base de datos las ventanas que han cambiado, en lotes. Se olvidan
+     * las ventanas de las subscripciones que ya no existen.
+     */
+    @Scheduled(fixedDelayString = "${fhir.subscription.state.flush.interval:1000}")
+    public void flush() {
+        if (dirty.isEmpty()) {
+            return;
+        }
+
+        List<Long> ids = new ArrayList<>(dirty);
+        for (int i = 0; i < ids.size(); i += batchSize) {
+            List<Long> batch = new ArrayList<>();
+            List<Object[]> args = new ArrayList<>();
+            for (Long id : ids.subList(i, Math.min(i + batchSize, ids.size()))) {
+                // Se desmarca antes de copiar la ventana, de modo que los cambios
+                // posteriores se guardan en el siguiente volcado
+                dirty.remove(id);
+                Window window = windows.get(id);
+                if (window == null) {
+                    continue;
+                }
+                synchronized (window) {
+                    args.add(new Object[] { window.getHighWord(), window.toBytes(), id });
+                }
+                batch.add(id);
+            }
+
+            int[] counts;
+            try {
+                counts = jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+            } catch (Exception e) {
+                logger.error("Error guardando las ventanas de eventos de {} subscripciones: {}", batch.size(),
+                        e.getMessage());
+                dirty.addAll(batch);
+                return;
+            }
+            for (int j = 0; j < counts.length; j++) {
+                if (counts[j] == 0) {
+                    windows.remove(batch.get(j));
+                }
+            }
+        }
+    }
+
+    /**
+     * Guarda las ventanas pendientes al detener la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+    }
+
+    /**
+     * Obtiene la ventana de una subscripción, cargándola de base de datos si no
+     * está en memoria.
+     */
+    private Window getWindow(Long id) {
+        Window window = windows.get(id);
+        if (window != null) {
+            return window;
+        }
+
+        int words = (Math.min(windowSize, MAX_WINDOW) + Long.SIZE - 1) / Long.SIZE;
+        Window loaded = new Window(words);
+        subscriptionRepository.findById(id).ifPresent(
+                subscriptionData -> loaded.load(subscriptionData.getDedupHighWord(), subscriptionData.getDedupBits()));
+        window = windows.putIfAbsent(id, loaded);
+        return window != null ? window : loaded;
+    }
+
+    /**
+     * Ventana deslizante de bits de los eventos señalizados de una subscripción.
+     * Los bits se agrupan en palabras de 64 eventos guardadas en un búfer
+     * circular; la ventana cubre las palabras anteriores a la del evento más
+     * reciente, incluida ésta. Los eventos reservados se guardan aparte hasta que
+     * se marcan o se liberan.
+     */
+    static final class Window {
+
+        private final long[] words;
+        private final Set<Long> pending = new HashSet<>();
+        private long highWord = -1;
+
+        Window(int words) {
+            this.words = new long[words];
+        }
+
+        /**
+         * Indica si un evento está marcado. Los eventos anteriores a la ventana no
+         * se consideran marcados.
+         */
+        boolean contains(long eventNumber) {
+            long word = eventNumber / Long.SIZE;
+            if (eventNumber < 0 || word > highWord || word <= highWord - words.length) {
+                return false;
+            }
+            return (words[index(word)] & (1L << (eventNumber % Long.SIZE))) != 0;
+        }
+
+        /**
+         * Marca un evento, avanzando la ventana si es posterior a ella.
+         * 
+         * @return true si el evento no estaba marcado o es anterior a la ventana,
+         *         false si ya estaba marcado.
+         */
+        boolean mark(long eventNumber) {
+            if (eventNumber < 0) {
+                return true;
+            }
+
+            long word = eventNumber / Long.SIZE;
+            if (word > highWord) {
+                // Avanza la ventana, limpiando las palabras que se reutilizan
+                long clear = highWord < 0 ? words.length : Math.min(word - highWord, words.length);
+                for (long i = 1; i <= clear; i++) {
+                    words[index(word - clear + i)] = 0;
+                }
+                highWord = word;
+            } else if (word <= highWord - words.length) {
+                // Anterior a la ventana, no se puede comprobar
+                return true;
+            }
+
+            int index = index(word);
+            long bit = 1L << (eventNumber % Long.SIZE);
+            if ((words[index] & bit) != 0) {
+                return false;
+            }
+            words[index] |= bit;
+            return true;
+        }
+
+        private int index(long word) {
+            return (int) Math.floorMod(word, (long) words.length);
+        }
+
+        void load(Long highWord, byte[] bits) {
+            if (highWord == null || bits == null || bits.length != words.length * Long.BYTES) {
+                return;
+            }
+            this.highWord = highWord;
+            ByteBuffer.wrap(bits).asLongBuffer().get(words);
+        }
+
+        long getHighWord() {
+            return highWord;
+        }
+
+        byte[] toBytes() {
+            ByteBuffer buffer = ByteBuffer.allocate(words.length * Long.BYTES);
+            buffer.asLongBuffer().put(words);
+            return buffer.array();
+        }
+    }
+
+}
@@ -25,12 +25,14 @@ import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
 import org.hl7.fhir.r5.model.Subscription;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
@@ -40,6 +42,7 @@ import us.dit.fkbroker.service.entities.db.Topic;
 import us.dit.fkbroker.service.entities.domain.SubscriptionEntry;
 import us.dit.fkbroker.service.entities.domain.SubscriptionForm;
 import us.dit.fkbroker.service.repositories.SubscriptionRepository;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
 import us.dit.fkbroker.service.services.mapper.SubscriptionMapper;
 
 /**
@@ -58,19 +61,32 @@ public class SubscriptionService {
     private final FhirService fhirService;
     private final SubscriptionRepository subscriptionRepository;
     private final SubscriptionMapper subscriptionMapper;
+    private final RoutingTable routingTable;
+    private final SubscriptionStateBuffer subscriptionStateBuffer;
+    private final HeartbeatMonitor heartbeatMonitor;
 
     /**
      * Constructor que inyecta el {@link SubscriptionRepository}.
      * 
-     * @param subscriptionRepository repositorio JPA de la entidad
-     *                               {@link SubscriptionData}.
+     * @param subscriptionRepository  repositorio JPA de la entidad
+     *                                {@link SubscriptionData}.
+     * @param routingTable            tabla de rutas que se descarta al crear o
+     *                                eliminar subscripciones.
+     * @param subscriptionStateBuffer componente que guarda en segundo plano el
+     *                                estado de las subscripciones.
+     * @param heartbeatMonitor        componente que mantiene el plazo de
+     *                                heartbeat de cada subscripción.
      */
     @Autowired
     public SubscriptionService(FhirService fhirService, SubscriptionRepository subscriptionRepository,
-            SubscriptionMapper subscriptionMapper) {
+            SubscriptionMapper subscriptionMapper, RoutingTable routingTable,
+            SubscriptionStateBuffer subscriptionStateBuffer, HeartbeatMonitor heartbeatMonitor) {
         this.fhirService = fhirService;
         this.subscriptionRepository = subscriptionRepository;
         this.subscriptionMapper = subscriptionMapper;
+        this.routingTable = routingTable;
+        this.subscriptionStateBuffer = subscriptionStateBuffer;
+        this.heartbeatMonitor = heartbeatMonitor;
     }
 
     /**
@@ -90,6 +106,36 @@ public class SubscriptionService {
         }
     }
 
+    /**
+     * Obtiene una subscripción de la base de datos de sólo lectura, junto con su
+     * servidor, su topic y su trigger en una única consulta. Los cambios en la
+     * entidad no se guardan, por lo que deben guardarse mediante
+     * {@link #updateSubscriptionState(SubscriptionData)}. Incluye el estado
+     * pendiente de guardar en segundo plano.
+     * 
+     * @param id identificador de la subscripción.
+     * @return la subscripción obtenida.
+     * @throws RuntimeException si no encuentra la subscripción.
+     */
+    public SubscriptionData getReadOnlySubscriptionData(Long id) {
+        return subscriptionRepository.findReadOnlyById(id).map(subscriptionStateBuffer::apply)
+                .orElseThrow(() -> new RuntimeException("Subscription not found with id: " + id));
+    }
+
+    /**
+     * Obtiene varias subscripciones de la base de datos por su identificador. Los
+     * identificadores que no existen se ignoran. Incluye el estado pendiente de
+     * guardar en segundo plano.
+     * 
+     * @param ids identificadores de las subscripciones.
+     * @return las subscripciones obtenidas.
+     */
+    public List<SubscriptionData> getSubscriptionDatas(List<Long> ids) {
+        List<SubscriptionData> subscriptionDatas = subscriptionRepository.findAllById(ids);
+        subscriptionDatas.forEach(subscriptionStateBuffer::apply);
+        return subscriptionDatas;
+    }
+
     /**
      * Obtiene los detalles de una subscripción de un servidor FHIR.
      * 
@@ -112,9 +158,24 @@ public class SubscriptionService {
         return subscriptionRepository.findByServerId(idServer);
     }
 
+    /**
+     * Obtiene las subscripciones de los servidores FHIR con heartbeat activado que
+     * no se han actualizado desde la fecha indicada. Se descartan las que tienen
+     * una actualización posterior pendiente de guardar en segundo plano.
+     * 
+     * @param threshold fecha límite de la última actualización.
+     * @return el listado de subscripciones sin actividad, ordenado por servidor.
+     */
+    public List<SubscriptionData> getStaleHeartbeatSubscriptions(Date threshold) {
+        return subscriptionRepository.findStaleHeartbeatSubscriptions(threshold).stream()
+                .map(subscriptionStateBuffer::apply).filter(data -> data.getUpdated().before(threshold))
+                .collect(Collectors.toList());
+    }
+
     /**
      * Obtiene todas las subscripciones de un servidor FHIR y actualiza la
-     * información de base de datos si ha ocurrido algún cambio.
+     * información de base de datos si ha ocurrido algún cambio. Si cambia el
+     * periodo de heartbeat de una subscripción, se reinicia su plazo.
      * 
      * @param server información del servidor FHIR.
      * @return el listado de subscripciones actualizado.
@@ -136,9 +197,10 @@ public class SubscriptionService {
             if (!serverSubscriptionsMap.containsKey(subscriptionData.getIdSubscription())) {
                 // Si no se encuentra la subscripción en el servidor FHIR, se actualiza el
                 // estado de la subscripción en base de datos a NULL
-                subscriptionData.setStatus(SubscriptionStatusCodes.NULL.toCode());
-                subscriptionData.setUpdated(new Date());
-                subscriptionData = subscriptionRepository.save(subscriptionData);
+                subscriptionData = save(subscriptionData, data -> {
+                    data.setStatus(SubscriptionStatusCodes.NULL.toCode());
+                    data.setUpdated(new Date());
+                });
             } else {
                 // Si se encuentra, obtiene el estado de la subscripción
                 Subscription subscription = serverSubscriptionsMap.get(subscriptionData.getIdSubscription());
@@ -146,9 +208,18 @@ public class SubscriptionService {
 
                 // Actualiza el estado de la subscripción de base de datos si hay algún cambio
                 if (!status.equals(subscriptionData.getStatus())) {
-                    subscriptionData.setStatus(status);
-                    subscriptionData.setUpdated(new Date());
-                    subscriptionData = subscriptionRepository.save(subscriptionData);
+                    subscriptionData = save(subscriptionData, data -> {
+                        data.setStatus(status);
+                        data.setUpdated(new Date());
+                    });
+                }
+
+                // Actualiza el periodo de heartbeat si ha cambiado en el servidor FHIR
+                Integer heartbeatPeriod = subscription.hasHeartbeatPeriod() ? subscription.getHeartbeatPeriod() : null;
+                if (heartbeatPeriod != null && !heartbeatPeriod.equals(subscriptionData.getHeartbeatPeriod())) {
+                    subscriptionData = save(subscriptionData, data -> data.setHeartbeatPeriod(heartbeatPeriod));
+                    routingTable.invalidate();
+                    heartbeatMonitor.touch(subscriptionData.getId());
                 }
             }
 
@@ -175,6 +246,10 @@ public class SubscriptionService {
         SubscriptionData subscriptionData = new SubscriptionData(server, topic);
         subscriptionData = subscriptionRepository.save(subscriptionData);
 
+        // El servidor FHIR puede enviar el handshake antes de terminar la creación,
+        // por lo que el endpoint debe estar disponible en la tabla de rutas
+        routingTable.invalidate();
+
         // Obtiene la dirección del endpoint de la subscripción
         String endpoint = applicationAddress + "notification/" + subscriptionData.getId();
 
@@ -183,21 +258,49 @@ public class SubscriptionService {
         Subscription createdSubscription = fhirService.createSubscription(server.getUrl(), subscription);
 
         // Actualiza la subscripción con el identificador y el estado de la subscripción
-        // que se acaba de crear en el servidor FHIR
-        subscriptionData.setIdSubscription(createdSubscription.getIdElement().getIdPart());
-        subscriptionData.setStatus(createdSubscription.getStatus().toCode());
-        subscriptionRepository.save(subscriptionData);
+        // que se acaba de crear en el servidor FHIR. El handshake puede haber
+        // actualizado ya la subscripción, en cuyo caso se mantiene su estado
+        String idSubscription = createdSubscription.getIdElement().getIdPart();
+        String status = createdSubscription.getStatus().toCode();
+        Integer heartbeatPeriod = createdSubscription.hasHeartbeatPeriod() ? createdSubscription.getHeartbeatPeriod()
+                : subscription.getHeartbeatPeriod();
+        subscriptionData = save(subscriptionData, data -> {
+            data.setIdSubscription(idSubscription);
+            if (data.getStatus() == null) {
+                data.setStatus(status);
+            }
+            data.setHeartbeatPeriod(heartbeatPeriod);
+        });
+        routingTable.invalidate();
+
+        // Vigila el heartbeat desde su creación, aunque no llegue ninguna notificación
+        heartbeatMonitor.touch(subscriptionData.getId());
     }
 
     /**
-     * Actualiza los datos de una subscripción en la base de datos.
+     * Guarda el estado y el contador de eventos de una subscripción sin fusionar
+     * la entidad completa. El contador sólo avanza, por lo que no se pierden los
+     * eventos guardados por otras notificaciones o comprobaciones concurrentes.
+     * Con el modo de escritura buffered el estado se guarda en memoria y se
+     * vuelca a base de datos en segundo plano.
      * 
      * @param subscriptionData datos de la subscripción a actualizar.
      * @return los datos de la subscripción actualizada.
+     * @throws RuntimeException si no encuentra la subscripción.
      */
-    public SubscriptionData updateSubscription(SubscriptionData subscriptionData) {
+    public SubscriptionData updateSubscriptionState(SubscriptionData subscriptionData) {
         subscriptionData.setUpdated(new Date());
-        return subscriptionRepository.save(subscriptionData);
+        if (subscriptionStateBuffer.isEnabled()) {
+            subscriptionStateBuffer.put(subscriptionData);
+            return subscriptionData;
+        }
+
+        int updated = subscriptionRepository.advanceEvents(subscriptionData.getId(), subscriptionData.getEvents(),
+                subscriptionData.getStatus(), subscriptionData.getUpdated());
+        if (updated == 0) {
+            throw new RuntimeException("Subscription not found with id: " + subscriptionData.getId());
+        }
+        return subscriptionData;
     }
 
     /**
@@ -213,5 +316,30 @@ public class SubscriptionService {
 
         // Elimina la subscripción de la base de datos
         subscriptionRepository.deleteByServerAndIdSubscription(server, idSubscription);
+        routingTable.invalidate();
+    }
+
+    /**
+     * Aplica un cambio a una subscripción y la guarda. Si la subscripción se ha
+     * modificado mientras tanto, vuelve a obtenerla y aplica el cambio sobre la
+     * versión actual. El estado guardado sustituye al pendiente de guardar en
+     * segundo plano, para que no se revierta en el siguiente volcado.
+     * 
+     * @param subscriptionData datos de la subscripción.
+     * @param change           cambio a aplicar.
+     * @return los datos de la subscripción guardada.
+     */
+    private SubscriptionData save(SubscriptionData subscriptionData, Consumer<SubscriptionData> change) {
+        change.accept(subscriptionData);
+        SubscriptionData saved;
+        try {
+            saved = subscriptionRepository.save(subscriptionData);
+        } catch (ObjectOptimisticLockingFailureException e) {
+            SubscriptionData current = getSubscriptionData(subscriptionData.getId());
+            change.accept(current);
+            saved = subscriptionRepository.save(current);
+        }
+        subscriptionStateBuffer.replaceStatus(saved);
+        return saved;
     }
 }
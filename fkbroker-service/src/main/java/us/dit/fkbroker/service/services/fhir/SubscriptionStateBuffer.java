@@ -0,0 +1,243 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import us.dit.fkbroker.service.conf.TransactionSupport;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+
+/**
+ * Componente que mantiene en memoria el último estado de cada subscripción
+ * (contador de eventos, estado y fecha de actualización) y lo guarda en la
+ * tabla SUBSCRIPTIONS en segundo plano.
+ * 
+ * Con el modo de escritura buffered (fhir.subscription.state.mode) las
+ * notificaciones y comprobaciones no escriben en base de datos: el estado se
+ * acumula por subscripción, conservando el mayor contador de eventos, y se
+ * guarda mediante actualizaciones JDBC por lotes cada intervalo de volcado y al
+ * detener la aplicación. El estado sólo se acumula al confirmarse la
+ * transacción que lo produce, de modo que no avanza el contador de eventos si se
+ * deshacen las señales guardadas en la bandeja de salida. Hasta que se guardan,
+ * los datos leídos de base de datos se completan con los valores en memoria. Si
+ * se guarda la subscripción completa, su estado sustituye al pendiente para que
+ * el siguiente volcado no lo revierta. Si la aplicación se detiene de forma
+ * abrupta se pierden los valores no guardados, y los eventos correspondientes
+ * se vuelven a recuperar en la comprobación inicial.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class SubscriptionStateBuffer {
+
+    private static final Logger logger = LogManager.getLogger();
+
+    private static final String MODE_BUFFERED = "buffered";
+
+    private static final String UPDATE_SQL = "UPDATE SUBSCRIPTIONS SET "
+            + "EVENTS = CASE WHEN COALESCE(EVENTS, 0) < ? THEN ? ELSE EVENTS END, STATUS = ?, UPDATED = ?, "
+            + "VERSION = COALESCE(VERSION, 0) + 1 WHERE ID = ?";
+
+    @Value("${fhir.subscription.state.mode:direct}")
+    private String mode;
+    @Value("${fhir.subscription.state.batch.size:500}")
+    private Integer batchSize;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<Long, State> states = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor que inyecta la plantilla JDBC y el registro de métricas.
+     * 
+     * @param jdbcTemplate plantilla JDBC con la que se guardan los lotes.
+     * @param registry     registro en el que se publica el número de
+     *                     subscripciones pendientes de guardar.
+     */
+    @Autowired
+    public SubscriptionStateBuffer(JdbcTemplate jdbcTemplate, MeterRegistry registry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.registry = registry;
+    }
+
+    /**
+     * Registra la métrica con el número de subscripciones pendientes de guardar.
+     */
+    @PostConstruct
+    public void init() {
+        Gauge.builder("fkbroker.subscription.state.pending", states, ConcurrentMap::size)
+                .description("Subscripciones con estado pendiente de guardar").register(registry);
+    }
+
+    /**
+     * Indica si el estado de las subscripciones se guarda en segundo plano.
+     * 
+     * @return true si el modo de escritura es buffered, false en caso contrario.
+     */
+    public boolean isEnabled() {
+        return MODE_BUFFERED.equalsIgnoreCase(mode);
+    }
+
+    /**
+     * Guarda en memoria el estado de una subscripción, conservando el mayor
+     * contador de eventos. Si hay una transacción en curso, el estado se guarda
+     * al confirmarse y se descarta si se deshace.
+     * 
+     * @param subscriptionData datos de la subscripción.
+     */
+    public void put(SubscriptionData subscriptionData) {
+        Long id = subscriptionData.getId();
+        State state = new State(subscriptionData.getEvents(), subscriptionData.getStatus(),
+                subscriptionData.getUpdated());
+        TransactionSupport.afterCommit(() -> states.merge(id, state, State::merge));
+    }
+
+    /**
+     * Sustituye el estado pendiente de una subscripción por el de la subscripción
+     * guardada completa en base de datos, conservando el contador de eventos
+     * pendiente y la fecha de actualización más reciente.
+     * 
+     * @param subscriptionData datos de la subscripción guardada.
+     */
+    public void replaceStatus(SubscriptionData subscriptionData) {
+        states.computeIfPresent(subscriptionData.getId(), (id, state) -> {
+            Date updated = state.updated;
+            if (updated == null || (subscriptionData.getUpdated() != null
+                    && subscriptionData.getUpdated().after(updated))) {
+                updated = subscriptionData.getUpdated();
+            }
+            return new State(state.events, subscriptionData.getStatus(), updated);
+        });
+    }
+
+    /**
+     * Completa los datos de una subscripción leídos de base de datos con el estado
+     * pendiente de guardar, si lo hay.
+     * 
+     * @param subscriptionData datos de la subscripción.
+     * @return los mismos datos de la subscripción.
+     */
+    public SubscriptionData apply(SubscriptionData subscriptionData) {
+        State state = states.get(subscriptionData.getId());
+        if (state != null) {
+            if (state.events != null
+                    && (subscriptionData.getEvents() == null || state.events > subscriptionData.getEvents())) {
+                subscriptionData.setEvents(state.events);
+            }
+            subscriptionData.setStatus(state.status);
+            subscriptionData.setUpdated(state.updated);
+        }
+        return subscriptionData;
+    }
+
+    /**
+     * Guarda en base de datos el estado pendiente de las subscripciones, en lotes.
+     * Los estados que cambian mientras se guardan se conservan para el siguiente
+     * volcado.
+     */
+    @Scheduled(fixedDelayString = "${fhir.subscription.state.flush.interval:1000}")
+    public void flush() {
+        if (states.isEmpty()) {
+            return;
+        }
+
+        List<Map.Entry<Long, State>> entries = new ArrayList<>(states.entrySet());
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            List<Map.Entry<Long, State>> batch = entries.subList(i, Math.min(i + batchSize, entries.size()));
+            List<Object[]> args = new ArrayList<>(batch.size());
+            for (Map.Entry<Long, State> entry : batch) {
+                State state = entry.getValue();
+                args.add(new Object[] { state.events, state.events, state.status,
+                        state.updated != null ? new Timestamp(state.updated.getTime()) : null, entry.getKey() });
+            }
+
+            try {
+                jdbcTemplate.batchUpdate(UPDATE_SQL, args);
+            } catch (Exception e) {
+                logger.error("Error guardando el estado de {} subscripciones: {}", batch.size(), e.getMessage());
+                return;
+            }
+
+            // Descarta los estados guardados que no han cambiado mientras tanto
+            for (Map.Entry<Long, State> entry : batch) {
+                states.remove(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Guarda el estado pendiente al detener la aplicación.
+     */
+    @PreDestroy
+    public void shutdown() {
+        flush();
+        if (!states.isEmpty()) {
+            logger.warn("No se ha podido guardar el estado de {} subscripciones", states.size());
+        }
+    }
+
+    /**
+     * Estado pendiente de guardar de una subscripción.
+     */
+    private static final class State {
+
+        private final Long events;
+        private final String status;
+        private final Date updated;
+
+        private State(Long events, String status, Date updated) {
+            this.events = events;
+            this.status = status;
+            this.updated = updated;
+        }
+
+        private static State merge(State previous, State current) {
+            Long events = current.events;
+            if (previous.events != null && (events == null || previous.events > events)) {
+                events = previous.events;
+            }
+            return new State(events, current.status, current.updated);
+        }
+    }
+
+}
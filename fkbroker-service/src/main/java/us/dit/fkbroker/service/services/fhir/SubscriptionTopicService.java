@@ -36,6 +36,7 @@ import us.dit.fkbroker.service.entities.db.Trigger;
 import us.dit.fkbroker.service.entities.domain.SubscriptionTopicDetails;
 import us.dit.fkbroker.service.entities.domain.SubscriptionTopicEntry;
 import us.dit.fkbroker.service.repositories.SubscriptionTopicRepository;
+import us.dit.fkbroker.service.services.kie.RoutingTable;
 import us.dit.fkbroker.service.services.mapper.SubscriptionTopicMapper;
 
 /**
@@ -53,11 +54,13 @@ public class SubscriptionTopicService {
     private final TriggerService triggerService;
     private final SubscriptionTopicRepository subscriptionTopicRepository;
     private final SubscriptionTopicMapper subscriptionTopicMapper;
+    private final RoutingTable routingTable;
 
     /**
      * Constructor que inyecta los servicio {@link FhirService} y
-     * {@link TriggerService}, el repositorio {@link SubscriptionTopicRepository} y
-     * el componente {@link SubscriptionTopicMapper}.
+     * {@link TriggerService}, el repositorio {@link SubscriptionTopicRepository},
+     * el componente {@link SubscriptionTopicMapper} y la tabla de rutas
+     * {@link RoutingTable}.
      * 
      * @param fhirService                 servicio que realiza operaciones sobre
      *                                    servidores FHIR.
@@ -67,14 +70,18 @@ public class SubscriptionTopicService {
      *                                    {@link Topic}.
      * @param subscriptionTopicMapper     componente que transforma Subscription
      *                                    Topics.
+     * @param routingTable                tabla de rutas que se descarta al
+     *                                    modificar los topics.
      */
     @Autowired
     public SubscriptionTopicService(FhirService fhirService, TriggerService triggerService,
-            SubscriptionTopicRepository subscriptionTopicRepository, SubscriptionTopicMapper subscriptionTopicMapper) {
+            SubscriptionTopicRepository subscriptionTopicRepository, SubscriptionTopicMapper subscriptionTopicMapper,
+            RoutingTable routingTable) {
         this.fhirService = fhirService;
         this.triggerService = triggerService;
         this.subscriptionTopicRepository = subscriptionTopicRepository;
         this.subscriptionTopicMapper = subscriptionTopicMapper;
+        this.routingTable = routingTable;
     }
 
     /**
@@ -175,6 +182,10 @@ public class SubscriptionTopicService {
         // Elimina de la base de datos los SubscriptionTopics eliminados
         subscriptionTopicRepository.deleteAll(topicsToDelete);
 
+        if (!topicsToCreate.isEmpty() || !topicsToDelete.isEmpty()) {
+            routingTable.invalidate();
+        }
+
         // Mapea los SubscriptionTopic
         return serverTopics.stream().map(subscriptionTopicMapper::toEntry).collect(Collectors.toList());
     }
@@ -186,6 +197,7 @@ public class SubscriptionTopicService {
      */
     public void deleteSubscriptionTopics(FhirServer server) {
         subscriptionTopicRepository.deleteAllByServer(server);
+        routingTable.invalidate();
     }
 
 }
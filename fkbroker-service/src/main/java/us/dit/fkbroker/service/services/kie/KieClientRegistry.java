@@ -0,0 +1,237 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.kie;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+
+import org.kie.server.api.marshalling.MarshallingFormat;
+import org.kie.server.client.KieServicesClient;
+import org.kie.server.client.KieServicesConfiguration;
+import org.kie.server.client.KieServicesFactory;
+import org.kie.server.client.ProcessServicesClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import us.dit.fkbroker.service.entities.db.KieServer;
+
+/**
+ * Registro de clientes KIE de larga duración. Mantiene un
+ * {@link KieServicesClient} y su {@link ProcessServicesClient} por cada
+ * servidor KIE (URL y credenciales), evitando construir un cliente nuevo, con
+ * su correspondiente petición de información al servidor, por cada señal.
+ * 
+ * Los clientes REST de KIE utilizan {@link java.net.HttpURLConnection}, por lo
+ * que comparten el pool de conexiones keep-alive de la JVM. Su tamaño se
+ * configura con la propiedad de sistema {@code http.maxConnections}.
+ * 
+ * Los aciertos y fallos del registro y el tiempo de construcción de los
+ * clientes se publican en las métricas fkbroker.kie.client.cache y
+ * fkbroker.kie.client.construction.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class KieClientRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(KieClientRegistry.class);
+
+    @Value("${kie.client.timeout:10000}")
+    private Long timeout;
+    @Value("${kie.client.capabilities:BPM}")
+    private List<String> capabilities;
+
+    private final ConcurrentMap<String, KieClients> clients = new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong constructions = new AtomicLong();
+    private final AtomicLong constructionNanos = new AtomicLong();
+
+    private final MeterRegistry registry;
+
+    /**
+     * Constructor que inyecta el registro de métricas.
+     * 
+     * @param registry registro en el que se publican los aciertos, los fallos y
+     *                 el tiempo de construcción de los clientes.
+     */
+    @Autowired
+    public KieClientRegistry(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Registra las métricas de aciertos, fallos y construcción de clientes.
+     */
+    @PostConstruct
+    public void init() {
+        FunctionCounter.builder("fkbroker.kie.client.cache", hits, AtomicLong::get).tag("result", "hit")
+                .description("Clientes KIE obtenidos del registro").register(registry);
+        FunctionCounter.builder("fkbroker.kie.client.cache", misses, AtomicLong::get).tag("result", "miss")
+                .description("Clientes KIE no encontrados en el registro").register(registry);
+        FunctionTimer
+                .builder("fkbroker.kie.client.construction", this, KieClientRegistry::getConstructions,
+                        KieClientRegistry::getConstructionNanos, TimeUnit.NANOSECONDS)
+                .description("Tiempo de construcción de los clientes KIE").register(registry);
+    }
+
+    /**
+     * Obtiene los clientes de un servidor KIE, creándolos si no existen.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return los clientes del servidor KIE.
+     */
+    public KieClients getClients(KieServer kieServer) {
+        String key = getKey(kieServer);
+
+        KieClients kieClients = clients.get(key);
+        if (kieClients != null) {
+            hits.incrementAndGet();
+            return kieClients;
+        }
+
+        misses.incrementAndGet();
+        return clients.computeIfAbsent(key, k -> createClients(kieServer));
+    }
+
+    /**
+     * Elimina del registro los clientes de un servidor KIE. Se debe invocar cuando
+     * se añade, modifica o elimina un servidor.
+     * 
+     * @param url URL del servidor KIE.
+     */
+    public void invalidate(String url) {
+        if (clients.values().removeIf(kieClients -> kieClients.getUrl().equals(url))) {
+            logger.info("Se invalidan los clientes del servidor KIE {}", url);
+        }
+    }
+
+    /**
+     * Elimina todos los clientes del registro.
+     */
+    public void invalidateAll() {
+        clients.clear();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getConstructions() {
+        return constructions.get();
+    }
+
+    /**
+     * Obtiene el tiempo total empleado en construir clientes.
+     * 
+     * @return el tiempo total de construcción en nanosegundos.
+     */
+    public long getConstructionNanos() {
+        return constructionNanos.get();
+    }
+
+    /**
+     * Crea los clientes de un servidor KIE. Si se configuran las capacidades del
+     * servidor, el cliente no necesita consultarlas al servidor al construirse.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return los clientes creados.
+     */
+    private KieClients createClients(KieServer kieServer) {
+        long start = System.nanoTime();
+
+        // Cada servidor puede tener su propio tiempo máximo de espera
+        long serverTimeout = kieServer.getTimeout() != null ? kieServer.getTimeout() : timeout;
+        KieServicesConfiguration conf = KieServicesFactory.newRestConfiguration(kieServer.getUrl(),
+                kieServer.getUsu(), kieServer.getPwd(), serverTimeout);
+        conf.setMarshallingFormat(MarshallingFormat.JSON);
+        if (capabilities != null && !capabilities.isEmpty()) {
+            conf.setCapabilities(capabilities);
+        }
+        KieServicesClient kieServicesClient = KieServicesFactory.newKieServicesClient(conf);
+        ProcessServicesClient processClient = kieServicesClient.getServicesClient(ProcessServicesClient.class);
+
+        long elapsed = System.nanoTime() - start;
+        constructions.incrementAndGet();
+        constructionNanos.addAndGet(elapsed);
+        logger.debug("Cliente KIE creado para {} en {} ms", kieServer.getUrl(), elapsed / 1_000_000);
+
+        return new KieClients(kieServer.getUrl(), kieServicesClient, processClient);
+    }
+
+    /**
+     * Obtiene la clave del registro a partir de la URL y las credenciales del
+     * servidor.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return la clave del registro.
+     */
+    private String getKey(KieServer kieServer) {
+        return kieServer.getUrl() + '\u0000' + kieServer.getUsu() + '\u0000' + kieServer.getPwd();
+    }
+
+    /**
+     * Clientes asociados a un servidor KIE.
+     */
+    public static class KieClients {
+
+        private final String url;
+        private final KieServicesClient kieServicesClient;
+        private final ProcessServicesClient processServicesClient;
+
+        public KieClients(String url, KieServicesClient kieServicesClient,
+                ProcessServicesClient processServicesClient) {
+            this.url = url;
+            this.kieServicesClient = kieServicesClient;
+            this.processServicesClient = processServicesClient;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public KieServicesClient getKieServicesClient() {
+            return kieServicesClient;
+        }
+
+        public ProcessServicesClient getProcessServicesClient() {
+            return processServicesClient;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.kie;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+import org.kie.server.api.model.KieContainerResource;
+import org.kie.server.api.model.KieContainerResourceList;
+import org.kie.server.api.model.KieContainerStatus;
+import org.kie.server.api.model.ServiceResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.repositories.KieServerRepository;
+
+/**
+ * Caché de la topología de contenedores de los servidores KIE. Guarda, por cada
+ * servidor, los identificadores de los contenedores en estado STARTED, de modo
+ * que el envío de señales no necesite consultar los contenedores en cada
+ * evento. La caché se refresca periódicamente en segundo plano, bajo demanda o
+ * cuando un envío detecta que un contenedor ya no existe.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class KieContainerCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(KieContainerCache.class);
+
+    private final KieServerRepository kieServerRepository;
+    private final KieClientRegistry kieClientRegistry;
+
+    private final ConcurrentMap<String, List<String>> containers = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor que inyecta el repositorio {@link KieServerRepository} y el
+     * registro de clientes {@link KieClientRegistry}.
+     * 
+     * @param kieServerRepository repositorio JPA de la entidad {@link KieServer}.
+     * @param kieClientRegistry   registro de clientes KIE.
+     */
+    @Autowired
+    public KieContainerCache(KieServerRepository kieServerRepository, KieClientRegistry kieClientRegistry) {
+        this.kieServerRepository = kieServerRepository;
+        this.kieClientRegistry = kieClientRegistry;
+    }
+
+    /**
+     * Obtiene los contenedores arrancados de un servidor KIE. Si no están en la
+     * caché se consultan al servidor.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return el listado de identificadores de contenedores arrancados.
+     */
+    public List<String> getContainers(KieServer kieServer) {
+        List<String> containerIds = containers.get(kieServer.getUrl());
+        if (containerIds == null) {
+            containerIds = refresh(kieServer);
+        }
+        return containerIds;
+    }
+
+    /**
+     * Obtiene una copia de la topología de todos los servidores en caché.
+     * 
+     * @return un mapa con la URL de cada servidor y sus contenedores arrancados.
+     */
+    public Map<String, List<String>> getAllContainers() {
+        return new HashMap<>(containers);
+    }
+
+    /**
+     * Consulta los contenedores de un servidor KIE y actualiza la caché,
+     * descartando los que no se encuentran en estado STARTED.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return el listado de identificadores de contenedores arrancados.
+     */
+    public List<String> refresh(KieServer kieServer) {
+        ServiceResponse<KieContainerResourceList> response = kieClientRegistry.getClients(kieServer)
+                .getKieServicesClient().listContainers();
+        if (response.getType() != ServiceResponse.ResponseType.SUCCESS) {
+            throw new RuntimeException("Error obteniendo los contenedores de " + kieServer.getUrl() + ": "
+                    + response.getMsg());
+        }
+
+        List<KieContainerResource> kieContainers = response.getResult().getContainers();
+        List<String> containerIds = kieContainers == null ? Collections.emptyList()
+                : kieContainers.stream().filter(container -> container.getStatus() == KieContainerStatus.STARTED)
+                        .map(KieContainerResource::getContainerId).collect(Collectors.toList());
+
+        List<String> previous = containers.put(kieServer.getUrl(), Collections.unmodifiableList(containerIds));
+        if (previous == null || !previous.equals(containerIds)) {
+            logger.info("Contenedores arrancados en {}: {}", kieServer.getUrl(), containerIds);
+        }
+
+        return containerIds;
+    }
+
+    /**
+     * Refresca la topología de todos los servidores KIE configurados.
+     */
+    @Scheduled(fixedRateString = "${kie.containers.refresh.rate:60000}", initialDelayString = "${kie.containers.refresh.rate:60000}")
+    public void refreshAll() {
+        for (KieServer kieServer : kieServerRepository.findAll()) {
+            try {
+                refresh(kieServer);
+            } catch (Exception e) {
+                logger.warn("No se han podido refrescar los contenedores de {}: {}", kieServer.getUrl(),
+                        e.getMessage());
+                containers.remove(kieServer.getUrl());
+            }
+        }
+    }
+
+    /**
+     * Elimina de la caché la topología de un servidor KIE.
+     * 
+     * @param url URL del servidor KIE.
+     */
+    public void invalidate(String url) {
+        containers.remove(url);
+    }
+
+}
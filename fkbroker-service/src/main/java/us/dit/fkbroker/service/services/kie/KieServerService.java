@@ -22,20 +22,17 @@ package us.dit.fkbroker.service.services.kie;
 
 import java.util.List;
 
-import org.kie.server.api.marshalling.MarshallingFormat;
-import org.kie.server.api.model.KieContainerResource;
-import org.kie.server.api.model.KieContainerResourceList;
-import org.kie.server.client.KieServicesClient;
-import org.kie.server.client.KieServicesConfiguration;
-import org.kie.server.client.KieServicesFactory;
-import org.kie.server.client.ProcessServicesClient;
+import org.kie.server.common.rest.KieServicesHttpException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
 import us.dit.fkbroker.service.repositories.KieServerRepository;
+import us.dit.fkbroker.service.services.kie.KieClientRegistry.KieClients;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
 
 /**
  * Servicio para gestionar las operaciones sobre los servidores KIE.
@@ -52,6 +49,14 @@ public class KieServerService {
 
     @Autowired
     private KieServerRepository kieServerRepository;
+    @Autowired
+    private KieClientRegistry kieClientRegistry;
+    @Autowired
+    private KieContainerCache kieContainerCache;
+    @Autowired
+    private RoutingTable routingTable;
+    @Autowired
+    private PipelineMetrics pipelineMetrics;
 
     /**
      * Obtiene todos los servidores KIE.
@@ -70,7 +75,12 @@ public class KieServerService {
      * @return el objeto KieServer guardado.
      */
     public KieServer saveKieServer(KieServer kieServer) {
-        return kieServerRepository.save(kieServer);
+        KieServer savedKieServer = kieServerRepository.save(kieServer);
+        // Las credenciales pueden haber cambiado, se descartan los clientes existentes
+        kieClientRegistry.invalidate(savedKieServer.getUrl());
+        kieContainerCache.invalidate(savedKieServer.getUrl());
+        routingTable.invalidate();
+        return savedKieServer;
     }
 
     /**
@@ -80,47 +90,72 @@ public class KieServerService {
      */
     public void deleteKieServer(String url) {
         kieServerRepository.deleteById(url);
+        kieClientRegistry.invalidate(url);
+        kieContainerCache.invalidate(url);
+        routingTable.invalidate();
     }
 
     /**
-     * Envía una señal a todos los servidores KIE configurados. Convendría hacer un
-     * método específico para enviar a UN servidor KIE e invocar a este desde
-     * sendSignalToAllKieServers
+     * Envía una señal a un contenedor de un servidor KIE. Si el contenedor ya no
+     * existe (404) se refresca la topología del servidor para los siguientes
+     * envíos. La latencia y el resultado de cada envío se registran en las
+     * métricas del servidor KIE.
      * 
-     * @param signal  nombre de la señal a enviar.
-     * @param message mensaje a enviar como señal.
+     * @param kieServer   datos del servidor KIE.
+     * @param containerId identificador del contenedor.
+     * @param signal      nombre de la señal a enviar.
+     * @param message     mensaje a enviar como señal.
+     * @return el resultado del envío.
      */
-    public void sendSignalToAllKieServers(String signal, String message) {
-        List<KieServer> kieServers = getAllKieServers();
-        for (KieServer kieServer : kieServers) {
-            String serverUrl = kieServer.getUrl();
-            String username = kieServer.getUsu();
-            String password = kieServer.getPwd();
+    public SignalResult sendSignalToContainer(KieServer kieServer, String containerId, String signal,
+            Object message) {
+        long start = System.nanoTime();
+        SignalResult result = doSendSignalToContainer(kieServer, containerId, signal, message);
+        pipelineMetrics.recordKieSignal(kieServer.getUrl(), result.isSuccess(), System.nanoTime() - start);
+        return result;
+    }
 
-            MarshallingFormat FORMAT = MarshallingFormat.JSON;
-            KieServicesConfiguration conf;
-            KieServicesClient kieServicesClient;
-            ProcessServicesClient processClient;
-            try {
-                conf = KieServicesFactory.newRestConfiguration(serverUrl, username, password);
-                conf.setMarshallingFormat(FORMAT);
-                kieServicesClient = KieServicesFactory.newKieServicesClient(conf);
-                processClient = kieServicesClient.getServicesClient(ProcessServicesClient.class);
-            } catch (Exception e) {
-                logger.error("Error creando KieServicesClient o obteniendo ProcessServicesClient: ", e);
-                continue;
-            }
-            // Envío la señal a cada contenedor del servidor
-            try {
-                KieContainerResourceList containersList = kieServicesClient.listContainers().getResult();
-                List<KieContainerResource> kieContainers = containersList.getContainers();
-                for (KieContainerResource container : kieContainers) {
-                    logger.info("Enviando a " + serverUrl + ". la señal " + signal);
-                    processClient.signal(container.getContainerId(), signal, message);
-                }
-            } catch (Exception e) {
-                logger.error("Error enviando señal a los contenedores: ", e);
+    /**
+     * Realiza el envío de una señal a un contenedor de un servidor KIE.
+     * 
+     * @see #sendSignalToContainer(KieServer, String, String, Object)
+     */
+    private SignalResult doSendSignalToContainer(KieServer kieServer, String containerId, String signal,
+            Object message) {
+        String serverUrl = kieServer.getUrl();
+        long start = System.currentTimeMillis();
+
+        try {
+            KieClients kieClients = kieClientRegistry.getClients(kieServer);
+            logger.info("Enviando a " + serverUrl + ". la señal " + signal);
+            kieClients.getProcessServicesClient().signal(containerId, signal, message);
+            return SignalResult.success(serverUrl, containerId, signal, System.currentTimeMillis() - start);
+        } catch (KieServicesHttpException e) {
+            logger.error("Error enviando señal al contenedor " + containerId + ": ", e);
+            if (e.getHttpCode() != null && e.getHttpCode() == 404) {
+                // La topología ha cambiado, se refresca para los siguientes envíos
+                refreshContainers(kieServer);
             }
+            return SignalResult.failure(serverUrl, containerId, signal, e.getMessage(),
+                    System.currentTimeMillis() - start);
+        } catch (Exception e) {
+            logger.error("Error enviando señal al contenedor " + containerId + ": ", e);
+            return SignalResult.failure(serverUrl, containerId, signal, e.getMessage(),
+                    System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * Refresca la caché de contenedores de un servidor KIE.
+     * 
+     * @param kieServer datos del servidor KIE.
+     */
+    private void refreshContainers(KieServer kieServer) {
+        try {
+            kieContainerCache.refresh(kieServer);
+        } catch (Exception e) {
+            logger.warn("No se han podido refrescar los contenedores de {}", kieServer.getUrl());
+            kieContainerCache.invalidate(kieServer.getUrl());
         }
     }
 }
@@ -20,15 +20,22 @@
 **/
 package us.dit.fkbroker.service.services.kie;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
-import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
-import us.dit.fkbroker.service.entities.db.Signal;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.entities.domain.SignalRoute;
 import us.dit.fkbroker.service.services.fhir.FhirService;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
 
 /**
  * Servicio para gestionar las operaciones sobre serviores y señales KIE.
@@ -42,29 +49,137 @@ public class KieService {
     
     private static final Logger logger = LogManager.getLogger(FhirService.class);
 
-    private final KieServerService kieServerService;
-    private final SignalService signalService;
+    @Value("${kie.outbox.enabled:true}")
+    private Boolean outboxEnabled;
+
+    private final RoutingTable routingTable;
+    private final KieSignalDispatcher kieSignalDispatcher;
+    private final SignalOutboxService signalOutboxService;
+    private final PipelineMetrics pipelineMetrics;
+
+    /**
+     * Constructor que inyecta la tabla de rutas {@link RoutingTable}, el
+     * componente {@link KieSignalDispatcher}, el servicio
+     * {@link SignalOutboxService} y el componente {@link PipelineMetrics}.
+     * 
+     * @param routingTable        tabla en memoria con las señales y los
+     *                            servidores KIE de cada trigger.
+     * @param kieSignalDispatcher componente que reparte los envíos entre los
+     *                            servidores KIE.
+     * @param signalOutboxService servicio que gestiona la bandeja de salida de
+     *                            señales.
+     * @param pipelineMetrics     componente que registra las métricas de las
+     *                            etapas del procesamiento.
+     */
+    public KieService(RoutingTable routingTable, KieSignalDispatcher kieSignalDispatcher,
+            SignalOutboxService signalOutboxService, PipelineMetrics pipelineMetrics) {
+        this.routingTable = routingTable;
+        this.kieSignalDispatcher = kieSignalDispatcher;
+        this.signalOutboxService = signalOutboxService;
+        this.pipelineMetrics = pipelineMetrics;
+    }
+
+    /**
+     * Envía las señales asociadas a un trigger por cada recurso notificado. Cada
+     * señal se envía a sus destinos: todos los servidores KIE o el servidor y el
+     * contenedor configurados en la señal. Si la señal está configurada en lote,
+     * se envía una única señal por contenedor cuyo contenido es el listado de
+     * referencias. Los envíos se realizan de forma concurrente, de modo que un
+     * servidor lento no retrasa la entrega al resto. Las reglas de envío se
+     * obtienen precompiladas de la tabla de rutas en memoria, sin acceder a la
+     * base de datos.
+     * 
+     * Si la bandeja de salida está activada, las señales sólo se guardan en ella
+     * (dentro de la transacción en curso) y se entregan en segundo plano; en ese
+     * caso el futuro devuelto se completa sin resultados.
+     * 
+     * La resolución de las reglas de envío y el reparto de los envíos (o su
+     * guardado en la bandeja de salida) se registran como la etapa de resolución.
+     * 
+     * @param idTrigger  identificador del trigger.
+     * @param references referencias de los recursos notificados.
+     * @return un futuro que se completa con el resultado de cada envío.
+     */
+    public CompletableFuture<List<SignalResult>> sendSignal(Long idTrigger, List<String> references) {
+        Timer.Sample sample = pipelineMetrics.start();
+        try {
+            return resolveAndDispatch(idTrigger, references);
+        } finally {
+            pipelineMetrics.stop(sample, PipelineMetrics.STAGE_RESOLVE, pipelineMetrics.tags(idTrigger));
+        }
+    }
 
     /**
-     * Constructor que inyecta los servicios {@link KieServerService} y
-     * {@link SignalService}
+     * Indica si las señales se guardan en la bandeja de salida en lugar de
+     * enviarse directamente.
      * 
-     * @param kieServerService servicio utilizado para gestionar los servidores KIE.
-     * @param signalService    servicio utilizado para gestionar las señales.
+     * @return true si la bandeja de salida está activada, false en caso
+     *         contrario.
      */
-    public KieService(KieServerService kieServerService, SignalService signalService) {
-        this.kieServerService = kieServerService;
-        this.signalService = signalService;
+    public boolean isOutboxEnabled() {
+        return Boolean.TRUE.equals(outboxEnabled);
     }
 
-    public void sendSignal(Long idTrigger, List<String> references) {
-        // Se obtiene la señal que se debe enviar
-        Optional<Signal> optionalSignal = signalService.getSignalByTrigger(idTrigger);
-        if (optionalSignal.isPresent()) {
-            // Se envía una señal a todos los servidores KIE por cada evento notificado
-            for (String reference : references) {
-                logger.info("Llamamos a sendsignal. Id del recurso: {}", reference);
-                kieServerService.sendSignalToAllKieServers(optionalSignal.get().getName(), reference);
+    /**
+     * Obtiene las reglas de envío de las señales de un trigger y reparte los
+     * envíos o los guarda en la bandeja de salida.
+     * 
+     * @param idTrigger  identificador del trigger.
+     * @param references referencias de los recursos notificados.
+     * @return un futuro que se completa con el resultado de cada envío.
+     */
+    private CompletableFuture<List<SignalResult>> resolveAndDispatch(Long idTrigger, List<String> references) {
+        // Se obtienen las reglas de envío de las señales del trigger
+        List<SignalRoute> signalRoutes = routingTable.getSignalRoutes(idTrigger);
+        if (signalRoutes.isEmpty() || references.isEmpty()) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        if (outboxEnabled) {
+            for (SignalRoute signalRoute : signalRoutes) {
+                logger.info("Se guardan en la bandeja de salida las señales {} de los recursos: {}",
+                        signalRoute.getSignal(), references);
+                signalOutboxService.enqueue(signalRoute, references);
+            }
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+
+        List<CompletableFuture<List<SignalResult>>> futures = new ArrayList<>();
+        for (SignalRoute signalRoute : signalRoutes) {
+            if (signalRoute.isBatch()) {
+                // Se envía una única señal con todas las referencias de la notificación
+                logger.info("Llamamos a sendsignal en lote. Ids de los recursos: {}", references);
+                futures.add(kieSignalDispatcher.dispatch(signalRoute.getKieServers(), signalRoute.getContainerId(),
+                        signalRoute.getSignal(), new ArrayList<>(references)));
+            } else {
+                // Se envía una señal a los servidores destino por cada evento notificado
+                for (String reference : references) {
+                    logger.info("Llamamos a sendsignal. Id del recurso: {}", reference);
+                    futures.add(kieSignalDispatcher.dispatch(signalRoute.getKieServers(),
+                            signalRoute.getContainerId(), signalRoute.getSignal(), reference));
+                }
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().flatMap(future -> future.join().stream())
+                        .collect(Collectors.toList()))
+                .whenComplete((results, error) -> logResults(results));
+    }
+
+    /**
+     * Registra en el log los envíos que han fallado.
+     * 
+     * @param results resultados de los envíos.
+     */
+    private void logResults(List<SignalResult> results) {
+        if (results == null) {
+            return;
+        }
+        for (SignalResult result : results) {
+            if (!result.isSuccess()) {
+                logger.warn("Fallo enviando la señal {} a {} ({}): {}", result.getSignal(), result.getServerUrl(),
+                        result.getContainerId(), result.getError());
             }
         }
     }
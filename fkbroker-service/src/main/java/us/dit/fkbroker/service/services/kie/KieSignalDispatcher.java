@@ -0,0 +1,286 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.kie;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import us.dit.fkbroker.service.conf.BoundedExecutor;
+import us.dit.fkbroker.service.conf.ExecutorSupport;
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+
+/**
+ * Componente que reparte el envío de señales entre los servidores KIE y sus
+ * contenedores de forma concurrente.
+ * 
+ * Cada servidor KIE dispone de su propio ejecutor acotado (carril), con un
+ * número máximo de envíos simultáneos y una cola limitada, de modo que un
+ * servidor lento sólo retrasa los envíos dirigidos a él. Cada intento de envío
+ * produce un {@link SignalResult} independiente. Con el modo de ejecución
+ * virtual (broker.threads.mode) cada envío se realiza en su propio hilo
+ * virtual, por lo que los envíos en curso de un servidor sólo están limitados
+ * por la suma de su concurrencia y la capacidad de la cola. Los carriles
+ * publican su ocupación y las tareas rechazadas en las métricas executor.* con
+ * el nombre kie.signal y la URL del servidor.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class KieSignalDispatcher {
+
+    private static final Logger logger = LoggerFactory.getLogger(KieSignalDispatcher.class);
+
+    @Value("${kie.signal.concurrency:4}")
+    private Integer defaultConcurrency;
+    @Value("${kie.signal.queue.capacity:1000}")
+    private Integer queueCapacity;
+    @Value("${kie.client.timeout:10000}")
+    private Long defaultTimeout;
+    @Value("${broker.threads.mode:platform}")
+    private String threadsMode;
+
+    private final KieServerService kieServerService;
+    private final KieContainerCache kieContainerCache;
+    private final MeterRegistry registry;
+
+    private final ConcurrentMap<String, BoundedExecutor> lanes = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor que inyecta el servicio {@link KieServerService}, la caché
+     * {@link KieContainerCache} y el registro de métricas.
+     * 
+     * @param kieServerService  servicio utilizado para gestionar los servidores
+     *                          KIE.
+     * @param kieContainerCache caché de los contenedores de los servidores KIE.
+     * @param registry          registro en el que se publican las métricas de
+     *                          los carriles.
+     */
+    @Autowired
+    public KieSignalDispatcher(KieServerService kieServerService, KieContainerCache kieContainerCache,
+            MeterRegistry registry) {
+        this.kieServerService = kieServerService;
+        this.kieContainerCache = kieContainerCache;
+        this.registry = registry;
+    }
+
+    /**
+     * Envía una señal a los contenedores arrancados de los servidores KIE
+     * indicados.
+     * 
+     * @param kieServers  servidores KIE a los que se envía la señal.
+     * @param containerId contenedor destino o null para enviarla a todos los
+     *                    contenedores arrancados.
+     * @param signal      nombre de la señal a enviar.
+     * @param message     mensaje a enviar como señal.
+     * @return un futuro que se completa con el resultado de cada envío.
+     */
+    public CompletableFuture<List<SignalResult>> dispatch(List<KieServer> kieServers, String containerId,
+            String signal, Object message) {
+        List<CompletableFuture<List<SignalResult>>> futures = new ArrayList<>();
+        for (KieServer kieServer : kieServers) {
+            futures.add(dispatchToServer(kieServer, containerId, signal, message));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * Envía una señal a los contenedores arrancados de un servidor KIE. Si se
+     * indica un contenedor destino y no está arrancado en el servidor, el envío
+     * se considera fallido.
+     * 
+     * @param kieServer   datos del servidor KIE.
+     * @param containerId contenedor destino o null para enviarla a todos los
+     *                    contenedores arrancados.
+     * @param signal      nombre de la señal a enviar.
+     * @param message     mensaje a enviar como señal.
+     * @return un futuro que se completa con el resultado de cada envío.
+     */
+    public CompletableFuture<List<SignalResult>> dispatchToServer(KieServer kieServer, String containerId,
+            String signal, Object message) {
+        return dispatchToServer(kieServer, containerId, signal, message, Collections.emptySet());
+    }
+
+    /**
+     * Envía una señal a los contenedores arrancados de un servidor KIE, salvo a
+     * los indicados. Si el servidor no tiene contenedores arrancados, o se indica
+     * un contenedor destino y no está arrancado, el envío se considera fallido.
+     * 
+     * @param kieServer   datos del servidor KIE.
+     * @param containerId contenedor destino o null para enviarla a todos los
+     *                    contenedores arrancados.
+     * @param signal      nombre de la señal a enviar.
+     * @param message     mensaje a enviar como señal.
+     * @param skipped     contenedores a los que no se envía la señal, por
+     *                    habérsele entregado ya.
+     * @return un futuro que se completa con el resultado de cada envío.
+     */
+    public CompletableFuture<List<SignalResult>> dispatchToServer(KieServer kieServer, String containerId,
+            String signal, Object message, Set<String> skipped) {
+        BoundedExecutor lane = getLane(kieServer);
+        long timeout = kieServer.getTimeout() != null ? kieServer.getTimeout() : defaultTimeout;
+
+        // Obtiene los contenedores en el carril del servidor, ya que puede requerir
+        // una consulta al servidor si no están en caché
+        CompletableFuture<List<String>> containers;
+        try {
+            containers = CompletableFuture.supplyAsync(() -> kieContainerCache.getContainers(kieServer), lane);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(Collections
+                    .singletonList(SignalResult.failure(kieServer.getUrl(), containerId, signal, "Cola llena", 0)));
+        }
+
+        return containers.handle((startedIds, error) -> {
+            if (error != null) {
+                logger.error("Error obteniendo los contenedores de {}: {}", kieServer.getUrl(), error.getMessage());
+                return CompletableFuture.completedFuture(Collections.singletonList(
+                        SignalResult.failure(kieServer.getUrl(), containerId, signal, error.getMessage(), 0)));
+            }
+
+            // Sin contenedores arrancados la señal no llega a ningún destino
+            if (startedIds.isEmpty()) {
+                return CompletableFuture.completedFuture(Collections.singletonList(SignalResult
+                        .failure(kieServer.getUrl(), containerId, signal, "Sin contenedores arrancados", 0)));
+            }
+
+            // Selecciona el contenedor destino, si la señal tiene uno
+            List<String> containerIds = startedIds;
+            if (containerId != null) {
+                if (!startedIds.contains(containerId)) {
+                    return CompletableFuture.completedFuture(Collections.singletonList(SignalResult
+                            .failure(kieServer.getUrl(), containerId, signal, "Contenedor no arrancado", 0)));
+                }
+                containerIds = Collections.singletonList(containerId);
+            }
+            if (!skipped.isEmpty()) {
+                containerIds = containerIds.stream().filter(targetId -> !skipped.contains(targetId))
+                        .collect(Collectors.toList());
+            }
+
+            // Envía la señal a cada contenedor en paralelo
+            List<CompletableFuture<List<SignalResult>>> futures = new ArrayList<>();
+            for (String targetId : containerIds) {
+                long enqueued = System.currentTimeMillis();
+                futures.add(submit(lane, kieServer, targetId, signal, () -> {
+                    // Descarta el envío si ha esperado en cola más del tiempo máximo
+                    if (System.currentTimeMillis() - enqueued > timeout) {
+                        return SignalResult.failure(kieServer.getUrl(), targetId, signal,
+                                "Tiempo de espera agotado en cola", 0);
+                    }
+                    return kieServerService.sendSignalToContainer(kieServer, targetId, signal, message);
+                }).thenApply(Collections::singletonList));
+            }
+            return allOf(futures);
+        }).thenCompose(future -> future);
+    }
+
+    /**
+     * Detiene los carriles de todos los servidores, esperando a que finalicen los
+     * envíos en curso.
+     */
+    @PreDestroy
+    public void shutdown() {
+        lanes.values().forEach(BoundedExecutor::shutdown);
+        lanes.values().forEach(BoundedExecutor::destroy);
+    }
+
+    /**
+     * Envía una tarea al carril de un servidor, devolviendo un resultado fallido
+     * si la cola del carril está llena.
+     */
+    private CompletableFuture<SignalResult> submit(BoundedExecutor lane, KieServer kieServer, String containerId,
+            String signal, Supplier<SignalResult> task) {
+        try {
+            return CompletableFuture.supplyAsync(task, lane);
+        } catch (RejectedExecutionException e) {
+            logger.warn("Cola de envío llena para {}. Se descarta la señal {}", kieServer.getUrl(), signal);
+            return CompletableFuture
+                    .completedFuture(SignalResult.failure(kieServer.getUrl(), containerId, signal, "Cola llena", 0));
+        }
+    }
+
+    /**
+     * Obtiene el carril de un servidor KIE, creándolo si no existe y ajustando su
+     * concurrencia si ha cambiado la configuración del servidor.
+     * 
+     * @param kieServer datos del servidor KIE.
+     * @return el ejecutor del servidor.
+     */
+    private BoundedExecutor getLane(KieServer kieServer) {
+        int concurrency = kieServer.getMaxConcurrency() != null && kieServer.getMaxConcurrency() > 0
+                ? kieServer.getMaxConcurrency()
+                : defaultConcurrency;
+
+        BoundedExecutor lane = lanes.computeIfAbsent(kieServer.getUrl(), url -> createLane(url, concurrency));
+
+        if (lane.getConcurrency() != concurrency) {
+            lane.setConcurrency(concurrency);
+        }
+
+        return lane;
+    }
+
+    /**
+     * Crea un ejecutor acotado para un servidor KIE y registra sus métricas. Los
+     * hilos finalizan cuando están inactivos, por lo que los servidores eliminados
+     * no mantienen hilos.
+     * 
+     * @param url         URL del servidor KIE.
+     * @param concurrency número máximo de envíos simultáneos.
+     * @return el ejecutor creado.
+     */
+    private BoundedExecutor createLane(String url, int concurrency) {
+        return BoundedExecutor.create("kie.signal", concurrency, queueCapacity,
+                ExecutorSupport.useVirtualThreads(threadsMode), Math.max(defaultTimeout / 1000, 1), registry,
+                Tags.of("kie.server", url));
+    }
+
+    /**
+     * Combina una lista de futuros en uno que se completa con todos los
+     * resultados.
+     */
+    private static CompletableFuture<List<SignalResult>> allOf(List<CompletableFuture<List<SignalResult>>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(v -> futures.stream().flatMap(future -> future.join().stream())
+                        .collect(Collectors.toList()));
+    }
+
+}
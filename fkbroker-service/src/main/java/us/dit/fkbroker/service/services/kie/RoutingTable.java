@@ -0,0 +1,269 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.kie;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.db.Signal;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.Route;
+import us.dit.fkbroker.service.entities.domain.SignalRoute;
+import us.dit.fkbroker.service.repositories.KieServerRepository;
+import us.dit.fkbroker.service.repositories.SignalRepository;
+import us.dit.fkbroker.service.repositories.SubscriptionRepository;
+
+/**
+ * Tabla de rutas en memoria que resuelve, sin acceder a la base de datos, el
+ * endpoint de una notificación en su servidor FHIR, trigger, señales y
+ * servidores KIE destino.
+ * 
+ * Un trigger puede tener varias señales, cada una con un servidor KIE o un
+ * contenedor destino opcional. Las reglas de envío de cada trigger se
+ * precompilan al construir la tabla, con los servidores destino ya resueltos,
+ * por lo que el coste por evento no depende del número de reglas configuradas.
+ * 
+ * La tabla se construye al arrancar la aplicación y se descarta cada vez que
+ * los servicios de administración modifican servidores, topics, subscripciones
+ * o señales; la siguiente consulta la vuelve a construir. Si la modificación se
+ * realiza dentro de una transacción, la tabla se descarta de nuevo al
+ * confirmarla para no conservar datos anteriores al cambio. Cada descarte
+ * incrementa la generación de la tabla, y una tabla sólo se utiliza si se ha
+ * construido en la generación vigente.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class RoutingTable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RoutingTable.class);
+
+    @Value("${fhir.subscription.heartbeat.period:60}")
+    private Integer defaultHeartbeatPeriod;
+
+    private final SubscriptionRepository subscriptionRepository;
+    private final SignalRepository signalRepository;
+    private final KieServerRepository kieServerRepository;
+
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Snapshot snapshot;
+
+    /**
+     * Constructor que inyecta los repositorios {@link SubscriptionRepository},
+     * {@link SignalRepository} y {@link KieServerRepository}.
+     * 
+     * @param subscriptionRepository repositorio JPA de la entidad
+     *                               {@link SubscriptionData}.
+     * @param signalRepository       repositorio JPA de la entidad {@link Signal}.
+     * @param kieServerRepository    repositorio JPA de la entidad
+     *                               {@link KieServer}.
+     */
+    @Autowired
+    public RoutingTable(SubscriptionRepository subscriptionRepository, SignalRepository signalRepository,
+            KieServerRepository kieServerRepository) {
+        this.subscriptionRepository = subscriptionRepository;
+        this.signalRepository = signalRepository;
+        this.kieServerRepository = kieServerRepository;
+    }
+
+    /**
+     * Construye la tabla de rutas al arrancar la aplicación.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void init() {
+        getSnapshot();
+    }
+
+    /**
+     * Obtiene la ruta de un endpoint de notificación.
+     * 
+     * @param id identificador del endpoint (de la subscripción en base de datos).
+     * @return la ruta o null si no existe el endpoint.
+     */
+    public Route getRoute(Long id) {
+        return getSnapshot().routes.get(id);
+    }
+
+    /**
+     * Obtiene las rutas de todos los endpoints de notificación.
+     * 
+     * @return las rutas de la tabla.
+     */
+    public Collection<Route> getRoutes() {
+        return Collections.unmodifiableCollection(getSnapshot().routes.values());
+    }
+
+    /**
+     * Obtiene las reglas de envío de las señales configuradas para un trigger.
+     * 
+     * @param idTrigger identificador del trigger.
+     * @return el listado de reglas del trigger, vacío si no tiene ninguna.
+     */
+    public List<SignalRoute> getSignalRoutes(Long idTrigger) {
+        return getSnapshot().signalRoutes.getOrDefault(idTrigger, Collections.emptyList());
+    }
+
+    /**
+     * Obtiene un servidor KIE por su URL.
+     * 
+     * @param url URL del servidor KIE.
+     * @return el servidor KIE o null si no está configurado.
+     */
+    public KieServer getKieServer(String url) {
+        return getSnapshot().kieServers.get(url);
+    }
+
+    /**
+     * Descarta la tabla de rutas para que se vuelva a construir en la siguiente
+     * consulta.
+     */
+    public void invalidate() {
+        generation.incrementAndGet();
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    generation.incrementAndGet();
+                }
+            });
+        }
+    }
+
+    /**
+     * Obtiene la tabla vigente, construyéndola si no existe o se ha descartado.
+     * Si se descarta mientras se construye, se vuelve a construir, ya que puede
+     * haber leído datos anteriores al cambio.
+     */
+    private Snapshot getSnapshot() {
+        Snapshot current = snapshot;
+        if (current == null || current.generation != generation.get()) {
+            synchronized (this) {
+                current = snapshot;
+                long built = generation.get();
+                while (current == null || current.generation != built) {
+                    current = build(built);
+                    snapshot = current;
+                    built = generation.get();
+                }
+            }
+        }
+        return current;
+    }
+
+    private Snapshot build(long generation) {
+        long start = System.nanoTime();
+
+        List<KieServer> kieServerList = Collections.unmodifiableList(kieServerRepository.findAll());
+        Map<String, KieServer> kieServers = kieServerList.stream()
+                .collect(Collectors.toMap(KieServer::getUrl, kieServer -> kieServer));
+
+        // Precompila las reglas de envío de cada trigger resolviendo sus destinos
+        Map<Long, List<SignalRoute>> signalRoutes = new HashMap<>();
+        for (Signal signal : signalRepository.findAll()) {
+            List<KieServer> targets = kieServerList;
+            if (signal.getKieServer() != null) {
+                KieServer kieServer = kieServers.get(signal.getKieServer());
+                if (kieServer == null) {
+                    logger.warn("La señal {} tiene como destino un servidor KIE no configurado: {}", signal.getName(),
+                            signal.getKieServer());
+                    continue;
+                }
+                targets = Collections.singletonList(kieServer);
+            }
+            signalRoutes.computeIfAbsent(signal.getIdTrigger(), id -> new ArrayList<>())
+                    .add(new SignalRoute(signal.getName(), signal.getBatch(), targets, signal.getContainerId()));
+        }
+        signalRoutes.replaceAll((id, list) -> Collections.unmodifiableList(list));
+
+        Map<Long, Route> routes = new LinkedHashMap<>();
+        for (SubscriptionData subscription : subscriptionRepository.findAll()) {
+            if (subscription.getTopic() == null || subscription.getTopic().getTrigger() == null) {
+                continue;
+            }
+            Long idTrigger = subscription.getTopic().getTrigger().getId();
+            routes.put(subscription.getId(),
+                    new Route(subscription.getId(), subscription.getServer(), subscription.getIdSubscription(),
+                            subscription.getTopic().getIdTopic(), idTrigger, getHeartbeatPeriod(subscription),
+                            signalRoutes.getOrDefault(idTrigger, Collections.emptyList())));
+        }
+
+        logger.info("Tabla de rutas construida: {} endpoints, {} triggers con señal, {} servidores KIE en {} ms",
+                routes.size(), signalRoutes.size(), kieServerList.size(), (System.nanoTime() - start) / 1_000_000);
+        return new Snapshot(generation, routes, signalRoutes, kieServers);
+    }
+
+    /**
+     * Obtiene el periodo de heartbeat esperado de una subscripción: el de la propia
+     * subscripción o, si no se conoce, el configurado por defecto. Si el servidor
+     * no tiene heartbeat activado o el periodo es 0 no se esperan heartbeats.
+     * 
+     * @param subscription datos de la subscripción.
+     * @return el periodo en segundos o null si no se esperan heartbeats.
+     */
+    private Integer getHeartbeatPeriod(SubscriptionData subscription) {
+        if (subscription.getServer() == null || !Boolean.TRUE.equals(subscription.getServer().getHeartbeat())) {
+            return null;
+        }
+        Integer period = subscription.getHeartbeatPeriod() != null ? subscription.getHeartbeatPeriod()
+                : defaultHeartbeatPeriod;
+        return period != null && period > 0 ? period : null;
+    }
+
+    /**
+     * Contenido inmutable de la tabla de rutas.
+     */
+    private static final class Snapshot {
+
+        private final long generation;
+        private final Map<Long, Route> routes;
+        private final Map<Long, List<SignalRoute>> signalRoutes;
+        private final Map<String, KieServer> kieServers;
+
+        private Snapshot(long generation, Map<Long, Route> routes, Map<Long, List<SignalRoute>> signalRoutes,
+                Map<String, KieServer> kieServers) {
+            this.generation = generation;
+            this.routes = routes;
+            this.signalRoutes = signalRoutes;
+            this.kieServers = kieServers;
+        }
+    }
+
+}
@@ -0,0 +1,332 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.kie;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import us.dit.fkbroker.service.entities.db.KieServer;
+import us.dit.fkbroker.service.entities.db.SignalOutbox;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.entities.domain.SignalRoute;
+import us.dit.fkbroker.service.repositories.SignalOutboxRepository;
+
+/**
+ * Servicio que gestiona la bandeja de salida de señales KIE. Las señales se
+ * guardan en base de datos, dentro de la misma transacción que la
+ * actualización de la subscripción, y un proceso en segundo plano las entrega
+ * a los servidores KIE. Las entregas fallidas se reintentan con espera
+ * exponencial y, si superan el número máximo de intentos, quedan como no
+ * entregables para su revisión desde la administración KIE. Los reintentos
+ * sólo se envían a los contenedores a los que no se ha entregado la señal.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Service
+public class SignalOutboxService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SignalOutboxService.class);
+
+    private static final TypeReference<List<String>> REFERENCES_TYPE = new TypeReference<List<String>>() {
+    };
+
+    @Value("${kie.outbox.batch.size:100}")
+    private Integer batchSize;
+    @Value("${kie.outbox.max.attempts:10}")
+    private Integer maxAttempts;
+    @Value("${kie.outbox.backoff.initial:1000}")
+    private Long initialBackoff;
+    @Value("${kie.outbox.backoff.max:300000}")
+    private Long maxBackoff;
+    @Value("${kie.client.timeout:10000}")
+    private Long timeout;
+
+    private final SignalOutboxRepository signalOutboxRepository;
+    private final RoutingTable routingTable;
+    private final KieSignalDispatcher kieSignalDispatcher;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Constructor que inyecta el repositorio {@link SignalOutboxRepository}, la
+     * tabla de rutas {@link RoutingTable} y el componente
+     * {@link KieSignalDispatcher}.
+     * 
+     * @param signalOutboxRepository repositorio JPA de la entidad
+     *                               {@link SignalOutbox}.
+     * @param routingTable           tabla en memoria con los servidores KIE
+     *                               configurados.
+     * @param kieSignalDispatcher    componente que reparte los envíos entre los
+     *                               servidores KIE.
+     */
+    @Autowired
+    public SignalOutboxService(SignalOutboxRepository signalOutboxRepository, RoutingTable routingTable,
+            KieSignalDispatcher kieSignalDispatcher) {
+        this.signalOutboxRepository = signalOutboxRepository;
+        this.routingTable = routingTable;
+        this.kieSignalDispatcher = kieSignalDispatcher;
+    }
+
+    /**
+     * Guarda en la bandeja de salida una señal por cada referencia y servidor KIE
+     * destino de la regla de envío. Si existe una transacción en curso, las
+     * señales se guardan dentro de ella.
+     * 
+     * @param signalRoute regla de envío de la señal.
+     * @param references  referencias de los recursos notificados.
+     */
+    public void enqueue(SignalRoute signalRoute, List<String> references) {
+        List<String> payloads = new ArrayList<>();
+        if (signalRoute.isBatch()) {
+            payloads.add(toPayload(references));
+        } else {
+            payloads.addAll(references);
+        }
+
+        List<SignalOutbox> entries = new ArrayList<>();
+        for (KieServer kieServer : signalRoute.getKieServers()) {
+            for (String payload : payloads) {
+                entries.add(new SignalOutbox(signalRoute.getSignal(), payload, signalRoute.isBatch(),
+                        kieServer.getUrl(), signalRoute.getContainerId()));
+            }
+        }
+
+        signalOutboxRepository.saveAll(entries);
+    }
+
+    /**
+     * Lanza la entrega de las señales pendientes cuyo siguiente intento ha
+     * vencido, sin esperar a que finalice. Antes de cada entrega se aplaza su
+     * siguiente intento, de modo que no se vuelve a lanzar mientras está en curso
+     * aunque se detenga la aplicación. Cada señal se actualiza cuando finaliza su
+     * entrega: las entregadas a todos los contenedores se eliminan de la bandeja;
+     * las fallidas guardan los contenedores entregados y se reprograman con espera
+     * exponencial o se marcan como no entregables.
+     */
+    @Scheduled(fixedDelayString = "${kie.outbox.poll.interval:1000}")
+    public void dispatchPending() {
+        List<SignalOutbox> entries = signalOutboxRepository.findByStatusAndNextAttemptLessThanEqualOrderByNextAttempt(
+                SignalOutbox.PENDING, new Date(), PageRequest.of(0, batchSize));
+
+        for (SignalOutbox entry : entries) {
+            if (!inFlight.add(entry.getId())) {
+                continue;
+            }
+            try {
+                dispatch(entry);
+            } catch (Exception e) {
+                inFlight.remove(entry.getId());
+                logger.error("Error entregando la señal {} de la bandeja de salida: {}", entry.getId(),
+                        e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Obtiene las señales que no se han podido entregar.
+     * 
+     * @return el listado de señales no entregables.
+     */
+    public List<SignalOutbox> getDeadLetters() {
+        return signalOutboxRepository.findByStatusOrderByCreated(SignalOutbox.DEAD);
+    }
+
+    /**
+     * Vuelve a programar la entrega de una señal no entregable.
+     * 
+     * @param id identificador de la señal.
+     */
+    public void retry(Long id) {
+        signalOutboxRepository.findById(id).ifPresent(entry -> {
+            entry.setStatus(SignalOutbox.PENDING);
+            entry.setAttempts(0);
+            entry.setNextAttempt(new Date());
+            signalOutboxRepository.save(entry);
+        });
+    }
+
+    /**
+     * Elimina una señal de la bandeja de salida.
+     * 
+     * @param id identificador de la señal.
+     */
+    public void delete(Long id) {
+        signalOutboxRepository.deleteById(id);
+    }
+
+    /**
+     * Lanza la entrega de una señal a los contenedores a los que aún no se ha
+     * entregado y registra su resultado cuando finaliza.
+     */
+    private void dispatch(SignalOutbox entry) {
+        KieServer kieServer = routingTable.getKieServer(entry.getKieServer());
+        if (kieServer == null) {
+            inFlight.remove(entry.getId());
+            markDead(entry, "Servidor KIE no configurado");
+            return;
+        }
+
+        Object message;
+        try {
+            message = fromPayload(entry);
+        } catch (Exception e) {
+            inFlight.remove(entry.getId());
+            markDead(entry, truncate(e.getMessage()));
+            return;
+        }
+
+        // La entrega puede esperar a la consulta de los contenedores, a la cola del
+        // carril y al envío, cada uno con el tiempo máximo de espera
+        entry.setNextAttempt(new Date(System.currentTimeMillis() + timeout * 3));
+        SignalOutbox leased = signalOutboxRepository.save(entry);
+
+        Set<String> delivered = getDeliveredContainers(leased);
+        kieSignalDispatcher.dispatchToServer(kieServer, leased.getContainerId(), leased.getSignal(), message,
+                delivered).whenComplete((results, error) -> {
+                    try {
+                        complete(leased, delivered, results, error);
+                    } catch (Exception e) {
+                        logger.error("Error actualizando la señal {} de la bandeja de salida: {}", leased.getId(),
+                                e.getMessage());
+                    } finally {
+                        inFlight.remove(leased.getId());
+                    }
+                });
+    }
+
+    /**
+     * Registra el resultado de la entrega de una señal. Se elimina si se ha
+     * entregado a todos los contenedores destino, incluidos los de intentos
+     * anteriores; en otro caso, o si no había ningún contenedor destino, se
+     * guardan los contenedores entregados y se registra el intento fallido.
+     */
+    private void complete(SignalOutbox entry, Set<String> delivered, List<SignalResult> results, Throwable error) {
+        if (error != null) {
+            markFailed(entry, error.getMessage());
+            return;
+        }
+
+        String failure = null;
+        for (SignalResult result : results) {
+            if (result.isSuccess()) {
+                delivered.add(result.getContainerId());
+            } else if (failure == null) {
+                failure = result.getContainerId() + ": " + result.getError();
+            }
+        }
+
+        if (failure == null && delivered.isEmpty()) {
+            failure = "Sin contenedores arrancados";
+        }
+
+        if (failure == null) {
+            signalOutboxRepository.delete(entry);
+        } else {
+            entry.setDeliveredContainers(delivered.isEmpty() ? null : String.join(",", delivered));
+            markFailed(entry, failure);
+        }
+    }
+
+    /**
+     * Obtiene los contenedores a los que ya se ha entregado una señal.
+     */
+    private Set<String> getDeliveredContainers(SignalOutbox entry) {
+        Set<String> delivered = new LinkedHashSet<>();
+        if (entry.getDeliveredContainers() != null && !entry.getDeliveredContainers().isEmpty()) {
+            delivered.addAll(Arrays.asList(entry.getDeliveredContainers().split(",")));
+        }
+        return delivered;
+    }
+
+    /**
+     * Registra un intento fallido, reprogramando la entrega con espera
+     * exponencial o marcándola como no entregable si se superan los intentos.
+     */
+    private void markFailed(SignalOutbox entry, String error) {
+        int attempts = entry.getAttempts() + 1;
+        entry.setAttempts(attempts);
+        entry.setLastError(truncate(error));
+
+        if (attempts >= maxAttempts) {
+            logger.error("Señal {} para {} no entregada tras {} intentos: {}", entry.getSignal(),
+                    entry.getKieServer(), attempts, error);
+            entry.setStatus(SignalOutbox.DEAD);
+        } else {
+            long backoff = Math.min(maxBackoff, initialBackoff << Math.min(attempts - 1, 30));
+            entry.setNextAttempt(new Date(System.currentTimeMillis() + backoff));
+        }
+
+        signalOutboxRepository.save(entry);
+    }
+
+    /**
+     * Marca una señal como no entregable.
+     */
+    private void markDead(SignalOutbox entry, String error) {
+        entry.setStatus(SignalOutbox.DEAD);
+        entry.setLastError(error);
+        signalOutboxRepository.save(entry);
+    }
+
+    private String toPayload(List<String> references) {
+        try {
+            return objectMapper.writeValueAsString(references);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error serializando las referencias", e);
+        }
+    }
+
+    private Object fromPayload(SignalOutbox entry) {
+        if (!Boolean.TRUE.equals(entry.getBatch())) {
+            return entry.getPayload();
+        }
+        try {
+            return objectMapper.readValue(entry.getPayload(), REFERENCES_TYPE);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Error deserializando las referencias", e);
+        }
+    }
+
+    private String truncate(String error) {
+        return (error != null && error.length() > 1000) ? error.substring(0, 1000) : error;
+    }
+
+}
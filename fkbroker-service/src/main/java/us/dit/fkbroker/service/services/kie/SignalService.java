@@ -48,22 +48,27 @@ public class SignalService {
     private final SignalRepository signalRepository;
     private final SignalMapper signalMapper;
     private final TriggerRepository triggerRepository;
+    private final RoutingTable routingTable;
 
     /**
      * Constructor que inyecta los repositorios {@link SignalRepository} y
-     * {@link TriggerRepository} y el componente {@link signalMapper}.
+     * {@link TriggerRepository}, el componente {@link signalMapper} y la tabla de
+     * rutas {@link RoutingTable}.
      * 
      * @param signalRepository  repositorio JPA de la entidad {@link Signal}.
      * @param signalMapper      componente que transforma entidades y objetos de
      *                          dominio de señales.
      * @param triggerRepository repositorio JPA de la entidad {@link Trigger}.
+     * @param routingTable      tabla de rutas que se descarta al modificar las
+     *                          señales.
      */
     @Autowired
     public SignalService(SignalRepository signalRepository, SignalMapper signalMapper,
-            TriggerRepository triggerRepository) {
+            TriggerRepository triggerRepository, RoutingTable routingTable) {
         this.signalRepository = signalRepository;
         this.signalMapper = signalMapper;
         this.triggerRepository = triggerRepository;
+        this.routingTable = routingTable;
     }
 
     /**
@@ -86,17 +91,29 @@ public class SignalService {
     }
 
     /**
-     * Guarda una nueva entidad {@link Signal} en la base de datos.
+     * Guarda una nueva entidad {@link Signal} en la base de datos. Un trigger
+     * puede tener varias señales.
      * 
-     * @param idTrigger identificador del trigger de la señal.
-     * @param name      nombre de la señal.
+     * @param idTrigger   identificador del trigger de la señal.
+     * @param name        nombre de la señal.
+     * @param batch       indica si las referencias de una notificación se envían
+     *                    en una única señal.
+     * @param kieServer   URL del servidor KIE destino o vacío para enviarla a
+     *                    todos.
+     * @param containerId contenedor destino o vacío para enviarla a todos los
+     *                    contenedores arrancados.
      * @return el objeto {@link Signal} guardado.
      */
-    public Signal saveSignal(Long idTrigger, String name) {
+    public Signal saveSignal(Long idTrigger, String name, Boolean batch, String kieServer, String containerId) {
         Signal signal = new Signal();
         signal.setName(name);
         signal.setIdTrigger(idTrigger);
-        return signalRepository.save(signal);
+        signal.setBatch(batch);
+        signal.setKieServer(emptyToNull(kieServer));
+        signal.setContainerId(emptyToNull(containerId));
+        Signal savedSignal = signalRepository.save(signal);
+        routingTable.invalidate();
+        return savedSignal;
     }
 
     /**
@@ -106,32 +123,43 @@ public class SignalService {
      */
     public void deleteSignal(Long id) {
         signalRepository.deleteById(id);
+        routingTable.invalidate();
     }
 
     /**
-     * Actualiza el nombre de una entidad {@link Signal} en la base de datos.
+     * Actualiza el nombre, el modo de envío y los destinos de una entidad
+     * {@link Signal} en la base de datos.
      * 
-     * @param id   identificador de la señal a actualizar.
-     * @param name nuevo nombre de la señal.
+     * @param id          identificador de la señal a actualizar.
+     * @param name        nuevo nombre de la señal.
+     * @param batch       indica si las referencias de una notificación se envían
+     *                    en una única señal.
+     * @param kieServer   URL del servidor KIE destino o vacío para enviarla a
+     *                    todos.
+     * @param containerId contenedor destino o vacío para enviarla a todos los
+     *                    contenedores arrancados.
      */
-    public void updateSignal(Long id, String name) {
+    public void updateSignal(Long id, String name, Boolean batch, String kieServer, String containerId) {
         Optional<Signal> optionalSignal = findById(id);
         if (optionalSignal.isPresent()) {
             Signal signal = optionalSignal.get();
             signal.setName(name);
+            signal.setBatch(batch);
+            signal.setKieServer(emptyToNull(kieServer));
+            signal.setContainerId(emptyToNull(containerId));
             signalRepository.save(signal);
+            routingTable.invalidate();
         }
     }
 
     /**
-     * Obtiene una entidad {@link Signal} por el identificador del trigger.
+     * Obtiene las entidades {@link Signal} de un trigger.
      * 
-     * @param idTrigger    identificador del trigger de la señal.
-     * @return un Optional que contiene la entidad {@link Signal} si se encuentra, o
-     *         un Optional vacío si no.
+     * @param idTrigger identificador del trigger de las señales.
+     * @return el listado de señales del trigger.
      */
-    public Optional<Signal> getSignalByTrigger(Long idTrigger) {
-        return signalRepository.findByIdTrigger(idTrigger);
+    public List<Signal> getSignalsByTrigger(Long idTrigger) {
+        return signalRepository.findAllByIdTrigger(idTrigger);
     }
 
     /**
@@ -144,4 +172,8 @@ public class SignalService {
     public Optional<Signal> findById(Long id) {
         return signalRepository.findById(id);
     }
+
+    private String emptyToNull(String value) {
+        return (value == null || value.trim().isEmpty()) ? null : value.trim();
+    }
 }
@@ -52,6 +52,9 @@ public class SignalMapper {
         signalDetails.setResource(trigger.getResource());
         signalDetails.setInteraction(trigger.getInteraction());
         signalDetails.setName(signal.getName());
+        signalDetails.setBatch(signal.getBatch());
+        signalDetails.setKieServer(signal.getKieServer());
+        signalDetails.setContainerId(signal.getContainerId());
         return signalDetails;
     }
 
@@ -0,0 +1,187 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import us.dit.fkbroker.service.entities.db.FhirServer;
+import us.dit.fkbroker.service.entities.db.SubscriptionData;
+import us.dit.fkbroker.service.entities.domain.Route;
+
+/**
+ * Componente que registra las métricas de las etapas del procesamiento de las
+ * notificaciones, desde su recepción hasta el envío de las señales a los
+ * servidores KIE.
+ * 
+ * Todas las etapas se registran en el temporizador fkbroker.pipeline con la
+ * etiqueta stage, de modo que se pueden comparar entre sí, y con las etiquetas
+ * del servidor FHIR, el tema de subscripción y el trigger. Los envíos a los
+ * servidores KIE se registran en fkbroker.kie.signal por servidor y resultado.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+@Component
+public class PipelineMetrics {
+
+    public static final String STAGE_RECEIVE = "receive";
+    public static final String STAGE_LOOKUP = "lookup";
+    public static final String STAGE_PARSE = "parse";
+    public static final String STAGE_STATUS = "status";
+    public static final String STAGE_STATUS_FETCH = "status_fetch";
+    public static final String STAGE_RECOVERY = "recovery";
+    public static final String STAGE_RESOLVE = "resolve";
+    public static final String STAGE_SAVE = "save";
+
+    private static final String PIPELINE = "fkbroker.pipeline";
+    private static final String KIE_SIGNAL = "fkbroker.kie.signal";
+    private static final String KIE_SIGNAL_ERRORS = "fkbroker.kie.signal.errors";
+    private static final String LOST_EVENTS = "fkbroker.events.lost";
+    private static final String DUPLICATE_EVENTS = "fkbroker.events.duplicate";
+    private static final String UNKNOWN = "none";
+
+    private final MeterRegistry registry;
+
+    /**
+     * Constructor que inyecta el registro de métricas.
+     * 
+     * @param registry registro en el que se publican las métricas.
+     */
+    @Autowired
+    public PipelineMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * Inicia la medida de una etapa.
+     * 
+     * @return la muestra que se debe pasar a {@link #stop(Timer.Sample, String, Tags)}.
+     */
+    public Timer.Sample start() {
+        return Timer.start(registry);
+    }
+
+    /**
+     * Finaliza la medida de una etapa.
+     * 
+     * @param sample muestra obtenida al iniciar la medida.
+     * @param stage  nombre de la etapa.
+     * @param tags   etiquetas del servidor FHIR, tema y trigger.
+     */
+    public void stop(Timer.Sample sample, String stage, Tags tags) {
+        sample.stop(registry.timer(PIPELINE, tags.and("stage", stage)));
+    }
+
+    /**
+     * Registra el resultado de un envío de señal a un servidor KIE.
+     * 
+     * @param serverUrl URL del servidor KIE.
+     * @param success   indica si el envío ha sido satisfactorio.
+     * @param nanos     duración del envío en nanosegundos.
+     */
+    public void recordKieSignal(String serverUrl, boolean success, long nanos) {
+        registry.timer(KIE_SIGNAL, "kie.server", serverUrl, "outcome", success ? "success" : "error").record(nanos,
+                TimeUnit.NANOSECONDS);
+        if (!success) {
+            registry.counter(KIE_SIGNAL_ERRORS, "kie.server", serverUrl).increment();
+        }
+    }
+
+    /**
+     * Contabiliza los eventos perdidos detectados en una subscripción.
+     * 
+     * @param tags  etiquetas del servidor FHIR, tema y trigger.
+     * @param count número de eventos perdidos.
+     */
+    public void countLostEvents(Tags tags, long count) {
+        registry.counter(LOST_EVENTS, tags).increment(count);
+    }
+
+    /**
+     * Contabiliza los eventos ya señalizados que se descartan en una subscripción.
+     * 
+     * @param tags  etiquetas del servidor FHIR, tema y trigger.
+     * @param count número de eventos duplicados.
+     */
+    public void countDuplicateEvents(Tags tags, long count) {
+        registry.counter(DUPLICATE_EVENTS, tags).increment(count);
+    }
+
+    /**
+     * Obtiene las etiquetas de una ruta de la tabla de rutas.
+     * 
+     * @param route ruta del endpoint de notificación.
+     * @return las etiquetas del servidor FHIR, tema y trigger.
+     */
+    public Tags tags(Route route) {
+        return tags(route.getServer() != null ? route.getServer().getId() : null, route.getIdTopic(),
+                route.getIdTrigger());
+    }
+
+    /**
+     * Obtiene las etiquetas de los datos de una subscripción.
+     * 
+     * @param subscriptionData datos de la subscripción.
+     * @return las etiquetas del servidor FHIR, tema y trigger.
+     */
+    public Tags tags(SubscriptionData subscriptionData) {
+        Long idServer = subscriptionData.getServer() != null ? subscriptionData.getServer().getId() : null;
+        if (subscriptionData.getTopic() == null) {
+            return tags(idServer, null, null);
+        }
+        Long idTrigger = subscriptionData.getTopic().getTrigger() != null
+                ? subscriptionData.getTopic().getTrigger().getId()
+                : null;
+        return tags(idServer, subscriptionData.getTopic().getIdTopic(), idTrigger);
+    }
+
+    /**
+     * Obtiene las etiquetas de un servidor FHIR, sin tema ni trigger.
+     * 
+     * @param server información del servidor FHIR.
+     * @return las etiquetas del servidor FHIR.
+     */
+    public Tags tags(FhirServer server) {
+        return tags(server.getId(), null, null);
+    }
+
+    /**
+     * Obtiene las etiquetas de un trigger, sin servidor FHIR ni tema.
+     * 
+     * @param idTrigger identificador del trigger.
+     * @return las etiquetas del trigger.
+     */
+    public Tags tags(Long idTrigger) {
+        return tags(null, null, idTrigger);
+    }
+
+    private Tags tags(Long idServer, String idTopic, Long idTrigger) {
+        return Tags.of("fhir.server", idServer != null ? idServer.toString() : UNKNOWN, "topic",
+                idTopic != null ? idTopic : UNKNOWN, "trigger", idTrigger != null ? idTrigger.toString() : UNKNOWN);
+    }
+}
@@ -0,0 +1,148 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import us.dit.fkbroker.service.entities.domain.Route;
+
+/**
+ * Pruebas de la rueda de temporización de {@link HeartbeatMonitor}.
+ * 
+ * La rueda tiene casillas de 100 ms y sólo 4 casillas, de modo que los plazos de
+ * heartbeat (como mínimo de un segundo) están a más de una vuelta y se vuelven a
+ * colocar en la rueda al revisarse su casilla.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+class HeartbeatMonitorTest {
+
+    private SimpleMeterRegistry registry;
+    private HeartbeatMonitor monitor;
+
+    @BeforeEach
+    void setUp() {
+        registry = new SimpleMeterRegistry();
+        monitor = new HeartbeatMonitor(null, registry);
+        ReflectionTestUtils.setField(monitor, "heartbeatErrors", 1L);
+        ReflectionTestUtils.setField(monitor, "tickMillis", 100L);
+        ReflectionTestUtils.setField(monitor, "wheelSize", 4);
+        monitor.init();
+    }
+
+    @Test
+    void expiresDeadlineAfterHeartbeatPeriod() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+        assertEquals(1.0, deadlines());
+        assertTrue(monitor.pollExpired().isEmpty());
+
+        Thread.sleep(1200);
+        assertEquals(Collections.singletonList(1L), monitor.pollExpired());
+
+        // Una vez vencido deja de vigilarse hasta que se reinicie
+        assertEquals(0.0, deadlines());
+        assertTrue(monitor.pollExpired().isEmpty());
+    }
+
+    @Test
+    void keepsDeadlineAcrossSeveralTurnsOfTheWheel() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+
+        List<Long> expired = new ArrayList<>();
+        long start = System.currentTimeMillis();
+        while (System.currentTimeMillis() - start < 800) {
+            expired.addAll(monitor.pollExpired());
+            Thread.sleep(50);
+        }
+        assertTrue(expired.isEmpty());
+
+        Thread.sleep(400);
+        assertEquals(Collections.singletonList(1L), monitor.pollExpired());
+    }
+
+    @Test
+    void touchPostponesDeadline() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+        Thread.sleep(700);
+        monitor.touch(route(1L, 1));
+
+        Thread.sleep(700);
+        assertTrue(monitor.pollExpired().isEmpty());
+
+        Thread.sleep(700);
+        assertEquals(Collections.singletonList(1L), monitor.pollExpired());
+    }
+
+    @Test
+    void expiresOnlyTheSubscriptionsWithoutActivity() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+        monitor.touch(route(2L, 1));
+        monitor.touch(route(3L, 60));
+        Thread.sleep(700);
+        monitor.touch(route(2L, 1));
+
+        Thread.sleep(500);
+        assertEquals(Collections.singletonList(1L), monitor.pollExpired());
+        assertEquals(2.0, deadlines());
+    }
+
+    @Test
+    void cancelStopsWatchingSubscription() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+        monitor.cancel(1L);
+        assertEquals(0.0, deadlines());
+
+        Thread.sleep(1200);
+        assertTrue(monitor.pollExpired().isEmpty());
+    }
+
+    @Test
+    void doesNotWatchSubscriptionsWithoutHeartbeat() throws InterruptedException {
+        monitor.touch(route(1L, 1));
+        monitor.touch(route(1L, null));
+        monitor.touch(route(2L, null));
+        assertEquals(0.0, deadlines());
+
+        Thread.sleep(1200);
+        assertTrue(monitor.pollExpired().isEmpty());
+    }
+
+    private Route route(Long id, Integer heartbeatPeriod) {
+        return new Route(id, null, "Subscription/" + id, null, null, heartbeatPeriod, Collections.emptyList());
+    }
+
+    private double deadlines() {
+        return registry.get("fkbroker.heartbeat.deadlines").gauge().value();
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.Date;
+
+import org.hl7.fhir.r5.model.Bundle;
+import org.hl7.fhir.r5.model.Bundle.BundleType;
+import org.hl7.fhir.r5.model.Enumerations.RequestIntent;
+import org.hl7.fhir.r5.model.Enumerations.RequestStatus;
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.hl7.fhir.r5.model.Patient;
+import org.hl7.fhir.r5.model.Reference;
+import org.hl7.fhir.r5.model.Resource;
+import org.hl7.fhir.r5.model.ServiceRequest;
+import org.hl7.fhir.r5.model.SubscriptionStatus;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionStatusNotificationEventComponent;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import ca.uhn.fhir.context.FhirContext;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+
+/**
+ * Pruebas que comprueban que el lector JSON en streaming de
+ * {@link NotificationParser} obtiene los mismos datos que el parser completo de
+ * HAPI FHIR.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+class NotificationParserTest {
+
+    private static final FhirContext FHIR_CONTEXT = FhirContext.forR5();
+    private static final String BASE_URL = "http://localhost:8888/fhir/";
+
+    private NotificationParser parser;
+
+    @BeforeEach
+    void setUp() {
+        parser = new NotificationParser(FHIR_CONTEXT);
+        ReflectionTestUtils.setField(parser, "streaming", true);
+    }
+
+    @Test
+    void parsesIdOnlyEventNotification() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.EVENTNOTIFICATION, 12);
+        event(status, 10L, "ServiceRequest/10");
+        event(status, 11L, "ServiceRequest/11");
+        event(status, 12L, "ServiceRequest/12");
+
+        NotificationDetails details = assertParity(encode(bundle(status)));
+        assertEquals(Long.valueOf(10), details.getFirstEventNumber());
+        assertEquals(Arrays.asList(BASE_URL + "ServiceRequest/10", BASE_URL + "ServiceRequest/11",
+                BASE_URL + "ServiceRequest/12"), details.getReferences());
+    }
+
+    @Test
+    void parsesFullResourceEventNotification() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.EVENTNOTIFICATION, 2);
+        event(status, 1L, "ServiceRequest/1");
+        event(status, 2L, "ServiceRequest/2");
+
+        Bundle bundle = bundle(status);
+        bundle.addEntry().setFullUrl(BASE_URL + "ServiceRequest/1").setResource(serviceRequest("1"));
+        bundle.addEntry().setFullUrl(BASE_URL + "ServiceRequest/2").setResource(serviceRequest("2"));
+
+        assertParity(encode(bundle));
+    }
+
+    @Test
+    void parsesEmptyEventNotification() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.EVENTNOTIFICATION, 5);
+        event(status, 4L, null);
+        event(status, 5L, null);
+
+        NotificationDetails details = assertParity(encode(bundle(status)));
+        assertEquals(Long.valueOf(4), details.getFirstEventNumber());
+        assertEquals(0, details.getReferences().size());
+    }
+
+    @Test
+    void parsesEventsWithoutEventNumber() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.EVENTNOTIFICATION, 1);
+        event(status, null, "ServiceRequest/1");
+
+        assertParity(encode(bundle(status)));
+    }
+
+    @Test
+    void parsesHeartbeat() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.HEARTBEAT, 7);
+
+        NotificationDetails details = assertParity(encode(bundle(status)));
+        assertEquals(SubscriptionNotificationType.HEARTBEAT, details.getType());
+        assertEquals(Long.valueOf(7), details.getEventsSinceSubscriptionStart());
+    }
+
+    @Test
+    void parsesHandshake() {
+        SubscriptionStatus status = status(SubscriptionNotificationType.HANDSHAKE, 0);
+        status.setStatus(SubscriptionStatusCodes.REQUESTED);
+
+        NotificationDetails details = assertParity(encode(bundle(status)));
+        assertEquals(SubscriptionStatusCodes.REQUESTED, details.getStatus());
+    }
+
+    @Test
+    void parsesFieldsInAnyOrder() {
+        String message = "{\"entry\":[{\"resource\":{\"notificationEvent\":[{\"focus\":{\"reference\":"
+                + "\"ServiceRequest/3\"},\"eventNumber\":\"3\"}],\"eventsSinceSubscriptionStart\":\"3\","
+                + "\"status\":\"active\",\"type\":\"event-notification\",\"resourceType\":\"SubscriptionStatus\"},"
+                + "\"fullUrl\":\"urn:uuid:1\"}],\"type\":\"subscription-notification\",\"resourceType\":\"Bundle\"}";
+
+        NotificationDetails details = assertParity(message);
+        assertEquals(Arrays.asList(3L), details.getEventNumbers());
+    }
+
+    @Test
+    void delegatesUnexpectedStructureToHapi() {
+        Bundle bundle = new Bundle();
+        bundle.setType(BundleType.SUBSCRIPTIONNOTIFICATION);
+        bundle.addEntry().setResource(new Patient());
+        String message = encode(bundle);
+
+        assertNull(parser.parseStreaming(message));
+        assertThrows(RuntimeException.class, () -> parser.parse(message));
+    }
+
+    @Test
+    void rejectsMessagesThatAreNotBundles() {
+        assertNull(parser.parseStreaming(encode(status(SubscriptionNotificationType.HEARTBEAT, 1))));
+        assertNull(parser.parseStreaming("[]"));
+        assertNull(parser.parseStreaming("{\"resourceType\":\"Bundle\",\"entry\":["));
+    }
+
+    @Test
+    void rejectsUnknownCodes() {
+        String message = encode(bundle(status(SubscriptionNotificationType.HEARTBEAT, 1)))
+                .replace("\"heartbeat\"", "\"unknown\"");
+
+        assertNull(parser.parseStreaming(message));
+    }
+
+    /**
+     * Comprueba que ambos parsers obtienen los mismos datos de la notificación.
+     */
+    private NotificationDetails assertParity(String message) {
+        NotificationDetails expected = parser.parseHapi(message);
+        NotificationDetails actual = parser.parseStreaming(message);
+
+        assertNotNull(actual);
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getStatus(), actual.getStatus());
+        assertEquals(expected.getEventsSinceSubscriptionStart(), actual.getEventsSinceSubscriptionStart());
+        assertEquals(expected.getFirstEventNumber(), actual.getFirstEventNumber());
+        assertEquals(expected.getReferences(), actual.getReferences());
+        assertEquals(expected.getEventNumbers(), actual.getEventNumbers());
+        return actual;
+    }
+
+    private SubscriptionStatus status(SubscriptionNotificationType type, long events) {
+        SubscriptionStatus status = new SubscriptionStatus();
+        status.setStatus(SubscriptionStatusCodes.ACTIVE);
+        status.setType(type);
+        status.setEventsSinceSubscriptionStart(events);
+        status.setSubscription(new Reference(BASE_URL + "Subscription/1"));
+        status.setTopic(BASE_URL + "SubscriptionTopic/create-ServiceRequest");
+        return status;
+    }
+
+    private void event(SubscriptionStatus status, Long eventNumber, String reference) {
+        SubscriptionStatusNotificationEventComponent event = status.addNotificationEvent();
+        if (eventNumber != null) {
+            event.setEventNumber(eventNumber);
+        }
+        event.setTimestamp(new Date());
+        if (reference != null) {
+            event.setFocus(new Reference(BASE_URL + reference));
+        }
+    }
+
+    private Bundle bundle(SubscriptionStatus status) {
+        Bundle bundle = new Bundle();
+        bundle.setType(BundleType.SUBSCRIPTIONNOTIFICATION);
+        bundle.setTimestamp(new Date());
+        bundle.addEntry().setFullUrl("urn:uuid:" + status.hashCode()).setResource(status);
+        return bundle;
+    }
+
+    private ServiceRequest serviceRequest(String id) {
+        ServiceRequest serviceRequest = new ServiceRequest();
+        serviceRequest.setId("ServiceRequest/" + id);
+        serviceRequest.setStatus(RequestStatus.ACTIVE);
+        serviceRequest.setIntent(RequestIntent.ORDER);
+        serviceRequest.setSubject(new Reference("Patient/" + id));
+        return serviceRequest;
+    }
+
+    private String encode(Resource resource) {
+        return FHIR_CONTEXT.newJsonParser().encodeResourceToString(resource);
+    }
+
+}
@@ -0,0 +1,257 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+
+import org.hl7.fhir.r5.model.Enumerations.SubscriptionStatusCodes;
+import org.hl7.fhir.r5.model.SubscriptionStatus.SubscriptionNotificationType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import us.dit.fkbroker.service.entities.domain.NotificationDetails;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Pruebas de la reordenación de notificaciones de
+ * {@link NotificationSequencer}.
+ * 
+ * Los mensajes de las notificaciones son claves de un mapa con sus datos, y las
+ * tareas del ejecutor se ejecutan de forma explícita en el hilo de la prueba.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+class NotificationSequencerTest {
+
+    private static final Long ID = 1L;
+
+    private final Map<String, NotificationDetails> notifications = new HashMap<>();
+    private final List<Runnable> tasks = new ArrayList<>();
+    private final List<String> processed = new ArrayList<>();
+
+    private NotificationSequencer sequencer;
+
+    @BeforeEach
+    void setUp() {
+        NotificationParser parser = new NotificationParser(null) {
+            @Override
+            public NotificationDetails parse(String message) {
+                return notifications.get(message);
+            }
+        };
+        Executor executor = tasks::add;
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        sequencer = new NotificationSequencer(parser, new PipelineMetrics(registry), executor, registry);
+        ReflectionTestUtils.setField(sequencer, "capacity", 100);
+        ReflectionTestUtils.setField(sequencer, "reorderWindow", 60000L);
+        ReflectionTestUtils.setField(sequencer, "reorderSize", 32);
+        sequencer.init();
+
+        event("e1", 1, 1);
+        event("e2", 2, 1);
+        event("e3", 3, 1);
+        event("e4", 4, 1);
+        event("e5", 5, 1);
+        event("e2-3", 2, 2);
+        heartbeat("h3", 3);
+    }
+
+    @Test
+    void processesNotificationsInOrderOfArrival() {
+        submit("e1");
+        submit("e2");
+        submit("e3");
+        runTasks();
+
+        assertEquals(Arrays.asList("e1", "e2", "e3"), processed);
+    }
+
+    @Test
+    void holdsNotificationUntilMissingOneArrives() {
+        process("e1");
+
+        submit("e3");
+        runTasks();
+        assertEquals(Collections.singletonList("e1"), processed);
+
+        submit("e2");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e2", "e3"), processed);
+    }
+
+    @Test
+    void releasesHeldNotificationsInOrderOfEvents() {
+        process("e1");
+
+        submit("e5");
+        submit("e3");
+        submit("e4");
+        runTasks();
+        assertEquals(Collections.singletonList("e1"), processed);
+
+        submit("e2");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e2", "e3", "e4", "e5"), processed);
+    }
+
+    @Test
+    void holdsHeartbeatUntilItsEventsAreProcessed() {
+        process("e1");
+
+        submit("h3");
+        runTasks();
+        assertEquals(Collections.singletonList("e1"), processed);
+
+        submit("e2-3");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e2-3", "h3"), processed);
+    }
+
+    @Test
+    void flushExpiredReleasesNotificationsAfterWindow() throws InterruptedException {
+        ReflectionTestUtils.setField(sequencer, "reorderWindow", 50L);
+        process("e1");
+
+        submit("e3");
+        runTasks();
+        sequencer.flushExpired();
+        assertTrue(tasks.isEmpty());
+
+        Thread.sleep(100);
+        sequencer.flushExpired();
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e3"), processed);
+
+        // La notificación que faltaba llega tarde y se procesa igualmente
+        submit("e2");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e3", "e2"), processed);
+    }
+
+    @Test
+    void releasesHeldNotificationsWhenBufferIsFull() {
+        ReflectionTestUtils.setField(sequencer, "reorderSize", 2);
+        process("e1");
+
+        submit("e5");
+        submit("e4");
+        runTasks();
+        assertEquals(Collections.singletonList("e1"), processed);
+
+        submit("e3");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e3", "e4", "e5"), processed);
+    }
+
+    @Test
+    void doesNotHoldNotificationsWithoutWindow() {
+        ReflectionTestUtils.setField(sequencer, "reorderWindow", 0L);
+        process("e1");
+
+        submit("e3");
+        submit("e2");
+        runTasks();
+
+        assertEquals(Arrays.asList("e1", "e3", "e2"), processed);
+    }
+
+    @Test
+    void keepsSubscriptionsIndependent() {
+        process("e1");
+        submit("e3");
+        sequencer.submit(2L, Tags.empty(), "e3", record("other-e3"));
+        runTasks();
+
+        assertEquals(Arrays.asList("e1", "other-e3"), processed);
+    }
+
+    @Test
+    void rejectsNotificationsWhenQueueIsFull() {
+        ReflectionTestUtils.setField(sequencer, "capacity", 1);
+
+        submit("e1");
+        assertThrows(RejectedExecutionException.class, () -> submit("e2"));
+
+        runTasks();
+        submit("e2");
+        runTasks();
+        assertEquals(Arrays.asList("e1", "e2"), processed);
+    }
+
+    private void event(String message, long first, long count) {
+        List<String> references = new ArrayList<>();
+        List<Long> eventNumbers = new ArrayList<>();
+        for (long event = first; event < first + count; event++) {
+            references.add("ServiceRequest/" + event);
+            eventNumbers.add(event);
+        }
+        notifications.put(message, new NotificationDetails(SubscriptionNotificationType.EVENTNOTIFICATION,
+                SubscriptionStatusCodes.ACTIVE, first + count - 1, first, references, eventNumbers));
+    }
+
+    private void heartbeat(String message, long events) {
+        notifications.put(message, new NotificationDetails(SubscriptionNotificationType.HEARTBEAT,
+                SubscriptionStatusCodes.ACTIVE, events, 0L, new ArrayList<>(), new ArrayList<>()));
+    }
+
+    private void process(String message) {
+        sequencer.process(ID, Tags.empty(), message, record(message));
+    }
+
+    private void submit(String message) {
+        sequencer.submit(ID, Tags.empty(), message, record(message));
+    }
+
+    /**
+     * Procesador que anota la notificación y devuelve su último evento.
+     */
+    private Function<NotificationDetails, Long> record(String name) {
+        return details -> {
+            processed.add(name);
+            return details.getEventsSinceSubscriptionStart();
+        };
+    }
+
+    private void runTasks() {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+}
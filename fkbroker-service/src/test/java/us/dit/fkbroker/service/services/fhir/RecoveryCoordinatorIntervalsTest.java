@@ -0,0 +1,174 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import us.dit.fkbroker.service.services.fhir.RecoveryCoordinator.Intervals;
+
+/**
+ * Pruebas del conjunto de intervalos de eventos de {@link RecoveryCoordinator}.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+class RecoveryCoordinatorIntervalsTest {
+
+    @Test
+    void addMergesOverlappingAndAdjacentRanges() {
+        Intervals intervals = new Intervals();
+        intervals.add(10, 20);
+        intervals.add(15, 25);
+        intervals.add(26, 30);
+        intervals.add(1, 9);
+
+        assertRanges(intervals, new long[] { 1, 30 });
+    }
+
+    @Test
+    void addKeepsDisjointRangesOrdered() {
+        Intervals intervals = new Intervals();
+        intervals.add(40, 50);
+        intervals.add(1, 5);
+        intervals.add(20, 30);
+
+        assertRanges(intervals, new long[] { 1, 5 }, new long[] { 20, 30 }, new long[] { 40, 50 });
+    }
+
+    @Test
+    void addSpanningSeveralRangesMergesThemAll() {
+        Intervals intervals = new Intervals();
+        intervals.add(1, 2);
+        intervals.add(5, 6);
+        intervals.add(9, 10);
+        intervals.add(14, 15);
+        intervals.add(3, 11);
+
+        assertRanges(intervals, new long[] { 1, 11 }, new long[] { 14, 15 });
+    }
+
+    @Test
+    void removeInsideRangeSplitsIt() {
+        Intervals intervals = new Intervals();
+        intervals.add(1, 100);
+        intervals.remove(40, 60);
+
+        assertRanges(intervals, new long[] { 1, 39 }, new long[] { 61, 100 });
+    }
+
+    @Test
+    void removeTrimsRangeEnds() {
+        Intervals intervals = new Intervals();
+        intervals.add(1, 10);
+        intervals.add(20, 30);
+        intervals.remove(8, 22);
+
+        assertRanges(intervals, new long[] { 1, 7 }, new long[] { 23, 30 });
+    }
+
+    @Test
+    void removeCoveringRangesDeletesThem() {
+        Intervals intervals = new Intervals();
+        intervals.add(5, 10);
+        intervals.add(20, 30);
+        intervals.add(40, 45);
+        intervals.remove(1, 35);
+
+        assertRanges(intervals, new long[] { 40, 45 });
+    }
+
+    @Test
+    void removeSingleEventAtRangeStartAndEnd() {
+        Intervals intervals = new Intervals();
+        intervals.add(1, 10);
+        intervals.remove(1, 1);
+        intervals.remove(10, 10);
+
+        assertRanges(intervals, new long[] { 2, 9 });
+    }
+
+    @Test
+    void removeOutsideRangesHasNoEffect() {
+        Intervals intervals = new Intervals();
+        intervals.add(10, 20);
+        intervals.remove(1, 9);
+        intervals.remove(21, 30);
+
+        assertRanges(intervals, new long[] { 10, 20 });
+    }
+
+    @Test
+    void removeAllSubtractsEveryRange() {
+        Intervals missing = new Intervals();
+        missing.add(1, 100);
+        Intervals received = new Intervals();
+        received.add(10, 19);
+        received.add(50, 50);
+        received.add(90, 120);
+
+        missing.removeAll(received);
+
+        assertRanges(missing, new long[] { 1, 9 }, new long[] { 20, 49 }, new long[] { 51, 89 });
+    }
+
+    @Test
+    void containsChecksRangeBounds() {
+        Intervals intervals = new Intervals();
+        intervals.add(10, 20);
+        intervals.add(30, 30);
+
+        assertFalse(intervals.contains(9));
+        assertTrue(intervals.contains(10));
+        assertTrue(intervals.contains(20));
+        assertFalse(intervals.contains(21));
+        assertTrue(intervals.contains(30));
+        assertFalse(intervals.contains(31));
+    }
+
+    @Test
+    void pollFirstReturnsRangesInOrder() {
+        Intervals intervals = new Intervals();
+        intervals.add(20, 30);
+        intervals.add(1, 5);
+
+        assertArrayEquals(new long[] { 1, 5 }, intervals.pollFirst());
+        assertArrayEquals(new long[] { 20, 30 }, intervals.pollFirst());
+        assertNull(intervals.pollFirst());
+        assertTrue(intervals.isEmpty());
+    }
+
+    private static void assertRanges(Intervals intervals, long[]... expected) {
+        List<long[]> ranges = intervals.toList();
+        assertEquals(expected.length, ranges.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], ranges.get(i));
+        }
+    }
+}
@@ -0,0 +1,204 @@
+/**
+*  This file is part of FKBroker - Broker sending signals to KIEServers from FHIR notifications.
+*  Copyright (C) 2024  Universidad de Sevilla/Departamento de Ingeniería Telemática
+*
+*  FKBroker is free software: you can redistribute it and/or
+*  modify it under the terms of the GNU General Public License as published
+*  by the Free Software Foundation, either version 3 of the License, or (at
+*  your option) any later version.
+*
+*  FKBroker is distributed in the hope that it will be useful,
+*  but WITHOUT ANY WARRANTY; without even the implied warranty of
+*  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU General
+*  Public License for more details.
+*
+*  You should have received a copy of the GNU General Public License along
+*  with FKBroker. If not, see <https://www.gnu.org/licenses/>.
+*
+*  This software uses third-party dependencies, including libraries licensed under Apache 2.0.
+*  See the project documentation for more details on dependency licenses.
+**/
+package us.dit.fkbroker.service.services.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import us.dit.fkbroker.service.entities.domain.SignalResult;
+import us.dit.fkbroker.service.repositories.SubscriptionRepository;
+import us.dit.fkbroker.service.services.fhir.SignalDeduplicator.Window;
+import us.dit.fkbroker.service.services.metrics.PipelineMetrics;
+
+/**
+ * Pruebas de la ventana de eventos señalizados y de la reserva de eventos de
+ * {@link SignalDeduplicator}.
+ * 
+ * @author josperbel
+ * @version 1.0
+ * @date Jun 2025
+ */
+class SignalDeduplicatorTest {
+
+    private static final Long ID = 1L;
+
+    private SignalDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() {
+        deduplicator = new SignalDeduplicator(mock(SubscriptionRepository.class), null,
+                new PipelineMetrics(new SimpleMeterRegistry()));
+        ReflectionTestUtils.setField(deduplicator, "windowSize", 128);
+        ReflectionTestUtils.setField(deduplicator, "batchSize", 500);
+    }
+
+    @Test
+    void markDetectsMarkedEvents() {
+        Window window = new Window(2);
+
+        assertTrue(window.mark(5));
+        assertFalse(window.mark(5));
+        assertTrue(window.contains(5));
+        assertFalse(window.contains(6));
+    }
+
+    @Test
+    void markAdvancesWindowAndForgetsOldestWord() {
+        Window window = new Window(2);
+        window.mark(10);
+        window.mark(70);
+
+        assertTrue(window.mark(130));
+        assertEquals(2, window.getHighWord());
+        assertFalse(window.contains(10));
+        assertTrue(window.contains(70));
+        assertTrue(window.contains(130));
+    }
+
+    @Test
+    void markAcceptsEventsBeforeWindowWithoutMarkingThem() {
+        Window window = new Window(2);
+        window.mark(1000);
+
+        assertTrue(window.mark(5));
+        assertTrue(window.mark(5));
+        assertFalse(window.contains(5));
+        assertTrue(window.mark(-1));
+    }
+
+    @Test
+    void markClearsReusedWordsWhenWrappingAround() {
+        Window window = new Window(2);
+        window.mark(1);
+        window.mark(66);
+
+        // La palabra del evento 129 reutiliza la casilla de la del evento 1
+        assertTrue(window.mark(129));
+        assertFalse(window.mark(129));
+        assertTrue(window.contains(66));
+
+        // Un salto mayor que la ventana limpia todas las casillas
+        assertTrue(window.mark(641));
+        assertTrue(window.mark(577));
+        assertFalse(window.contains(129));
+    }
+
+    @Test
+    void loadRestoresWindowSavedWithToBytes() {
+        Window window = new Window(2);
+        window.mark(3);
+        window.mark(64);
+        window.mark(100);
+
+        Window loaded = new Window(2);
+        loaded.load(window.getHighWord(), window.toBytes());
+
+        assertEquals(window.getHighWord(), loaded.getHighWord());
+        assertArrayEquals(window.toBytes(), loaded.toBytes());
+        assertTrue(loaded.contains(3));
+        assertTrue(loaded.contains(64));
+        assertTrue(loaded.contains(100));
+        assertFalse(loaded.contains(4));
+        assertFalse(loaded.mark(64));
+    }
+
+    @Test
+    void loadIgnoresWindowsOfAnotherSize() {
+        Window window = new Window(2);
+        window.mark(3);
+
+        Window loaded = new Window(4);
+        loaded.load(window.getHighWord(), window.toBytes());
+        loaded.load(null, null);
+
+        assertEquals(-1, loaded.getHighWord());
+        assertFalse(loaded.contains(3));
+    }
+
+    @Test
+    void dropsReservedEventsUntilReleased() {
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        assertFalse(deduplicator.markSignalled(ID, 7, Tags.empty()));
+
+        deduplicator.release(ID, Collections.singletonList(7L));
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+    }
+
+    @Test
+    void marksQueuedEventsOnCommit() {
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        deduplicator.settle(ID, Collections.singletonList(7L), true, new CompletableFuture<>());
+
+        // Sin transacción en curso se marcan inmediatamente
+        deduplicator.release(ID, Collections.singletonList(7L));
+        assertFalse(deduplicator.markSignalled(ID, 7, Tags.empty()));
+    }
+
+    @Test
+    void marksDeliveredEventsOnlyWhenDeliverySucceeds() {
+        CompletableFuture<List<SignalResult>> delivery = new CompletableFuture<>();
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        deduplicator.settle(ID, Collections.singletonList(7L), false, delivery);
+
+        delivery.complete(Collections.singletonList(SignalResult.success("http://kie", "container", "signal", 1)));
+        deduplicator.release(ID, Collections.singletonList(7L));
+        assertFalse(deduplicator.markSignalled(ID, 7, Tags.empty()));
+    }
+
+    @Test
+    void releasesEventsWhenDeliveryFails() {
+        CompletableFuture<List<SignalResult>> failed = new CompletableFuture<>();
+        CompletableFuture<List<SignalResult>> error = new CompletableFuture<>();
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        assertTrue(deduplicator.markSignalled(ID, 8, Tags.empty()));
+        deduplicator.settle(ID, Collections.singletonList(7L), false, failed);
+        deduplicator.settle(ID, Collections.singletonList(8L), false, error);
+
+        failed.complete(Collections.singletonList(
+                SignalResult.failure("http://kie", "container", "signal", "Connection refused", 1)));
+        error.completeExceptionally(new RuntimeException("Connection refused"));
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        assertTrue(deduplicator.markSignalled(ID, 8, Tags.empty()));
+    }
+
+    @Test
+    void releasesEventsWithoutDeliveryTargets() {
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+        deduplicator.settle(ID, Collections.singletonList(7L), false,
+                CompletableFuture.completedFuture(Collections.emptyList()));
+
+        assertTrue(deduplicator.markSignalled(ID, 7, Tags.empty()));
+    }
+
+}